@@ -0,0 +1,156 @@
+package se.kth.Bahaa.booksdb.benchmarks;
+
+import se.kth.Bahaa.booksdb.model.Author;
+import se.kth.Bahaa.booksdb.model.Book;
+import se.kth.Bahaa.booksdb.model.BooksDpImpl;
+import se.kth.Bahaa.booksdb.model.Genre;
+import se.kth.Bahaa.booksdb.model.InMemoryBooksDb;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The generated catalog the benchmarks run against: an H2 database in MySQL
+ * mode, one file per catalog size, seeded once through BooksDpImpl.addBooks and
+ * reused by later runs. Book i and its authors are always generated the same
+ * way, so the benchmarks can pick existing titles, ISBNs and authors at random.
+ */
+final class Catalog {
+    static final String[] TITLE_WORDS = {
+            "shadow", "river", "crown", "winter", "garden", "empire", "silent", "storm", "glass", "harbor",
+            "ember", "forest", "night", "mirror", "stone", "voyage", "thunder", "lantern", "orchard", "tide"};
+    static final String[] FIRST_NAMES = {
+            "Astrid", "Bertil", "Cecilia", "David", "Elin", "Fredrik", "Greta", "Hugo", "Ingrid", "Johan",
+            "Karin", "Lars", "Maja", "Nils", "Olivia", "Per"};
+    static final String[] LAST_NAMES = {
+            "Andersson", "Berg", "Carlsson", "Dahl", "Eriksson", "Forsberg", "Gustafsson", "Holm", "Isaksson",
+            "Johansson", "Karlsson", "Lindqvist", "Magnusson", "Nilsson", "Olsson", "Persson", "Sandberg"};
+    private static final int SEED_CHUNK = 10_000;
+
+    private Catalog() {
+    }
+
+    static int authorCount(int catalogSize) {
+        return Math.max(10, catalogSize / 5);
+    }
+
+    static String isbn(int i) {
+        return String.format("978%010d", i);
+    }
+
+    static String title(int i) {
+        return TITLE_WORDS[i % TITLE_WORDS.length] + " of the " + TITLE_WORDS[(i / 7) % TITLE_WORDS.length] + " " + i;
+    }
+
+    static String authorName(int author) {
+        return FIRST_NAMES[author % FIRST_NAMES.length] + " " + LAST_NAMES[(author / 3) % LAST_NAMES.length]
+                + " " + author;
+    }
+
+    static Author author(int author) {
+        return new Author(-1, authorName(author), String.format("19%08d", author));
+    }
+
+    static Book book(int i, int catalogSize) {
+        Book book = new Book(isbn(i), title(i), Date.valueOf(java.time.LocalDate.of(1950 + i % 70, 1 + i % 12, 1 + i % 28)));
+        book.setGenre(Genre.values()[i % Genre.values().length]);
+        book.setRating(1 + i % 5);
+        int authors = authorCount(catalogSize);
+        int mainAuthor = i % authors;
+        book.addAuthor(author(mainAuthor));
+        if (i % 4 == 0) { // every fourth book has a co-author
+            int coAuthor = (i / 4 + 1) % authors;
+            book.addAuthor(author(coAuthor != mainAuthor ? coAuthor : (coAuthor + 1) % authors));
+        }
+        return book;
+    }
+
+    static String url(int catalogSize) {
+        Path dir = Paths.get(System.getProperty("benchmark.dbDir", "target/benchmark-db")).toAbsolutePath();
+        return "jdbc:h2:file:" + dir.resolve("catalog-" + catalogSize)
+                + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE;CASE_INSENSITIVE_IDENTIFIERS=TRUE";
+    }
+
+    static Properties properties(boolean searchIndexes) {
+        Properties properties = new Properties();
+        properties.setProperty("db.titleIndex.enabled", Boolean.toString(searchIndexes));
+        properties.setProperty("db.authorIndex.enabled", Boolean.toString(searchIndexes));
+        properties.setProperty("db.batch.chunkSize", "5000");
+        return properties;
+    }
+
+    /**
+     * Connects to the catalog of the given size, seeding it first unless a previous run already did.
+     */
+    static BooksDpImpl open(int catalogSize, boolean searchIndexes) throws Exception {
+        String url = url(catalogSize);
+        if (countBooks(url) != catalogSize) {
+            seed(url, catalogSize);
+        }
+        BooksDpImpl booksDb = new BooksDpImpl(properties(searchIndexes));
+        booksDb.connect(url, "sa", "", null);
+        if (!booksDb.awaitSearchIndexes(30 * 60_000L)) {
+            throw new IllegalStateException("The search indexes were not built within 30 minutes.");
+        }
+        return booksDb;
+    }
+
+    /**
+     * Fills an InMemoryBooksDb with the same books as the H2 catalog of the given size.
+     */
+    static InMemoryBooksDb openInMemory(int catalogSize) throws Exception {
+        InMemoryBooksDb booksDb = new InMemoryBooksDb();
+        booksDb.connect(null, null, null, null);
+        for (int from = 0; from < catalogSize; from += SEED_CHUNK) {
+            List<Book> chunk = new ArrayList<>();
+            for (int i = from; i < Math.min(catalogSize, from + SEED_CHUNK); i++) {
+                chunk.add(book(i, catalogSize));
+            }
+            booksDb.addBooks(chunk);
+        }
+        return booksDb;
+    }
+
+    private static void seed(String url, int catalogSize) throws Exception {
+        System.out.println("Seeding " + catalogSize + " books into " + url);
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        BooksDpImpl booksDb = new BooksDpImpl(properties(false));
+        booksDb.connect(url, "sa", "", null);
+        long start = System.currentTimeMillis();
+        try {
+            for (int from = 0; from < catalogSize; from += SEED_CHUNK) {
+                List<Book> chunk = new ArrayList<>();
+                for (int i = from; i < Math.min(catalogSize, from + SEED_CHUNK); i++) {
+                    chunk.add(book(i, catalogSize));
+                }
+                booksDb.addBooks(chunk);
+            }
+        } finally {
+            booksDb.disconnect();
+        }
+        System.out.println("Seeded in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    private static int countBooks(String url) {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM Book")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        } catch (SQLException e) {
+            return -1; // a new database without tables
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package se.kth.Bahaa.booksdb.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import se.kth.Bahaa.booksdb.model.Book;
+import se.kth.Bahaa.booksdb.model.BooksDbInterface;
+import se.kth.Bahaa.booksdb.model.BooksDpImpl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The connected catalog shared by all benchmark threads. Select the catalog
+ * sizes with -p catalogSize=..., and measure the SQL search paths instead of
+ * the in-memory indexes with -p searchIndexes=false. With -p backend=memory the
+ * same catalog is held by InMemoryBooksDb, the baseline for the SQL backend.
+ */
+@State(Scope.Benchmark)
+public class CatalogState {
+    @Param({"1000", "100000", "1000000"})
+    public int catalogSize;
+
+    @Param({"true"})
+    public boolean searchIndexes;
+
+    @Param({"sql", "memory"})
+    public String backend;
+
+    BooksDbInterface booksDb;
+    final Queue<Book> added = new ConcurrentLinkedQueue<>(); // books added by the write benchmarks
+
+
+    @Setup(Level.Trial)
+    public void connect() throws Exception {
+        booksDb = backend.equals("memory") ? Catalog.openInMemory(catalogSize) : Catalog.open(catalogSize, searchIndexes);
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() throws Exception {
+        for (Book book : added) {
+            booksDb.deleteBook(book); // keep the catalog size for the next run
+        }
+        if (booksDb instanceof BooksDpImpl sqlDb) {
+            System.out.println(sqlDb.getBookCache());
+        }
+        booksDb.disconnect();
+    }
+}
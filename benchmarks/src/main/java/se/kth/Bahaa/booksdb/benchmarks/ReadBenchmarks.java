@@ -0,0 +1,98 @@
+package se.kth.Bahaa.booksdb.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.kth.Bahaa.booksdb.model.Book;
+import se.kth.Bahaa.booksdb.model.BooksDbException;
+import se.kth.Bahaa.booksdb.model.Genre;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read paths of BooksDpImpl. Each search picks a random existing title
+ * word, author, ISBN, genre or rating, so both the cache and the database are
+ * exercised the way a user would. Throughput and average time are reported,
+ * and SampleTime gives the latency percentiles.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ReadBenchmarks {
+
+    @State(Scope.Thread)
+    public static class Queries {
+        private final SplittableRandom random = new SplittableRandom(42);
+
+        int book(CatalogState catalog) {
+            return random.nextInt(catalog.catalogSize);
+        }
+
+        int author(CatalogState catalog) {
+            return random.nextInt(Catalog.authorCount(catalog.catalogSize));
+        }
+
+        String word() {
+            return Catalog.TITLE_WORDS[random.nextInt(Catalog.TITLE_WORDS.length)];
+        }
+
+        Genre genre() {
+            return Genre.values()[random.nextInt(Genre.values().length)];
+        }
+
+        int rating() {
+            return 1 + random.nextInt(5);
+        }
+    }
+
+    @Benchmark
+    public List<Book> getAllBooks(CatalogState catalog) throws BooksDbException {
+        return catalog.booksDb.getAllBooks();
+    }
+
+    /**
+     * A title that matches one book, like a user typing most of a title.
+     */
+    @Benchmark
+    public List<Book> searchBooksByTitle(CatalogState catalog, Queries queries) throws BooksDbException {
+        return catalog.booksDb.searchBooksByTitle(Catalog.title(queries.book(catalog)));
+    }
+
+    /**
+     * A single word, which matches a large share of the catalog.
+     */
+    @Benchmark
+    public List<Book> searchBooksByTitleWord(CatalogState catalog, Queries queries) throws BooksDbException {
+        return catalog.booksDb.searchBooksByTitle(queries.word());
+    }
+
+    @Benchmark
+    public List<Book> searchBooksByAuthor(CatalogState catalog, Queries queries) throws BooksDbException {
+        return catalog.booksDb.searchBooksByAuthor(Catalog.authorName(queries.author(catalog)));
+    }
+
+    @Benchmark
+    public List<Book> searchBookByISBN(CatalogState catalog, Queries queries) throws BooksDbException {
+        return catalog.booksDb.searchBookByISBN(Catalog.isbn(queries.book(catalog)));
+    }
+
+    @Benchmark
+    public List<Book> searchBooksByGenre(CatalogState catalog, Queries queries) throws BooksDbException {
+        return catalog.booksDb.searchBooksByGenre(queries.genre());
+    }
+
+    @Benchmark
+    public List<Book> searchBooksByRating(CatalogState catalog, Queries queries) throws BooksDbException {
+        return catalog.booksDb.searchBooksByRating(queries.rating());
+    }
+}
@@ -0,0 +1,141 @@
+package se.kth.Bahaa.booksdb.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.kth.Bahaa.booksdb.model.Book;
+import se.kth.Bahaa.booksdb.model.BookBatch;
+import se.kth.Bahaa.booksdb.model.BookBatchResult;
+import se.kth.Bahaa.booksdb.model.BooksDbException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The write paths of BooksDpImpl. The books added by a run are deleted again
+ * afterwards so the catalog keeps its size for the next run, and updateBook
+ * only changes ratings so the searches keep finding the same books.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class WriteBenchmarks {
+
+    private static final AtomicInteger NEXT_BOOK = new AtomicInteger();
+    private static final int BATCH_SIZE = 100;
+
+    @State(Scope.Thread)
+    public static class Writes {
+        private final SplittableRandom random = new SplittableRandom(7);
+        private CatalogState catalog;
+
+        @Setup(Level.Trial)
+        public void setUp(CatalogState catalog) {
+            this.catalog = catalog;
+        }
+
+        /**
+         * @return a new book with an ISBN outside the catalog's
+         */
+        Book newBook() {
+            return Catalog.book(catalog.catalogSize + 10_000_000 + NEXT_BOOK.getAndIncrement(), catalog.catalogSize);
+        }
+
+        Book existingBook() throws BooksDbException {
+            return catalog.booksDb.searchBookByISBN(Catalog.isbn(random.nextInt(catalog.catalogSize))).get(0);
+        }
+    }
+
+    /**
+     * A book added before each deleteBook invocation, outside the measured time.
+     */
+    @State(Scope.Thread)
+    public static class BookToDelete {
+        Book book;
+
+        @Setup(Level.Invocation)
+        public void addBook(CatalogState catalog, Writes writes) throws BooksDbException {
+            book = writes.newBook();
+            catalog.booksDb.addBook(book);
+        }
+    }
+
+    /**
+     * BATCH_SIZE books with a new rating, read before each invocation outside the measured time.
+     */
+    @State(Scope.Thread)
+    public static class BooksToUpdate {
+        final List<Book> books = new ArrayList<>();
+
+        @Setup(Level.Invocation)
+        public void readBooks(Writes writes) throws BooksDbException {
+            books.clear();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Book book = writes.existingBook();
+                book.setRating(book.getRating() % 5 + 1);
+                books.add(book);
+            }
+        }
+    }
+
+    @Benchmark
+    public Book addBook(CatalogState catalog, Writes writes) throws BooksDbException {
+        Book book = writes.newBook();
+        catalog.booksDb.addBook(book);
+        catalog.added.add(book); // deleted again when the trial ends
+        return book;
+    }
+
+    @Benchmark
+    public Book updateBook(CatalogState catalog, Writes writes) throws BooksDbException {
+        Book book = writes.existingBook();
+        book.setRating(book.getRating() % 5 + 1);
+        catalog.booksDb.updateBook(book);
+        return book;
+    }
+
+    @Benchmark
+    public Book deleteBook(CatalogState catalog, BookToDelete toDelete) throws BooksDbException {
+        catalog.booksDb.deleteBook(toDelete.book);
+        return toDelete.book;
+    }
+
+    /**
+     * The baseline for updateBooksInBatch: one transaction per book. Scores are per book.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Book> updateBooksOneByOne(CatalogState catalog, BooksToUpdate toUpdate) throws BooksDbException {
+        for (Book book : toUpdate.books) {
+            catalog.booksDb.updateBook(book);
+        }
+        return toUpdate.books;
+    }
+
+    /**
+     * The same updates in one BookBatch, so one transaction. Scores are per book.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public BookBatchResult updateBooksInBatch(CatalogState catalog, BooksToUpdate toUpdate) throws BooksDbException {
+        BookBatch batch = catalog.booksDb.beginBatch();
+        for (Book book : toUpdate.books) {
+            batch.updateBook(book);
+        }
+        return batch.commit();
+    }
+}
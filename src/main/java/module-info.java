@@ -3,9 +3,10 @@ module se.kth.anderslm.booksdb {
     requires javafx.base;
 
     opens se.kth.Bahaa.booksdb to javafx.base;
-    opens se.kth.Bahaa.booksdb.model to javafx.base; // open model package for reflection from PropertyValuesFactory (sigh ...)
+    opens se.kth.Bahaa.booksdb.model to javafx.base, java.management; // open model package for reflection from PropertyValuesFactory (sigh ...) and the metrics MBeans
     exports se.kth.Bahaa.booksdb;
 
     requires java.sql;
+    requires java.management;
     requires javafx.fxml;
 }
\ No newline at end of file
@@ -3,7 +3,11 @@ package se.kth.Bahaa.booksdb;
 import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import se.kth.Bahaa.booksdb.model.BooksDbInterface;
 import se.kth.Bahaa.booksdb.model.BooksDpImpl;
+import se.kth.Bahaa.booksdb.model.DbProperties;
+import se.kth.Bahaa.booksdb.model.InMemoryBooksDb;
+import se.kth.Bahaa.booksdb.model.InstrumentedBooksDb;
 import se.kth.Bahaa.booksdb.view.BooksPane;
 
 import java.io.IOException;
@@ -23,8 +27,16 @@ public class Main extends Application {
         }
 
         // Initialize your application components with the loaded properties
-        BooksDpImpl booksDbImpl = new BooksDpImpl();
-        BooksPane booksPane = new BooksPane(booksDbImpl, booksDbImpl, dbProperties);
+        BooksDbInterface booksDb;
+        if (dbProperties.getProperty("db.backend", "mysql").trim().equalsIgnoreCase("memory")) {
+            booksDb = new InMemoryBooksDb(); // offline, nothing is saved
+        } else {
+            booksDb = new BooksDpImpl(dbProperties);
+        }
+        if (DbProperties.booleanProperty(dbProperties, "db.metrics.enabled", true)) {
+            booksDb = new InstrumentedBooksDb(booksDb, dbProperties); // call counts and latencies, also over JMX
+        }
+        BooksPane booksPane = new BooksPane(booksDb, dbProperties);
 
         // Set up the scene and stage
         Scene scene = new Scene(booksPane, 800, 600); // Adjust the size as needed
@@ -0,0 +1,304 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs the calls of a BooksDbInterface on a managed executor and returns
+ * CompletableFutures, so that the caller never blocks on the database.
+ *
+ * The futures are completed through the callback executor, e.g. Platform::runLater
+ * in the view, so dependent actions like whenComplete run there. A failed call
+ * completes its future with the BooksDbException (or other exception) itself,
+ * not wrapped in a CompletionException.
+ *
+ * The executor is chosen with db.executor.type: "virtual" (the default) gives
+ * one virtual thread per call, falling back to the platform pool on a JVM
+ * without virtual threads, and "platform" gives a pool of db.executor.poolSize
+ * threads with a queue for the calls waiting for a thread.
+ *
+ * The writes made through addBook, addBooks, updateBook, deleteBook and
+ * commit are reported to the change listeners as BookChanges once they are
+ * committed, also on the callback executor, so that a view can apply them
+ * to what it shows instead of reading everything again.
+ */
+public class AsyncBooksDb {
+
+    /**
+     * A database call that may throw BooksDbException.
+     */
+    @FunctionalInterface
+    public interface DbCall<T> {
+        T call() throws BooksDbException;
+    }
+
+    @FunctionalInterface
+    public interface DbAction {
+        void run() throws BooksDbException;
+    }
+
+    private final BooksDbInterface booksDb;
+    private final Executor callbackExecutor;
+    private final ExecutorService executor;
+    private final List<BookChange.Listener> changeListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param booksDb          the database to call
+     * @param properties       the application configuration, read for the db.executor.* settings
+     * @param callbackExecutor where the returned futures are completed
+     */
+    public AsyncBooksDb(BooksDbInterface booksDb, Properties properties, Executor callbackExecutor) {
+        this.booksDb = booksDb;
+        this.callbackExecutor = callbackExecutor;
+        this.executor = createExecutor(properties);
+    }
+
+    public BooksDbInterface getBooksDb() {
+        return booksDb;
+    }
+
+    public void addChangeListener(BookChange.Listener listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(BookChange.Listener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Runs any call on the executor, for the cases not covered by the methods below.
+     */
+    public <T> CompletableFuture<T> submit(DbCall<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    T value = call.call();
+                    callbackExecutor.execute(() -> result.complete(value));
+                } catch (Exception | Error e) {
+                    callbackExecutor.execute(() -> result.completeExceptionally(e));
+                }
+            });
+        } catch (RuntimeException e) { // rejected, the executor has been shut down
+            callbackExecutor.execute(() -> result.completeExceptionally(
+                    new BooksDbException("The database executor has been shut down.", e)));
+        }
+        return result;
+    }
+
+    /**
+     * Like submit, with the token bound to the thread making the call so that
+     * its queries can be cancelled and time out. A call cancelled before it
+     * started is not made.
+     */
+    public <T> CompletableFuture<T> submit(CancellationToken token, DbCall<T> call) {
+        return submit(() -> token.runWith(call));
+    }
+
+    /**
+     * Like submit, for calls without a result.
+     */
+    public CompletableFuture<Void> run(DbAction action) {
+        return submit(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    public CompletableFuture<Boolean> connect(String databaseUrl, String username, String password, String databaseName) {
+        return submit(() -> booksDb.connect(databaseUrl, username, password, databaseName));
+    }
+
+    public CompletableFuture<Void> disconnect() {
+        return run(booksDb::disconnect);
+    }
+
+    public CompletableFuture<List<Book>> getAllBooks() {
+        return submit(booksDb::getAllBooks);
+    }
+
+    public CompletableFuture<Void> addBook(Book book) {
+        return notifying(run(() -> booksDb.addBook(book)), ignored -> List.of(new BookChange(BookChange.Type.ADDED, book)));
+    }
+
+    public CompletableFuture<Void> addBooks(Collection<Book> books) {
+        List<Book> added = new ArrayList<>(books);
+        return notifying(run(() -> booksDb.addBooks(added)), ignored -> changes(BookChange.Type.ADDED, added));
+    }
+
+    public CompletableFuture<Void> updateBook(Book updatedBook) {
+        return notifying(run(() -> booksDb.updateBook(updatedBook)),
+                ignored -> List.of(new BookChange(BookChange.Type.UPDATED, updatedBook)));
+    }
+
+    public CompletableFuture<Void> deleteBook(Book book) {
+        return notifying(run(() -> booksDb.deleteBook(book)), ignored -> List.of(new BookChange(BookChange.Type.REMOVED, book)));
+    }
+
+    /**
+     * Begins a batch on the wrapped database; nothing runs until it is committed with commit(batch).
+     */
+    public BookBatch beginBatch() {
+        return booksDb.beginBatch();
+    }
+
+    /**
+     * Commits the batch; the listeners get the operations that were applied.
+     */
+    public CompletableFuture<BookBatchResult> commit(BookBatch batch) {
+        return notifying(submit(batch::commit), result -> {
+            List<BookChange> changes = new ArrayList<>();
+            for (BookBatchResult.ItemResult item : result.getItems()) {
+                if (item.getOutcome() == BookBatchResult.Outcome.APPLIED) {
+                    changes.add(new BookChange(changeType(item.getOperation()), item.getBook()));
+                }
+            }
+            return changes;
+        });
+    }
+
+    public CompletableFuture<Integer> addAuthor(Author author) {
+        return submit(() -> booksDb.addAuthor(author));
+    }
+
+    public CompletableFuture<Void> updateAuthor(Author author) {
+        return run(() -> booksDb.updateAuthor(author));
+    }
+
+    public CompletableFuture<List<Book>> searchBooksByTitle(String title) {
+        return submit(() -> booksDb.searchBooksByTitle(title));
+    }
+
+    public CompletableFuture<List<Book>> searchBooksByAuthor(String authorName) {
+        return submit(() -> booksDb.searchBooksByAuthor(authorName));
+    }
+
+    public CompletableFuture<List<Book>> searchBookByISBN(String isbn) {
+        return submit(() -> booksDb.searchBookByISBN(isbn));
+    }
+
+    public CompletableFuture<List<Book>> searchBooksByGenre(Genre genre) {
+        return submit(() -> booksDb.searchBooksByGenre(genre));
+    }
+
+    public CompletableFuture<List<Book>> searchBooksByRating(int rating) {
+        return submit(() -> booksDb.searchBooksByRating(rating));
+    }
+
+    public CompletableFuture<List<Book>> searchBooks(BookSearchSpec spec) {
+        return submit(() -> booksDb.searchBooks(spec));
+    }
+
+    public CompletableFuture<Integer> countBooks(BookSearchSpec spec) {
+        return submit(() -> booksDb.countBooks(spec));
+    }
+
+    public CompletableFuture<BookFacets> getFacets(BookSearchSpec spec) {
+        return submit(() -> booksDb.getFacets(spec));
+    }
+
+    public CompletableFuture<BookPage> getBooksPage(String afterKey, int limit, BookSortOrder sortOrder) {
+        return submit(() -> booksDb.getBooksPage(afterKey, limit, sortOrder));
+    }
+
+    public CompletableFuture<BookPage> searchBooksPage(SearchMode mode, String searchFor, String afterKey, int limit,
+                                                       BookSortOrder sortOrder) {
+        return submit(() -> booksDb.searchBooksPage(mode, searchFor, afterKey, limit, sortOrder));
+    }
+
+    /**
+     * Tells the change listeners about a write when it has succeeded. The
+     * future itself is returned, so a failure reaches the caller unwrapped.
+     */
+    private <T> CompletableFuture<T> notifying(CompletableFuture<T> write, Function<T, List<BookChange>> changes) {
+        write.whenComplete((result, e) -> {
+            if (e != null || changeListeners.isEmpty()) {
+                return;
+            }
+            List<BookChange> changed = changes.apply(result);
+            if (changed.isEmpty()) {
+                return;
+            }
+            for (BookChange.Listener listener : changeListeners) {
+                try {
+                    listener.booksChanged(changed);
+                } catch (RuntimeException listenerError) {
+                    System.out.println("Book change listener failed: " + listenerError);
+                }
+            }
+        });
+        return write;
+    }
+
+    private static List<BookChange> changes(BookChange.Type type, Collection<Book> books) {
+        List<BookChange> changes = new ArrayList<>(books.size());
+        for (Book book : books) {
+            changes.add(new BookChange(type, book));
+        }
+        return changes;
+    }
+
+    private static BookChange.Type changeType(BookBatch.Operation operation) {
+        switch (operation) {
+            case ADD:
+                return BookChange.Type.ADDED;
+            case UPDATE:
+                return BookChange.Type.UPDATED;
+            default:
+                return BookChange.Type.REMOVED;
+        }
+    }
+
+    /**
+     * Stops accepting calls and waits for the calls already submitted to finish.
+     *
+     * @return true if they all finished within the timeout, false if the rest were interrupted
+     */
+    public boolean shutdown(long timeoutMillis) {
+        executor.shutdown();
+        try {
+            if (executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+        return false;
+    }
+
+    private static ExecutorService createExecutor(Properties properties) {
+        String type = properties.getProperty("db.executor.type", "virtual").trim();
+        if (type.equalsIgnoreCase("virtual")) {
+            try {
+                return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("books-db-", 1).factory());
+            } catch (UnsupportedOperationException | LinkageError e) {
+                System.out.println("Virtual threads are not available, using a platform thread pool.");
+            }
+        } else if (!type.equalsIgnoreCase("platform")) {
+            System.out.println("Unknown db.executor.type " + type + ", using a platform thread pool.");
+        }
+
+        int threads = Math.max(1, DbProperties.intProperty(properties, "db.executor.poolSize", 4));
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "books-db-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), factory);
+    }
+}
@@ -0,0 +1,297 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory index for searching books by author name. Author names are
+ * folded (case and diacritics removed) and split into tokens; a sorted token
+ * map gives the authors with a token starting with each query token, and an
+ * adjacency map of the BookAuthor table gives their books as BookId arrays.
+ * "tolk" and "j r r tolkien" both find Tolkien, and so does "Tolkién".
+ * The database matches names the same way with Author.NameKey, see nameKey,
+ * so a search finds the same authors whether the index is warm or not.
+ *
+ * Like TitleIndex it is cold until its first build has finished, and changes
+ * made during a build win over the rows the build reads.
+ */
+class AuthorIndex {
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern TOKEN_SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, String[]> tokensByAuthor = new HashMap<>(); // name tokens by AuthorId
+    private final TreeMap<String, SortedIntSet> authorsByToken = new TreeMap<>(); // sorted for prefix lookups
+    private final Map<Integer, SortedIntSet> booksByAuthor = new HashMap<>();
+    private final Map<Integer, SortedIntSet> authorsByBook = new HashMap<>(); // to unlink a book without a scan
+    private Set<Integer> authorsChangedDuringBuild;
+    private Set<Integer> booksChangedDuringBuild;
+    private int currentBuild; // builds with an older number were superseded and are ignored
+    private volatile boolean warm;
+
+    boolean isWarm() {
+        return warm;
+    }
+
+    /**
+     * Empties the index and marks it cold until finishBuild is called.
+     *
+     * @return the build number to pass to the other build methods
+     */
+    int beginBuild() {
+        lock.writeLock().lock();
+        try {
+            reset();
+            authorsChangedDuringBuild = new HashSet<>();
+            booksChangedDuringBuild = new HashSet<>();
+            return ++currentBuild;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void addAuthorFromBuild(int build, int authorId, String name) {
+        lock.writeLock().lock();
+        try {
+            if (build == currentBuild && authorsChangedDuringBuild != null
+                    && !authorsChangedDuringBuild.contains(authorId)) {
+                indexName(authorId, name);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void addLinkFromBuild(int build, int bookId, int authorId) {
+        lock.writeLock().lock();
+        try {
+            if (build == currentBuild && booksChangedDuringBuild != null
+                    && !booksChangedDuringBuild.contains(bookId)) {
+                link(bookId, authorId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void finishBuild(int build) {
+        lock.writeLock().lock();
+        try {
+            if (build == currentBuild) {
+                authorsChangedDuringBuild = null;
+                booksChangedDuringBuild = null;
+                warm = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void abandonBuild(int build) {
+        lock.writeLock().lock();
+        try {
+            if (build == currentBuild) {
+                reset();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            reset();
+            currentBuild++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds an author or updates the name of one.
+     */
+    void putAuthor(int authorId, String name) {
+        lock.writeLock().lock();
+        try {
+            if (authorsChangedDuringBuild != null) {
+                authorsChangedDuringBuild.add(authorId);
+            }
+            unindexName(authorId);
+            indexName(authorId, name);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the authors of a book, and updates their names.
+     */
+    void putBook(int bookId, List<Author> authors) {
+        lock.writeLock().lock();
+        try {
+            if (booksChangedDuringBuild != null) {
+                booksChangedDuringBuild.add(bookId);
+            }
+            unlinkBook(bookId);
+            for (Author author : authors) {
+                if (authorsChangedDuringBuild != null) {
+                    authorsChangedDuringBuild.add(author.getAuthorId());
+                }
+                unindexName(author.getAuthorId());
+                indexName(author.getAuthorId(), author.getName());
+                link(bookId, author.getAuthorId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void removeBook(int bookId) {
+        lock.writeLock().lock();
+        try {
+            if (booksChangedDuringBuild != null) {
+                booksChangedDuringBuild.add(bookId);
+            }
+            unlinkBook(bookId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the books by authors who have, for every token of the query, a
+     * name token starting with it.
+     *
+     * @return the matching BookIds in ascending order
+     */
+    int[] search(String authorName) {
+        String[] queryTokens = tokenize(authorName);
+        if (queryTokens.length == 0) {
+            return new int[0];
+        }
+        lock.readLock().lock();
+        try {
+            SortedIntSet[] authorsPerToken = new SortedIntSet[queryTokens.length];
+            for (int i = 0; i < queryTokens.length; i++) {
+                String token = queryTokens[i];
+                Collection<SortedIntSet> withPrefix =
+                        authorsByToken.subMap(token, true, token + Character.MAX_VALUE, false).values();
+                authorsPerToken[i] = SortedIntSet.of(SortedIntSet.union(withPrefix));
+            }
+
+            List<SortedIntSet> books = new ArrayList<>();
+            for (int authorId : SortedIntSet.intersect(authorsPerToken)) {
+                SortedIntSet bookIds = booksByAuthor.get(authorId);
+                if (bookIds != null) {
+                    books.add(bookIds);
+                }
+            }
+            return SortedIntSet.union(books);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int authorCount() {
+        lock.readLock().lock();
+        try {
+            return tokensByAuthor.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lower-cases the text, removes diacritics and splits it on everything
+     * that is not a letter or digit.
+     */
+    static String[] tokenize(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        String folded = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD))
+                .replaceAll("").toLowerCase(Locale.ROOT);
+        return TOKEN_SEPARATORS.splitAsStream(folded).filter(token -> !token.isEmpty()).toArray(String[]::new);
+    }
+
+    /**
+     * The name as kept in Author.NameKey: its tokens, each after a space, so
+     * that NameKey LIKE '% tolk%' matches the names with a token starting with
+     * "tolk", like search. Tokens hold only letters and digits, so they never
+     * contain a LIKE wildcard.
+     */
+    static String nameKey(String name) {
+        StringBuilder key = new StringBuilder();
+        for (String token : tokenize(name)) {
+            key.append(' ').append(token);
+        }
+        return key.toString();
+    }
+
+    private void reset() {
+        warm = false;
+        tokensByAuthor.clear();
+        authorsByToken.clear();
+        booksByAuthor.clear();
+        authorsByBook.clear();
+        authorsChangedDuringBuild = null;
+        booksChangedDuringBuild = null;
+    }
+
+    private void indexName(int authorId, String name) {
+        String[] tokens = tokenize(name);
+        tokensByAuthor.put(authorId, tokens);
+        for (String token : tokens) {
+            authorsByToken.computeIfAbsent(token, t -> new SortedIntSet()).add(authorId);
+        }
+    }
+
+    private void unindexName(int authorId) {
+        String[] tokens = tokensByAuthor.remove(authorId);
+        if (tokens == null) {
+            return;
+        }
+        for (String token : tokens) {
+            SortedIntSet authors = authorsByToken.get(token);
+            if (authors != null) {
+                authors.remove(authorId);
+                if (authors.isEmpty()) {
+                    authorsByToken.remove(token);
+                }
+            }
+        }
+    }
+
+    private void link(int bookId, int authorId) {
+        booksByAuthor.computeIfAbsent(authorId, id -> new SortedIntSet()).add(bookId);
+        authorsByBook.computeIfAbsent(bookId, id -> new SortedIntSet()).add(authorId);
+    }
+
+    private void unlinkBook(int bookId) {
+        SortedIntSet authors = authorsByBook.remove(bookId);
+        if (authors == null) {
+            return;
+        }
+        for (int i = 0; i < authors.size(); i++) {
+            SortedIntSet books = booksByAuthor.get(authors.get(i));
+            if (books != null) {
+                books.remove(bookId);
+                if (books.isEmpty()) {
+                    booksByAuthor.remove(authors.get(i));
+                }
+            }
+        }
+    }
+}
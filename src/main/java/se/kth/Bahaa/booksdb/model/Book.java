@@ -14,6 +14,7 @@ public class Book {
     private List<Author> authors;
     private Genre genre;
     private int rating;
+    private int modificationCount; // see getModificationCount
 
     public Book(int bookId, String isbn, String title, Date published) {
         this.bookId = bookId;
@@ -39,6 +40,7 @@ public class Book {
     }
     public void setBookId(int bookId) {
         this.bookId = bookId;
+        modificationCount++;
     }
     // Getters and setters
     public int getBookId() { return bookId; }
@@ -49,23 +51,34 @@ public class Book {
     public Genre getGenre() { return genre; }
     public int getRating() { return rating; }
 
-    public void setIsbn(String isbn) { this.isbn = isbn; }
-    public void setTitle(String title) { this.title = title; }
-    public void setPublished(Date published) { this.published = published; }
-    public void setAuthors(List<Author> authors) { this.authors = authors; }
-    public void setGenre(Genre genre) { this.genre = genre; }
-    public void setRating(int rating) { this.rating = rating; }
+    public void setIsbn(String isbn) { this.isbn = isbn; modificationCount++; }
+    public void setTitle(String title) { this.title = title; modificationCount++; }
+    public void setPublished(Date published) { this.published = published; modificationCount++; }
+    public void setAuthors(List<Author> authors) { this.authors = authors; modificationCount++; }
+    public void setGenre(Genre genre) { this.genre = genre; modificationCount++; }
+    public void setRating(int rating) { this.rating = rating; modificationCount++; }
 
     public void addAuthor(Author author) {
         if (!authors.contains(author)) {
             authors.add(author);
+            modificationCount++;
         }
     }
 
     public void removeAuthor(Author author) {
-        authors.remove(author);
+        if (authors.remove(author)) {
+            modificationCount++;
+        }
     }
 
+    /**
+     * A number that changes whenever the setters, addAuthor or removeAuthor
+     * change the book, so that values computed from it, like the rows of the
+     * book table, can tell that they are out of date. Changes made to the
+     * Author objects or to the list from getAuthors are not counted.
+     */
+    public int getModificationCount() { return modificationCount; }
+
 
 
     @Override
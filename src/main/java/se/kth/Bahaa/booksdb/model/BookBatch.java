@@ -0,0 +1,183 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A unit of work: book edits that are queued with addBook, updateBook and
+ * deleteBook and written together in one transaction by commit(), for example
+ *
+ * <pre>
+ * BookBatch batch = booksDb.beginBatch();
+ * for (Book book : selected) {
+ *     book.setGenre(Genre.MYSTERY);
+ *     batch.updateBook(book);
+ * }
+ * BookBatchResult result = batch.commit();
+ * </pre>
+ *
+ * Nothing is written before commit(), and the books are read when it is
+ * called, so later changes to a queued book are included. There is one
+ * operation per book: queuing another one for the same book replaces the
+ * earlier one. Whatever the order they were queued in, the deletes are
+ * written first, then the updates, both in BookId order so that concurrent
+ * batches lock the rows in the same order, and then the additions.
+ *
+ * A batch is used by one thread and committed once.
+ */
+public class BookBatch {
+
+    public enum Operation { ADD, UPDATE, DELETE }
+
+    /**
+     * One queued operation.
+     */
+    static class Item {
+        final Operation operation;
+        final Book book;
+
+        Item(Operation operation, Book book) {
+            this.operation = operation;
+            this.book = book;
+        }
+    }
+
+    /**
+     * Writes the items, in the order they are given, for the backend the batch
+     * was begun on.
+     */
+    interface Committer {
+        BookBatchResult commit(List<Item> items) throws BooksDbException;
+    }
+
+    private final Committer committer;
+    private final Map<Integer, Item> changes = new LinkedHashMap<>(); // updates and deletes by BookId
+    private final Map<Book, Item> additions = new IdentityHashMap<>();
+    private final List<Item> additionOrder = new ArrayList<>();
+    private boolean committed;
+
+    BookBatch(Committer committer) {
+        this.committer = committer;
+    }
+
+    public BookBatch addBook(Book book) {
+        checkOpen(book);
+        if (additions.get(book) == null) {
+            Item item = new Item(Operation.ADD, book);
+            additions.put(book, item);
+            additionOrder.add(item);
+        }
+        return this;
+    }
+
+    /**
+     * Queues an update. Updating a book queued for addition changes nothing,
+     * it is added as it is when the batch is committed.
+     */
+    public BookBatch updateBook(Book book) {
+        checkOpen(book);
+        if (additions.get(book) == null) {
+            changes.put(book.getBookId(), new Item(Operation.UPDATE, book));
+        }
+        return this;
+    }
+
+    /**
+     * Queues a delete. Deleting a book queued for addition just drops the addition.
+     */
+    public BookBatch deleteBook(Book book) {
+        checkOpen(book);
+        Item addition = additions.remove(book);
+        if (addition != null) {
+            additionOrder.remove(addition);
+        } else {
+            changes.put(book.getBookId(), new Item(Operation.DELETE, book));
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of operations queued
+     */
+    public int size() {
+        return changes.size() + additionOrder.size();
+    }
+
+    /**
+     * Writes the queued operations in one transaction. Operations that cannot
+     * be applied, an invalid book, an ISBN that is taken or a book that does not
+     * exist, are left out and reported in the result; the others are committed.
+     *
+     * @throws BooksDbException if the transaction failed, then nothing was written
+     * @throws IllegalStateException if the batch has been committed already
+     */
+    public BookBatchResult commit() throws BooksDbException {
+        if (committed) {
+            throw new IllegalStateException("The batch has been committed already");
+        }
+        committed = true;
+        if (size() == 0) {
+            return new BookBatchResult(Collections.emptyList());
+        }
+        return committer.commit(orderedItems());
+    }
+
+    /**
+     * Commits the given items, for decorators that begin a batch of their own
+     * on the backend they wrap.
+     */
+    BookBatchResult commit(List<Item> items) throws BooksDbException {
+        return committer.commit(items);
+    }
+
+    /**
+     * @return the items in the order they are written: deletes, updates and
+     * additions, the deletes and updates by BookId
+     */
+    private List<Item> orderedItems() {
+        List<Item> ordered = new ArrayList<>(size());
+        List<Integer> bookIds = new ArrayList<>(changes.keySet());
+        Collections.sort(bookIds);
+        for (Operation operation : new Operation[]{Operation.DELETE, Operation.UPDATE}) {
+            for (int bookId : bookIds) {
+                Item item = changes.get(bookId);
+                if (item.operation == operation) {
+                    ordered.add(item);
+                }
+            }
+        }
+        ordered.addAll(additionOrder);
+        return ordered;
+    }
+
+    /**
+     * Rejects what the NOT NULL columns of the SQL schema would reject, so that
+     * one invalid book is left out instead of failing the whole transaction.
+     */
+    static void validate(Book book) throws BooksDbException {
+        if (book.getIsbn() == null || book.getTitle() == null || book.getGenre() == null) {
+            throw new BooksDbException("A book needs an ISBN, a title and a genre.");
+        }
+        if (book.getRating() < 0) {
+            throw new BooksDbException("Invalid rating: " + book.getRating());
+        }
+        for (Author author : book.getAuthors()) {
+            if (author.getName() == null || author.getPersonNumber() == null) {
+                throw new BooksDbException("An author needs a name and a person number.");
+            }
+        }
+    }
+
+    private void checkOpen(Book book) {
+        if (committed) {
+            throw new IllegalStateException("The batch has been committed already");
+        }
+        if (book == null) {
+            throw new IllegalArgumentException("No book given");
+        }
+    }
+}
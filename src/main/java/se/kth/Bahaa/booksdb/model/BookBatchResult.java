@@ -0,0 +1,80 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of each operation of a committed BookBatch, in the order they
+ * were written.
+ */
+public class BookBatchResult {
+
+    public enum Outcome {
+        /** written and committed */
+        APPLIED,
+        /** the book to update or delete does not exist */
+        NOT_FOUND,
+        /** not written, see the message */
+        FAILED
+    }
+
+    public static class ItemResult {
+        private final BookBatch.Operation operation;
+        private final Book book;
+        private final Outcome outcome;
+        private final String message;
+
+        ItemResult(BookBatch.Operation operation, Book book, Outcome outcome, String message) {
+            this.operation = operation;
+            this.book = book;
+            this.outcome = outcome;
+            this.message = message;
+        }
+
+        public BookBatch.Operation getOperation() { return operation; }
+        /** @return the book as queued; added books have their new BookId */
+        public Book getBook() { return book; }
+        public Outcome getOutcome() { return outcome; }
+        /** @return why the operation was not applied, or null */
+        public String getMessage() { return message; }
+
+        @Override
+        public String toString() {
+            return operation + " " + book.getBookId() + " '" + book.getTitle() + "': " + outcome
+                    + (message == null ? "" : " (" + message + ")");
+        }
+    }
+
+    private final List<ItemResult> items;
+
+    BookBatchResult(List<ItemResult> items) {
+        this.items = Collections.unmodifiableList(items);
+    }
+
+    public List<ItemResult> getItems() {
+        return items;
+    }
+
+    public int count(Outcome outcome) {
+        int count = 0;
+        for (ItemResult item : items) {
+            if (item.outcome == outcome) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return whether every operation was applied
+     */
+    public boolean isComplete() {
+        return count(Outcome.APPLIED) == items.size();
+    }
+
+    @Override
+    public String toString() {
+        return "BookBatchResult[" + count(Outcome.APPLIED) + " applied, " + count(Outcome.NOT_FOUND)
+                + " not found, " + count(Outcome.FAILED) + " failed]";
+    }
+}
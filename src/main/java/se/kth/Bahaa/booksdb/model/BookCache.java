@@ -0,0 +1,195 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded in-memory cache of books, looked up by BookId or ISBN.
+ * The least recently used book is evicted when the cache is full, and if a
+ * time to live is set, books older than that are treated as missing.
+ * BooksDpImpl fills it on reads and updates or invalidates it on writes.
+ *
+ * Books are copied, with their authors, when they are put and when they are
+ * returned, so that a caller editing a book it got, e.g. in the update dialog,
+ * does not change what later readers get before the edit is written.
+ *
+ * Every write, a put or an invalidation, starts a new generation. Books read
+ * from the database are put with the generation taken before the query, see
+ * putAll, so a read that overlapped a write cannot put back the book as it
+ * was before the write.
+ */
+public class BookCache {
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<Integer, Entry> byId;
+    private final Map<String, Integer> idsByIsbn = new HashMap<>();
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long generation; // incremented by every put and invalidation
+
+    private static class Entry {
+        final Book book;
+        final String isbn; // the ISBN the book was indexed under
+        final long loadedAt;
+
+        Entry(Book book, long loadedAt) {
+            this.book = copyOf(book);
+            this.isbn = book.getIsbn();
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * @param maxSize   the maximum number of books kept, 0 disables the cache
+     * @param ttlMillis how long a book stays valid after it was loaded, 0 for no limit
+     */
+    public BookCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.byId = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() <= BookCache.this.maxSize) {
+                    return false;
+                }
+                unindex(eldest.getValue());
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    public synchronized Book getById(int bookId) {
+        return hitOrMiss(byId.get(bookId));
+    }
+
+    public synchronized Book getByIsbn(String isbn) {
+        Integer bookId = idsByIsbn.get(isbn);
+        return hitOrMiss(bookId == null ? null : byId.get(bookId));
+    }
+
+    /**
+     * Puts a book as it was just written, e.g. by updateBook.
+     */
+    public synchronized void put(Book book) {
+        generation++; // a read running may hold the book as it was before
+        store(book);
+    }
+
+    /**
+     * @return the current generation, to take before reading books to put with putAll
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Puts books read from the database, unless a book was written since the
+     * generation was taken: the read may have run before that write was
+     * committed, and the old book would then stay cached. Then nothing is
+     * put, the books are read again when they are asked for.
+     */
+    public synchronized void putAll(Iterable<Book> books, long readGeneration) {
+        if (readGeneration != generation) {
+            return;
+        }
+        for (Book book : books) {
+            store(book);
+        }
+    }
+
+    public synchronized void invalidate(int bookId) {
+        generation++; // also if not cached, a read running may be about to put it
+        Entry entry = byId.remove(bookId);
+        if (entry != null) {
+            unindex(entry);
+        }
+    }
+
+    /**
+     * Removes every cached book written by the author, e.g. after the author was renamed.
+     */
+    public synchronized void invalidateByAuthor(int authorId) {
+        generation++;
+        Iterator<Entry> entries = byId.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (entry.book.getAuthors().stream().anyMatch(author -> author.getAuthorId() == authorId)) {
+                entries.remove();
+                unindex(entry);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        byId.clear();
+        idsByIsbn.clear();
+    }
+
+    public synchronized int size() { return byId.size(); }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("BookCache[size: %d/%d, hits: %d, misses: %d, evictions: %d]",
+                byId.size(), maxSize, hits, misses, evictions);
+    }
+
+    private Book hitOrMiss(Entry entry) {
+        if (entry != null && ttlMillis > 0 && System.currentTimeMillis() - entry.loadedAt > ttlMillis) {
+            byId.remove(entry.book.getBookId());
+            unindex(entry);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copyOf(entry.book);
+    }
+
+    private void store(Book book) {
+        if (maxSize <= 0 || book.getBookId() < 0) {
+            return;
+        }
+        Entry old = byId.remove(book.getBookId());
+        if (old != null) {
+            unindex(old);
+        }
+        Entry entry = new Entry(book, System.currentTimeMillis());
+        if (entry.isbn != null) {
+            idsByIsbn.put(entry.isbn, book.getBookId());
+        }
+        byId.put(book.getBookId(), entry);
+    }
+
+    private static Book copyOf(Book book) {
+        Book copy = new Book(book.getBookId(), book.getIsbn(), book.getTitle(),
+                book.getPublished() == null ? null : new Date(book.getPublished().getTime()));
+        copy.setGenre(book.getGenre());
+        copy.setRating(book.getRating());
+        List<Author> authors = new ArrayList<>(book.getAuthors().size());
+        for (Author author : book.getAuthors()) {
+            authors.add(new Author(author.getAuthorId(), author.getName(), author.getPersonNumber()));
+        }
+        copy.setAuthors(authors);
+        return copy;
+    }
+
+    private void unindex(Entry entry) {
+        if (entry.isbn != null) {
+            idsByIsbn.remove(entry.isbn, entry.book.getBookId());
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.util.List;
+
+/**
+ * A book that was added, updated or removed through AsyncBooksDb, as
+ * delivered to its change listeners once the write is committed.
+ */
+public class BookChange {
+
+    public enum Type { ADDED, UPDATED, REMOVED }
+
+    /**
+     * Gets the changes of each committed write, on the callback executor of
+     * the AsyncBooksDb, e.g. the FX thread.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @param changes the changes of one write, in the order they were written
+         */
+        void booksChanged(List<BookChange> changes);
+    }
+
+    private final Type type;
+    private final Book book;
+
+    public BookChange(Type type, Book book) {
+        this.type = type;
+        this.book = book;
+    }
+
+    public Type getType() { return type; }
+    /** @return the book as written; an added book has its new BookId */
+    public Book getBook() { return book; }
+
+    @Override
+    public String toString() {
+        return type + " " + book.getBookId() + " '" + book.getTitle() + "'";
+    }
+}
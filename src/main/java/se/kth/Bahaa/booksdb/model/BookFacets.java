@@ -0,0 +1,44 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The number of books matching a search per genre, per rating and per
+ * publication year, from BooksDbInterface.getFacets. Values without books
+ * are left out. Books without a publication date are counted in the total
+ * but in no year.
+ */
+public class BookFacets {
+    private final int total;
+    private final Map<Genre, Integer> genreCounts;
+    private final SortedMap<Integer, Integer> ratingCounts;
+    private final SortedMap<Integer, Integer> yearCounts;
+
+    public BookFacets(int total, Map<Genre, Integer> genreCounts, Map<Integer, Integer> ratingCounts,
+                      Map<Integer, Integer> yearCounts) {
+        this.total = total;
+        this.genreCounts = Collections.unmodifiableMap(genreCounts.isEmpty()
+                ? new EnumMap<>(Genre.class) : new EnumMap<>(genreCounts));
+        this.ratingCounts = Collections.unmodifiableSortedMap(new TreeMap<>(ratingCounts));
+        this.yearCounts = Collections.unmodifiableSortedMap(new TreeMap<>(yearCounts));
+    }
+
+    /** @return the number of books matching the search */
+    public int getTotal() { return total; }
+    /** @return the number of books per genre, in genre order */
+    public Map<Genre, Integer> getGenreCounts() { return genreCounts; }
+    /** @return the number of books per rating, lowest first */
+    public SortedMap<Integer, Integer> getRatingCounts() { return ratingCounts; }
+    /** @return the number of books per publication year, earliest first */
+    public SortedMap<Integer, Integer> getYearCounts() { return yearCounts; }
+
+    @Override
+    public String toString() {
+        return "BookFacets[total=" + total + ", genres=" + genreCounts + ", ratings=" + ratingCounts
+                + ", years=" + yearCounts + "]";
+    }
+}
@@ -0,0 +1,24 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.util.List;
+
+/**
+ * One page of books from a paginated query. Pass the next page token as
+ * afterKey to get the following page; it is null on the last page.
+ */
+public class BookPage {
+    private final List<Book> books;
+    private final String nextPageToken;
+
+    public BookPage(List<Book> books, String nextPageToken) {
+        this.books = books;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<Book> getBooks() { return books; }
+    public String getNextPageToken() { return nextPageToken; }
+
+    public boolean hasNextPage() {
+        return nextPageToken != null;
+    }
+}
@@ -0,0 +1,67 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assembles books from a result set with one row per book/author pair, as
+ * returned by the book-with-authors queries in BooksDpImpl. The rows of a book
+ * must be adjacent. Books are read one at a time, so a forward-only streaming
+ * result set can be consumed with constant memory.
+ */
+class BookRowReader {
+    private final ResultSet resultSet;
+    private final Map<Integer, Author> authorsById; // null when authors are not shared between books
+    private boolean onRow; // the result set is positioned on a row not yet consumed
+    private boolean exhausted;
+
+    /**
+     * @param shareAuthors whether an author of several books should be one Author instance;
+     *                     that keeps a map of every author seen, so leave it off for streaming
+     */
+    BookRowReader(ResultSet resultSet, boolean shareAuthors) {
+        this.resultSet = resultSet;
+        this.authorsById = shareAuthors ? new HashMap<>() : null;
+    }
+
+    /**
+     * @return the next book with all its authors, or null when there are no more rows
+     */
+    Book next() throws SQLException {
+        if (exhausted || (!onRow && !advance())) {
+            return null;
+        }
+        int bookId = resultSet.getInt("BookId");
+        Book book = new Book(bookId, resultSet.getString("isbn"),
+                resultSet.getString("title"), resultSet.getDate("publication_year"));
+        book.setGenre(Genre.valueOf(resultSet.getString("Genre")));
+        book.setRating(resultSet.getInt("Rating"));
+
+        do {
+            int authorId = resultSet.getInt("AuthorId");
+            if (!resultSet.wasNull()) { // books without authors give one row with NULL author columns
+                book.getAuthors().add(author(authorId));
+            }
+        } while (advance() && resultSet.getInt("BookId") == bookId);
+        return book;
+    }
+
+    private boolean advance() throws SQLException {
+        onRow = resultSet.next();
+        exhausted = !onRow;
+        return onRow;
+    }
+
+    private Author author(int authorId) throws SQLException {
+        Author author = authorsById == null ? null : authorsById.get(authorId);
+        if (author == null) {
+            author = new Author(authorId, resultSet.getString("Name"), resultSet.getString("PersonNumber"));
+            if (authorsById != null) {
+                authorsById.put(authorId, author);
+            }
+        }
+        return author;
+    }
+}
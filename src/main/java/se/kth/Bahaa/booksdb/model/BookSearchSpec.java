@@ -0,0 +1,272 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A search on several criteria at once, for BooksDbInterface.searchBooks.
+ * A book matches when it matches every criterion given; criteria left out
+ * match all books. Build one with builder(), for example
+ *
+ * <pre>
+ * BookSearchSpec.builder().titleContains("ring").genres(Genre.FANTASY).minRating(4).limit(100).build()
+ * </pre>
+ *
+ * The title criterion matches a case-insensitive substring of the title,
+ * the author criterion an author with a name where every word of it starts
+ * a word, ignoring case and diacritics, see AuthorIndex. Instances are immutable.
+ */
+public class BookSearchSpec {
+    private final String titleContains;
+    private final String authorContains;
+    private final Set<Genre> genres;
+    private final Integer minRating;
+    private final Integer maxRating;
+    private final LocalDate publishedFrom;
+    private final LocalDate publishedTo;
+    private final BookSortOrder sortOrder;
+    private final boolean descending;
+    private final Integer afterBookId;
+    private final String afterTitle;
+    private final int offset;
+    private final int limit;
+
+    private BookSearchSpec(Builder builder) {
+        this.titleContains = builder.titleContains;
+        this.authorContains = builder.authorContains;
+        this.genres = Collections.unmodifiableSet(EnumSet.copyOf(builder.genres));
+        this.minRating = builder.minRating;
+        this.maxRating = builder.maxRating;
+        this.publishedFrom = builder.publishedFrom;
+        this.publishedTo = builder.publishedTo;
+        this.sortOrder = builder.sortOrder;
+        this.descending = builder.descending;
+        this.afterBookId = builder.afterBookId;
+        this.afterTitle = builder.afterTitle;
+        this.offset = builder.offset;
+        this.limit = builder.limit;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a builder with the criteria of this spec, e.g. to narrow it down further
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.titleContains = titleContains;
+        builder.authorContains = authorContains;
+        builder.genres.addAll(genres);
+        builder.minRating = minRating;
+        builder.maxRating = maxRating;
+        builder.publishedFrom = publishedFrom;
+        builder.publishedTo = publishedTo;
+        builder.sortOrder = sortOrder;
+        builder.descending = descending;
+        builder.afterBookId = afterBookId;
+        builder.afterTitle = afterTitle;
+        builder.offset = offset;
+        builder.limit = limit;
+        return builder;
+    }
+
+    /** @return the text the title must contain, or null for any title */
+    public String getTitleContains() { return titleContains; }
+    /** @return the text an author name must match, or null for any author */
+    public String getAuthorContains() { return authorContains; }
+    /** @return the genres a book may have, empty for any genre */
+    public Set<Genre> getGenres() { return genres; }
+    /** @return the lowest rating, inclusive, or null */
+    public Integer getMinRating() { return minRating; }
+    /** @return the highest rating, inclusive, or null */
+    public Integer getMaxRating() { return maxRating; }
+    /** @return the earliest publication date, inclusive, or null */
+    public LocalDate getPublishedFrom() { return publishedFrom; }
+    /** @return the latest publication date, inclusive, or null */
+    public LocalDate getPublishedTo() { return publishedTo; }
+    public BookSortOrder getSortOrder() { return sortOrder; }
+    /** @return whether the sort order is reversed */
+    public boolean isDescending() { return descending; }
+    /** @return the BookId of the book the matches start after, see Builder.after, or null */
+    public Integer getAfterBookId() { return afterBookId; }
+    /** @return the title of the book the matches start after, or null */
+    public String getAfterTitle() { return afterTitle; }
+    /** @return the number of books skipped, the first ones in the sort order */
+    public int getOffset() { return offset; }
+    /** @return the maximum number of books, 0 for all */
+    public int getLimit() { return limit; }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("BookSearchSpec[");
+        if (titleContains != null) text.append("title~'").append(titleContains).append("' ");
+        if (authorContains != null) text.append("author~'").append(authorContains).append("' ");
+        if (!genres.isEmpty()) text.append("genres=").append(genres).append(' ');
+        if (minRating != null) text.append("rating>=").append(minRating).append(' ');
+        if (maxRating != null) text.append("rating<=").append(maxRating).append(' ');
+        if (publishedFrom != null) text.append("published>=").append(publishedFrom).append(' ');
+        if (publishedTo != null) text.append("published<=").append(publishedTo).append(' ');
+        text.append("order=").append(sortOrder);
+        if (descending) text.append(" desc");
+        if (afterBookId != null) text.append(" after=").append(afterBookId);
+        if (offset > 0) text.append(" offset=").append(offset);
+        if (limit > 0) text.append(" limit=").append(limit);
+        return text.append(']').toString();
+    }
+
+    public static class Builder {
+        private String titleContains;
+        private String authorContains;
+        private final Set<Genre> genres = EnumSet.noneOf(Genre.class);
+        private Integer minRating;
+        private Integer maxRating;
+        private LocalDate publishedFrom;
+        private LocalDate publishedTo;
+        private BookSortOrder sortOrder = BookSortOrder.BOOK_ID;
+        private boolean descending;
+        private Integer afterBookId;
+        private String afterTitle;
+        private int offset;
+        private int limit;
+
+        private Builder() {
+        }
+
+        /**
+         * @param text the text the title must contain, ignoring case; null or blank for any title
+         */
+        public Builder titleContains(String text) {
+            this.titleContains = blankToNull(text);
+            return this;
+        }
+
+        /**
+         * @param text the text an author name must match; null or blank for any author
+         */
+        public Builder authorContains(String text) {
+            this.authorContains = blankToNull(text);
+            return this;
+        }
+
+        /**
+         * Adds to the genres a book may have. With no genres, any genre matches.
+         */
+        public Builder genres(Genre... genres) {
+            Collections.addAll(this.genres, genres);
+            return this;
+        }
+
+        public Builder genres(Collection<Genre> genres) {
+            this.genres.addAll(genres);
+            return this;
+        }
+
+        /**
+         * Removes the genres added so far, so that any genre matches.
+         */
+        public Builder clearGenres() {
+            this.genres.clear();
+            return this;
+        }
+
+        public Builder minRating(Integer rating) {
+            this.minRating = rating;
+            return this;
+        }
+
+        public Builder maxRating(Integer rating) {
+            this.maxRating = rating;
+            return this;
+        }
+
+        public Builder publishedFrom(LocalDate date) {
+            this.publishedFrom = date;
+            return this;
+        }
+
+        public Builder publishedTo(LocalDate date) {
+            this.publishedTo = date;
+            return this;
+        }
+
+        public Builder sortOrder(BookSortOrder sortOrder) {
+            this.sortOrder = sortOrder == null ? BookSortOrder.BOOK_ID : sortOrder;
+            return this;
+        }
+
+        /**
+         * Reverses the sort order, ties on title included.
+         */
+        public Builder descending(boolean descending) {
+            this.descending = descending;
+            return this;
+        }
+
+        /**
+         * Starts the matches right after a book in the sort order, e.g. the
+         * last one of the page before, like a page token of getBooksPage: the
+         * database seeks to it with the index of the order instead of reading
+         * and skipping the books before it, as an offset does. The book need
+         * not match the criteria, or still exist. An offset skips books from
+         * there.
+         *
+         * @param bookId the BookId of the book to start after
+         * @param title  its title, needed for BookSortOrder.TITLE
+         */
+        public Builder after(int bookId, String title) {
+            this.afterBookId = bookId;
+            this.afterTitle = title;
+            return this;
+        }
+
+        /**
+         * Skips the first books in the sort order, for reading the matches a
+         * page at a time. Needs a limit.
+         *
+         * @param offset the number of books to skip
+         */
+        public Builder offset(int offset) {
+            this.offset = offset;
+            return this;
+        }
+
+        /**
+         * @param limit the maximum number of books, the first ones in the sort order; 0 for all
+         */
+        public Builder limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if a range is empty, the limit or offset
+         *                                  is negative, or there is an offset without a limit
+         */
+        public BookSearchSpec build() {
+            if (minRating != null && maxRating != null && minRating > maxRating) {
+                throw new IllegalArgumentException("The minimum rating " + minRating
+                        + " is above the maximum rating " + maxRating);
+            }
+            if (publishedFrom != null && publishedTo != null && publishedFrom.isAfter(publishedTo)) {
+                throw new IllegalArgumentException("The publication date range " + publishedFrom
+                        + " to " + publishedTo + " is empty");
+            }
+            if (limit < 0) {
+                throw new IllegalArgumentException("The limit must not be negative: " + limit);
+            }
+            if (offset < 0 || (offset > 0 && limit == 0)) {
+                throw new IllegalArgumentException("The offset must not be negative and needs a limit: " + offset);
+            }
+            return new BookSearchSpec(this);
+        }
+
+        private static String blankToNull(String text) {
+            return text == null || text.isBlank() ? null : text.trim();
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package se.kth.Bahaa.booksdb.model;
+
+/**
+ * The orders in which pages of books can be browsed. Ties on title are
+ * broken by BookId so every book has a unique position.
+ */
+public enum BookSortOrder {
+    BOOK_ID, TITLE
+}
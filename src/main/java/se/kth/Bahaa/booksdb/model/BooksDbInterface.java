@@ -2,7 +2,9 @@ package se.kth.Bahaa.booksdb.model;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * This interface declares methods for querying a Books database.
@@ -27,9 +29,33 @@ public interface BooksDbInterface {
     //me
     void addBook(Book book) throws BooksDbException;
 
+    /**
+     * Adds many books in batches, which is much faster than calling addBook
+     * for each of them. Authors are matched on person number like in addBook.
+     */
+    void addBooks(Collection<Book> books) throws BooksDbException;
+
     void updateBook(Book updatedBook) throws BooksDbException;
     void deleteBook(Book book) throws BooksDbException;
 
+    /**
+     * Begins a unit of work: the adds, updates and deletes queued on the batch
+     * are written in one transaction when it is committed, see BookBatch.
+     */
+    BookBatch beginBatch();
+
+    /**
+     * Adds an author without linking it to a book, e.g. from the author dialog.
+     *
+     * @return the AuthorId of the new author
+     */
+    int addAuthor(Author author) throws BooksDbException;
+
+    /**
+     * Changes the name and person number of the author with the author's AuthorId.
+     */
+    void updateAuthor(Author author) throws BooksDbException;
+
 
         List<Book> searchBooksByTitle(String title) throws BooksDbException;
 
@@ -38,6 +64,55 @@ public interface BooksDbInterface {
         List<Book> searchBooksByGenre(Genre genre) throws BooksDbException;
         List<Book> searchBooksByRating(int raiting) throws BooksDbException;
 
+    /**
+     * Finds the books matching every criterion of the spec, in its sort order
+     * from the book it starts after and its offset up to its limit, in one query.
+     */
+    List<Book> searchBooks(BookSearchSpec spec) throws BooksDbException;
+
+    /**
+     * Counts the books matching the spec, ignoring its sort order, the book it
+     * starts after, its offset and limit, e.g. to know how many rows a paged table has.
+     */
+    int countBooks(BookSearchSpec spec) throws BooksDbException;
+
+    /**
+     * Counts the books matching the spec per genre, rating and publication
+     * year, without reading the books themselves. The sort order, the book it
+     * starts after, the offset and limit of the spec are ignored.
+     */
+    BookFacets getFacets(BookSearchSpec spec) throws BooksDbException;
+
+    /**
+     * Returns one page of all books in the given order, using keyset pagination
+     * so that every page costs the same no matter how far into the catalog it is.
+     *
+     * @param afterKey the next page token of the previous page, or null for the first page
+     * @param limit the maximum number of books on the page
+     */
+    BookPage getBooksPage(String afterKey, int limit, BookSortOrder sortOrder) throws BooksDbException;
+
+    /**
+     * Like getBooksPage, but only books matching the search, with the same
+     * matching rules as the searchBooksBy* method for the mode. For GENRE and
+     * RATING, searchFor is the genre name or the rating as text.
+     */
+    BookPage searchBooksPage(SearchMode mode, String searchFor, String afterKey, int limit,
+                             BookSortOrder sortOrder) throws BooksDbException;
+
+    /**
+     * Returns all books, ordered by BookId, as a lazy stream that reads them from
+     * the database as it is consumed, so memory use does not grow with the catalog.
+     * The stream holds a database connection and must be closed, preferably with
+     * try-with-resources. Errors while consuming it are thrown as UncheckedBooksDbException.
+     */
+    Stream<Book> streamAllBooks() throws BooksDbException;
+
+    /**
+     * Streaming variant of the searchBooksBy* methods, see streamAllBooks and searchBooksPage.
+     */
+    Stream<Book> streamBooks(SearchMode mode, String searchFor) throws BooksDbException;
+
 
 
 
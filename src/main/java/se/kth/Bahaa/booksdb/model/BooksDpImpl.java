@@ -1,15 +1,62 @@
 package se.kth.Bahaa.booksdb.model;
 
+import java.nio.file.Path;
+import java.time.LocalDate;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class BooksDpImpl implements BooksDbInterface {
-    private Connection connection;
-    private final List<Book> books;
+    // Joins the authors of the books aliased b, with NULL author columns for books without authors
+    private static final String AUTHOR_JOIN =
+            "LEFT JOIN BookAuthor ba ON b.BookId = ba.BookId " +
+            "LEFT JOIN Author a ON ba.AuthorId = a.AuthorId ";
+    // Books joined with their authors, one row per book/author pair. Append a WHERE clause and ORDER BY b.BookId.
+    private static final String SELECT_BOOKS_WITH_AUTHORS =
+            "SELECT b.BookId, b.isbn, b.title, b.publication_year, b.Genre, b.Rating, " +
+            "a.AuthorId, a.Name, a.PersonNumber FROM Book b " + AUTHOR_JOIN;
+
+    private final Properties properties;
+    private volatile ConnectionPool pool;
+    private volatile IdAllocator idAllocator;
+    private volatile boolean nameKeys; // whether Author has the NameKey column, see checkNameKeys
+    private final BookCache bookCache;
+    private final TitleIndex titleIndex = new TitleIndex();
+    private final AuthorIndex authorIndex = new AuthorIndex();
+    private volatile Thread titleIndexBuilder;
+    private volatile Thread authorIndexBuilder;
+    private final int maxIdLookup; // books an index search reads by id, broader searches are read with one query
 
     public BooksDpImpl() {
-        this.books = new ArrayList<>();
+        this(new Properties());
+    }
+
+    /**
+     * @param properties the application configuration, read for the db.* settings
+     */
+    public BooksDpImpl(Properties properties) {
+        this.properties = properties;
+        this.bookCache = new BookCache(intProperty("db.cache.maxSize", 10_000),
+                intProperty("db.cache.ttlSeconds", 0) * 1000L);
+        this.maxIdLookup = intProperty("db.index.maxIdLookup", 1000);
     }
 
 
@@ -23,153 +70,213 @@ public class BooksDpImpl implements BooksDbInterface {
                 fullDatabaseUrl = databaseUrl; // Or handle this case as an error
             }
 
-            connection = DriverManager.getConnection(fullDatabaseUrl, username, password);
-            populateBooksFromDatabase();
+            ConnectionPool newPool = new ConnectionPool(fullDatabaseUrl, username, password,
+                    intProperty("db.pool.minSize", 1),
+                    intProperty("db.pool.maxSize", 8),
+                    intProperty("db.pool.idleTimeoutMs", 300_000),
+                    intProperty("db.pool.waitTimeoutMs", 10_000),
+                    intProperty("db.pool.validationTimeoutSec", 2),
+                    intProperty("db.statementCacheSize", 64));
+            int slowQueryThreshold = intProperty("db.slowQuery.thresholdMs", 500);
+            if (slowQueryThreshold > 0) {
+                String logFile = properties.getProperty("db.slowQuery.logFile", "").trim();
+                newPool.setSlowQueryLog(new SlowQueryLog(newPool, slowQueryThreshold,
+                        Set.of(properties.getProperty("db.slowQuery.maskedColumns", "PersonNumber").split(",")),
+                        logFile.isEmpty() ? null : Path.of(logFile)));
+            }
+            try {
+                newPool.start();
+            } catch (SQLException e) {
+                newPool.close();
+                throw e;
+            }
+            try {
+                migrateSchema(newPool);
+            } catch (SQLException e) {
+                newPool.close();
+                throw e;
+            }
+            IdAllocator newIdAllocator = new IdAllocator(newPool, intProperty("db.idBlockSize", 50));
+            ConnectionPool oldPool = pool;
+            IdAllocator oldIdAllocator = idAllocator;
+            pool = newPool;
+            idAllocator = newIdAllocator;
+            if (oldIdAllocator != null) {
+                oldIdAllocator.close();
+            }
+            if (oldPool != null) {
+                oldPool.close();
+            }
+            bookCache.clear(); // may be another database than before
+            buildTitleIndex();
+            buildAuthorIndex();
             return true;
         } catch (SQLException e) {
             throw new BooksDbException("Failed to connect to the database: " + e.getMessage(), e);
         }
     }
 
-
-    @Override
-    public List<Book> getAllBooks() throws BooksDbException {
-        List<Book> allBooks = new ArrayList<>();
-        String query = "SELECT * FROM Book";
-
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            ResultSet resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                int bookId = resultSet.getInt("BookId");
-                String isbn = resultSet.getString("isbn");
-                String title = resultSet.getString("title");
-                Date publishedDate = resultSet.getDate("publication_year");
-                Genre genre = Genre.valueOf(resultSet.getString("Genre"));
-                int rating = resultSet.getInt("Rating");
-
-                Book book = new Book(bookId, isbn, title, publishedDate); // Create book with BookId
-                book.setGenre(genre);
-                book.setRating(rating);
-                book.setAuthors(getAuthorsForBook(bookId)); // Fetch authors for each book using BookId
-
-                allBooks.add(book);
-            }
-        } catch (SQLException e) {
-            throw new BooksDbException("Error retrieving all books from the database: " + e.getMessage());
+    /**
+     * Applies the schema migrations unless db.schema.migrate is false, e.g. for
+     * a user without DDL privileges, and reports the indexes that are missing.
+     */
+    private void migrateSchema(ConnectionPool newPool) throws SQLException {
+        SchemaMigrator migrator = new SchemaMigrator(newPool);
+        if (booleanProperty("db.schema.migrate", true)) {
+            int version = migrator.migrate();
+            System.out.println("Database schema is at version " + version + ".");
+        }
+        for (SchemaMigrator.RequiredIndex index : migrator.verify()) {
+            System.out.println("Missing " + index + ", searches on it may scan the whole table.");
         }
-        return allBooks;
+        checkNameKeys(migrator);
     }
 
-    @Override
-    public void disconnect() throws BooksDbException {
+    /**
+     * Looks for Author.NameKey, which a schema that was not migrated lacks.
+     * Without it the authors are written without a NameKey and searched with
+     * LOWER(Name) LIKE, which finds the query anywhere in the name instead of
+     * at the start of its words. With it, the authors written without one
+     * since, e.g. by another client, get theirs, so author searches find them.
+     */
+    private void checkNameKeys(SchemaMigrator migrator) throws SQLException {
+        nameKeys = migrator.hasColumn("Author", "NameKey");
+        if (!nameKeys) {
+            System.out.println("Missing column Author.NameKey, run the schema migrations (db.schema.migrate=true)"
+                    + " to add it. Until then author searches match any part of the name.");
+            return;
+        }
         try {
-            if (connection != null) {
-                if (!connection.isClosed()) {
-                    connection.close();
-                    System.out.println("Disconnected from the database.");
-                } else {
-                    System.out.println("Connection is already closed.");
-                }
+            int filled = migrator.fillNameKeys();
+            if (filled > 0) {
+                System.out.println("Computed Author.NameKey for " + filled + " author(s) written without it.");
             }
         } catch (SQLException e) {
-            throw new BooksDbException("Failed to close the database connection: " + e.getMessage(), e);
+            System.out.println("Could not compute the missing Author.NameKey values, author searches may not find"
+                    + " those authors: " + e.getMessage());
         }
     }
 
-
-    private List<Author> getAuthorsForBook(int bookId) throws SQLException {
-        List<Author> authors = new ArrayList<>();
-        String query = "SELECT a.AuthorId, a.Name, a.PersonNumber FROM Author a JOIN BookAuthor ba ON a.AuthorId = ba.AuthorId WHERE ba.BookId = ?";
-
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setInt(1, bookId);
-            ResultSet resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                int authorId = resultSet.getInt("AuthorId");
-                String name = resultSet.getString("Name");
-                String personNumber = resultSet.getString("PersonNumber");
-                authors.add(new Author(authorId, name, personNumber));
-            }
-        }
-        return authors;
+    private int intProperty(String key, int defaultValue) {
+        return DbProperties.intProperty(properties, key, defaultValue);
     }
 
+    /**
+     * @return statements served from the per-connection statement caches since connect
+     */
+    public long getStatementCacheHits() {
+        ConnectionPool current = pool;
+        return current == null ? 0 : current.getStatementCacheHits();
+    }
 
+    /**
+     * @return statements that had to be prepared since connect
+     */
+    public long getStatementCacheMisses() {
+        ConnectionPool current = pool;
+        return current == null ? 0 : current.getStatementCacheMisses();
+    }
 
-    private void populateBooksFromDatabase() {
-        try {
-            // Create a SQL query to retrieve all books
-            String query = "SELECT * FROM Book";
-
-            // Create a PreparedStatement and execute the query
-            PreparedStatement statement = connection.prepareStatement(query);
-            ResultSet resultSet = statement.executeQuery();
+    /**
+     * @return the statements slower than db.slowQuery.thresholdMs since connect, slowest first,
+     * with their EXPLAIN plans once captured
+     */
+    public List<SlowQueryLog.SlowQuery> getSlowQueries() {
+        ConnectionPool current = pool;
+        SlowQueryLog log = current == null ? null : current.getSlowQueryLog();
+        return log == null ? List.of() : log.getSlowQueries();
+    }
 
-            // Iterate through the ResultSet and create Book objects
-            while (resultSet.next()) {
-                String isbn = resultSet.getString("isbn");
-                String title = resultSet.getString("title");
-                Date publishedDate = resultSet.getDate("publication_year");
+    /**
+     * @return the read-through cache of books, e.g. for its hit, miss and eviction statistics
+     */
+    public BookCache getBookCache() {
+        return bookCache;
+    }
 
+    /**
+     * Borrows a connection from the pool for the duration of one operation.
+     * Close it (try-with-resources) to hand it back.
+     */
+    private PooledConnection borrowConnection() throws BooksDbException, SQLException {
+        ConnectionPool current = pool;
+        if (current == null) {
+            throw new BooksDbException("Not connected to a database.");
+        }
+        return current.borrow();
+    }
 
-                // Create a Book object and add it to the data model
-                Book book = new Book(isbn, title, publishedDate);
-                books.add(book); // Add the book to the data model
-            }
 
-            // Close the ResultSet and PreparedStatement
-            resultSet.close();
-            statement.close();
+    @Override
+    public List<Book> getAllBooks() throws BooksDbException {
+        String query = SELECT_BOOKS_WITH_AUTHORS + "ORDER BY b.BookId";
 
+        try (PooledConnection pooled = borrowConnection();
+             PreparedStatement statement = pooled.prepareStatement(query)) {
+            return readBooksWithAuthors(statement);
         } catch (SQLException e) {
-            // Handle exceptions
+            throw new BooksDbException("Error retrieving all books from the database: " + e.getMessage(), e);
         }
     }
 
-    private int findAvailableBookId() throws SQLException {
-        int bookId = 1;
-        String query = "SELECT BookId FROM Book WHERE BookId = ?";
-        while (true) {
-            try (PreparedStatement statement = connection.prepareStatement(query)) {
-                statement.setInt(1, bookId);
-                ResultSet resultSet = statement.executeQuery();
-                if (!resultSet.next()) {
-                    return bookId; // Returnerar det första lediga bookId
-                }
-                bookId++;
-            }
+    @Override
+    public void disconnect() throws BooksDbException {
+        ConnectionPool current = pool;
+        IdAllocator currentIdAllocator = idAllocator;
+        pool = null;
+        titleIndex.clear();
+        authorIndex.clear();
+        if (currentIdAllocator != null) {
+            currentIdAllocator.close();
+        }
+        if (current != null) {
+            current.close();
+            System.out.println("Disconnected from the database.");
+        } else {
+            System.out.println("Connection is already closed.");
         }
     }
 
-    private int findAvailableAuthorId() throws SQLException {
-        int authorId = 1;
-        String query = "SELECT AuthorId FROM Author WHERE AuthorId = ?";
-        while (true) {
-            try (PreparedStatement statement = connection.prepareStatement(query)) {
-                statement.setInt(1, authorId);
-                ResultSet resultSet = statement.executeQuery();
-                if (!resultSet.next()) {
-                    return authorId; // Return the first available authorId
-                }
-                authorId++;
+
+    /**
+     * Executes a query built on SELECT_BOOKS_WITH_AUTHORS and assembles the books
+     * and their authors in a single pass over the result set. The query must be
+     * ordered so that all rows of a book are adjacent, e.g. by BookId. Authors shared
+     * between several books are represented by one Author instance. The books
+     * read are put in the book cache, unless a book was invalidated while they
+     * were read.
+     */
+    private List<Book> readBooksWithAuthors(PreparedStatement statement) throws SQLException {
+        long cacheGeneration = bookCache.generation();
+        List<Book> result = new ArrayList<>();
+        try (ResultSet resultSet = CancellationToken.executeCurrent(statement)) {
+            BookRowReader reader = new BookRowReader(resultSet, true);
+            Book book;
+            while ((book = reader.next()) != null) {
+                result.add(book);
             }
         }
+        bookCache.putAll(result, cacheGeneration);
+        return result;
     }
 
 
+
     @Override
     public void addBook(Book book) throws BooksDbException {
         String insertBookSql = "INSERT INTO Book (BookId, isbn, title, publication_year, Genre, Rating) VALUES (?, ?, ?, ?, ?, ?)";
-        String insertAuthorSql = "INSERT INTO Author (AuthorId, Name, PersonNumber) VALUES (?, ?, ?)"; // Include AuthorId
+        String insertAuthorSql = insertAuthorSql();
         String insertBookAuthorSql = "INSERT INTO BookAuthor (BookId, AuthorId) VALUES (?, ?)";
 
-        try {
+        // the pool rolls back uncommitted work and restores auto-commit when the connection is returned
+        try (PooledConnection pooled = borrowConnection()) {
+            Connection connection = pooled.getConnection();
             connection.setAutoCommit(false);
 
-            // Find an available BookId
-            int bookId = findAvailableBookId();
+            // Take the next BookId from the allocator's reserved block
+            int bookId = idAllocator.nextBookId();
 
-            try (PreparedStatement bookStmt = connection.prepareStatement(insertBookSql)) {
+            try (PreparedStatement bookStmt = pooled.prepareStatement(insertBookSql)) {
                 bookStmt.setInt(1, bookId);
                 bookStmt.setString(2, book.getIsbn());
                 bookStmt.setString(3, book.getTitle());
@@ -180,144 +287,820 @@ public class BooksDpImpl implements BooksDbInterface {
             }
 
             // Insert authors and get their Ids, then link them to the book
-            for (Author author : book.getAuthors()) {
+            int[] authorIds = new int[book.getAuthors().size()];
+            List<Author> storedAuthors = new ArrayList<>(); // with the names in the database, for the author index
+            for (int i = 0; i < authorIds.length; i++) {
+                Author author = book.getAuthors().get(i);
                 int authorId;
 
                 // Check if the author already exists based on person number
-                Author existingAuthor = findAuthorByPersonNumber(author.getPersonNumber());
+                Author existingAuthor = findAuthorByPersonNumber(pooled, author.getPersonNumber());
                 if (existingAuthor != null) {
                     authorId = existingAuthor.getAuthorId(); // Use existing author's ID
+                    storedAuthors.add(existingAuthor); // keeps its name, addBook does not rename
                 } else {
                     // Add new author
-                    authorId = findAvailableAuthorId(); // Find an available authorId
-                    try (PreparedStatement authorStmt = connection.prepareStatement(insertAuthorSql)) {
-                        authorStmt.setInt(1, authorId); // Use the found authorId
-                        authorStmt.setString(2, author.getName());
-                        authorStmt.setString(3, author.getPersonNumber());
+                    authorId = idAllocator.nextAuthorId();
+                    try (PreparedStatement authorStmt = pooled.prepareStatement(insertAuthorSql)) {
+                        bindNewAuthor(authorStmt, authorId, author.getName(), author.getPersonNumber());
                         authorStmt.executeUpdate();
                     }
+                    storedAuthors.add(new Author(authorId, author.getName(), author.getPersonNumber()));
                 }
 
                 // Link book and author
-                try (PreparedStatement linkStmt = connection.prepareStatement(insertBookAuthorSql)) {
+                try (PreparedStatement linkStmt = pooled.prepareStatement(insertBookAuthorSql)) {
                     linkStmt.setInt(1, bookId);
                     linkStmt.setInt(2, authorId);
                     linkStmt.executeUpdate();
                 }
+                authorIds[i] = authorId;
             }
 
             connection.commit();
-        } catch (SQLException e) {
-            if (connection != null) {
-                try {
-                    connection.rollback();
-                } catch (SQLException ex) {
-                    // Log or handle rollback exception
-                }
+            book.setBookId(bookId);
+            for (int i = 0; i < authorIds.length; i++) {
+                book.getAuthors().get(i).setAuthorId(authorIds[i]);
             }
+            bookCache.put(book);
+            titleIndex.put(bookId, book.getTitle());
+            authorIndex.putBook(bookId, storedAuthors);
+        } catch (SQLException e) {
             throw new BooksDbException("Failed to add book and authors: " + e.getMessage(), e);
-        } finally {
-            try {
-                connection.setAutoCommit(true);
-            } catch (SQLException e) {
-                // Log or handle exception
+        }
+    }
+
+    /**
+     * Adds the books with JDBC batches, one transaction per chunk of
+     * db.batch.chunkSize books. Existing authors are resolved by PersonNumber
+     * with one IN lookup per chunk. If a chunk fails, the chunks before it
+     * stay committed and the exception tells how many books were added.
+     */
+    @Override
+    public void addBooks(Collection<Book> booksToAdd) throws BooksDbException {
+        String insertBookSql = "INSERT INTO Book (BookId, isbn, title, publication_year, Genre, Rating) VALUES (?, ?, ?, ?, ?, ?)";
+        String insertAuthorSql = insertAuthorSql();
+        String insertBookAuthorSql = "INSERT INTO BookAuthor (BookId, AuthorId) VALUES (?, ?)";
+        int chunkSize = Math.max(1, intProperty("db.batch.chunkSize", 500));
+
+        List<Book> pending = new ArrayList<>(booksToAdd);
+        Map<String, Author> storedAuthors = new HashMap<>(); // authors known to exist, as stored, across chunks
+        int added = 0;
+
+        try (PooledConnection pooled = borrowConnection()) {
+            Connection connection = pooled.getConnection();
+            connection.setAutoCommit(false);
+
+            for (int start = 0; start < pending.size(); start += chunkSize) {
+                List<Book> chunk = pending.subList(start, Math.min(start + chunkSize, pending.size()));
+                Set<String> unknown = new LinkedHashSet<>();
+                for (Book book : chunk) {
+                    for (Author author : book.getAuthors()) {
+                        if (!storedAuthors.containsKey(author.getPersonNumber())) {
+                            unknown.add(author.getPersonNumber());
+                        }
+                    }
+                }
+                storedAuthors.putAll(findAuthorsByPersonNumber(connection, unknown));
+
+                Map<String, Author> newAuthors = new HashMap<>();
+                int[] bookIds = new int[chunk.size()];
+                try (PreparedStatement bookStmt = pooled.prepareStatement(insertBookSql);
+                     PreparedStatement authorStmt = pooled.prepareStatement(insertAuthorSql);
+                     PreparedStatement linkStmt = pooled.prepareStatement(insertBookAuthorSql)) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        Book book = chunk.get(i);
+                        int bookId = idAllocator.nextBookId();
+                        bookIds[i] = bookId;
+                        bookStmt.setInt(1, bookId);
+                        bookStmt.setString(2, book.getIsbn());
+                        bookStmt.setString(3, book.getTitle());
+                        bookStmt.setDate(4, book.getPublished());
+                        bookStmt.setString(5, book.getGenre().toString());
+                        bookStmt.setInt(6, book.getRating());
+                        bookStmt.addBatch();
+
+                        Set<Integer> linkedAuthors = new HashSet<>();
+                        for (Author author : book.getAuthors()) {
+                            Author stored = storedAuthors.get(author.getPersonNumber());
+                            if (stored == null) {
+                                stored = newAuthors.get(author.getPersonNumber());
+                            }
+                            if (stored == null) {
+                                int authorId = idAllocator.nextAuthorId();
+                                stored = new Author(authorId, author.getName(), author.getPersonNumber());
+                                newAuthors.put(author.getPersonNumber(), stored);
+                                bindNewAuthor(authorStmt, authorId, author.getName(), author.getPersonNumber());
+                                authorStmt.addBatch();
+                            }
+                            if (linkedAuthors.add(stored.getAuthorId())) {
+                                linkStmt.setInt(1, bookId);
+                                linkStmt.setInt(2, stored.getAuthorId());
+                                linkStmt.addBatch();
+                            }
+                        }
+                    }
+                    authorStmt.executeBatch();
+                    bookStmt.executeBatch();
+                    linkStmt.executeBatch();
+                }
+                connection.commit();
+
+                storedAuthors.putAll(newAuthors);
+                for (int i = 0; i < chunk.size(); i++) {
+                    Book book = chunk.get(i);
+                    book.setBookId(bookIds[i]);
+                    titleIndex.put(bookIds[i], book.getTitle());
+                    for (Author author : book.getAuthors()) {
+                        author.setAuthorId(storedAuthors.get(author.getPersonNumber()).getAuthorId());
+                    }
+                    authorIndex.putBook(bookIds[i], storedAuthors(book, storedAuthors));
+                }
+                added += chunk.size();
             }
+        } catch (SQLException e) {
+            throw new BooksDbException("Failed to add books, " + added + " of " + pending.size()
+                    + " were added: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * @return the authors of the book with the names they have in the database,
+     * which an addition of an existing author does not change, for the author index
+     */
+    private static List<Author> storedAuthors(Book book, Map<String, Author> storedByPersonNumber) {
+        List<Author> stored = new ArrayList<>();
+        for (Author author : book.getAuthors()) {
+            stored.add(storedByPersonNumber.get(author.getPersonNumber()));
+        }
+        return stored;
+    }
 
+    /**
+     * Writes only what differs from the stored book, in one transaction. The
+     * stored row and its BookAuthor links are read and locked with one
+     * SELECT ... FOR UPDATE, only the changed columns are set, the authors are
+     * resolved by PersonNumber with one IN lookup, and only new and renamed
+     * authors and added and removed links are written, each kind in one batch.
+     * Saving a book that has not changed costs one query.
+     */
     public void updateBook(Book updatedBook) throws BooksDbException {
-        // Update book details first
-        String updateBookSql = "UPDATE Book SET isbn = ?, title = ?, publication_year = ?, Genre = ?, Rating = ? WHERE BookId = ?";
-        try (PreparedStatement bookStmt = connection.prepareStatement(updateBookSql)) {
-            bookStmt.setString(1, updatedBook.getIsbn());
-            bookStmt.setString(2, updatedBook.getTitle());
-            bookStmt.setDate(3, updatedBook.getPublished());
-            bookStmt.setString(4, updatedBook.getGenre().toString());
-            bookStmt.setInt(5, updatedBook.getRating());
-            bookStmt.setInt(6, updatedBook.getBookId());
-            bookStmt.executeUpdate();
+        int bookId = updatedBook.getBookId();
+        String readStoredSql = "SELECT b.isbn, b.title, b.publication_year, b.Genre, b.Rating, ba.AuthorId " +
+                "FROM Book b LEFT JOIN BookAuthor ba ON ba.BookId = b.BookId WHERE b.BookId = ? FOR UPDATE";
+
+        // the pool rolls back uncommitted work and restores auto-commit when the connection is returned
+        try (PooledConnection pooled = borrowConnection()) {
+            Connection connection = pooled.getConnection();
+            connection.setAutoCommit(false);
+
+            Book stored = null;
+            Set<Integer> storedAuthorIds = new HashSet<>();
+            try (PreparedStatement statement = pooled.prepareStatement(readStoredSql)) {
+                statement.setInt(1, bookId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        if (stored == null) {
+                            stored = new Book(bookId, resultSet.getString("isbn"), resultSet.getString("title"),
+                                    resultSet.getDate("publication_year"));
+                            stored.setGenre(Genre.valueOf(resultSet.getString("Genre")));
+                            stored.setRating(resultSet.getInt("Rating"));
+                        }
+                        int authorId = resultSet.getInt("AuthorId");
+                        if (!resultSet.wasNull()) {
+                            storedAuthorIds.add(authorId);
+                        }
+                    }
+                }
+            }
+            if (stored == null) {
+                throw new BooksDbException("No book was updated. Check the BookId: " + bookId);
+            }
+
+            boolean titleChanged = updateChangedColumns(connection, stored, updatedBook);
+
+            // Resolve the authors, a person listed twice is linked once
+            Map<String, Author> authorsByPersonNumber = new LinkedHashMap<>();
+            for (Author author : updatedBook.getAuthors()) {
+                authorsByPersonNumber.putIfAbsent(author.getPersonNumber(), author);
+            }
+            Map<String, Author> existingAuthors = findAuthorsByPersonNumber(connection, authorsByPersonNumber.keySet());
+            Map<String, Integer> authorIds = new HashMap<>();
+            List<Author> newAuthors = new ArrayList<>();
+            List<Author> renamedAuthors = new ArrayList<>();
+            for (Author author : authorsByPersonNumber.values()) {
+                Author existing = existingAuthors.get(author.getPersonNumber());
+                if (existing == null) {
+                    author.setAuthorId(idAllocator.nextAuthorId());
+                    newAuthors.add(author);
+                } else {
+                    author.setAuthorId(existing.getAuthorId());
+                    if (!Objects.equals(existing.getName(), author.getName())) {
+                        renamedAuthors.add(author);
+                    }
+                }
+                authorIds.put(author.getPersonNumber(), author.getAuthorId());
+            }
+
+            Set<Integer> linkedAuthorIds = new LinkedHashSet<>(authorIds.values());
+            Set<Integer> addedLinks = new LinkedHashSet<>(linkedAuthorIds);
+            addedLinks.removeAll(storedAuthorIds);
+            Set<Integer> removedLinks = new HashSet<>(storedAuthorIds);
+            removedLinks.removeAll(linkedAuthorIds);
+
+            if (!newAuthors.isEmpty()) {
+                try (PreparedStatement authorStmt = pooled.prepareStatement(insertAuthorSql())) {
+                    for (Author author : newAuthors) {
+                        bindNewAuthor(authorStmt, author.getAuthorId(), author.getName(), author.getPersonNumber());
+                        authorStmt.addBatch();
+                    }
+                    authorStmt.executeBatch();
+                }
+            }
+            if (!renamedAuthors.isEmpty()) {
+                try (PreparedStatement renameStmt = pooled.prepareStatement(renameAuthorSql())) {
+                    for (Author author : renamedAuthors) {
+                        bindRenamedAuthor(renameStmt, author.getAuthorId(), author.getName());
+                        renameStmt.addBatch();
+                    }
+                    renameStmt.executeBatch();
+                }
+            }
+            if (!removedLinks.isEmpty()) {
+                try (PreparedStatement unlinkStmt = pooled.prepareStatement(
+                        "DELETE FROM BookAuthor WHERE BookId = ? AND AuthorId = ?")) {
+                    for (int authorId : removedLinks) {
+                        unlinkStmt.setInt(1, bookId);
+                        unlinkStmt.setInt(2, authorId);
+                        unlinkStmt.addBatch();
+                    }
+                    unlinkStmt.executeBatch();
+                }
+            }
+            if (!addedLinks.isEmpty()) {
+                try (PreparedStatement linkStmt = pooled.prepareStatement(
+                        "INSERT INTO BookAuthor (BookId, AuthorId) VALUES (?, ?)")) {
+                    for (int authorId : addedLinks) {
+                        linkStmt.setInt(1, bookId);
+                        linkStmt.setInt(2, authorId);
+                        linkStmt.addBatch();
+                    }
+                    linkStmt.executeBatch();
+                }
+            }
+            connection.commit();
+
+            for (Author author : updatedBook.getAuthors()) { // also the duplicates skipped above
+                author.setAuthorId(authorIds.get(author.getPersonNumber()));
+            }
+            for (Author author : renamedAuthors) {
+                bookCache.invalidateByAuthor(author.getAuthorId()); // other books show the old name
+            }
+            if (authorsByPersonNumber.size() == updatedBook.getAuthors().size()) {
+                bookCache.put(updatedBook);
+            } else {
+                bookCache.invalidate(bookId); // read back without the duplicates
+            }
+            if (titleChanged) {
+                titleIndex.put(bookId, updatedBook.getTitle());
+            }
+            if (!addedLinks.isEmpty() || !removedLinks.isEmpty() || !renamedAuthors.isEmpty()) {
+                authorIndex.putBook(bookId, updatedBook.getAuthors());
+            }
         } catch (SQLException e) {
+            bookCache.invalidate(bookId);
             throw new BooksDbException("Error updating book details: " + e.getMessage(), e);
+        } catch (BooksDbException e) {
+            bookCache.invalidate(bookId);
+            throw e;
         }
+    }
 
-        // Update authors and book-author associations
-        updateAuthorsAndAssociations(updatedBook);
+    /**
+     * Sets the columns of the Book row that differ between the stored and the
+     * updated book, if any.
+     *
+     * @return whether the title changed
+     */
+    private boolean updateChangedColumns(Connection connection, Book stored, Book updatedBook) throws SQLException {
+        List<String> columns = changedColumns(stored, updatedBook);
+        if (columns.isEmpty()) {
+            return false;
+        }
+        try (PreparedStatement bookStmt = connection.prepareStatement(updateColumnsSql(columns))) { // not cached, the SQL varies with the changes
+            bindColumns(bookStmt, columns, updatedBook);
+            bookStmt.executeUpdate();
+        }
+        return columns.contains("title");
     }
 
-    //handle author update:
-    private void updateAuthorsAndAssociations(Book updatedBook) throws BooksDbException {
-        // Först, kontrollera och uppdatera varje författares detaljer
-        for (Author author : updatedBook.getAuthors()) {
-            Author existingAuthor = null;
-            try {
-                existingAuthor = findAuthorByPersonNumber(author.getPersonNumber());
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
+    /**
+     * @return the Book columns whose values differ between the stored and the updated book
+     */
+    private static List<String> changedColumns(Book stored, Book updatedBook) {
+        List<String> columns = new ArrayList<>();
+        if (!Objects.equals(stored.getIsbn(), updatedBook.getIsbn())) {
+            columns.add("isbn");
+        }
+        if (!Objects.equals(stored.getTitle(), updatedBook.getTitle())) {
+            columns.add("title");
+        }
+        if (!Objects.equals(toLocalDate(stored.getPublished()), toLocalDate(updatedBook.getPublished()))) {
+            columns.add("publication_year");
+        }
+        if (stored.getGenre() != updatedBook.getGenre()) {
+            columns.add("Genre");
+        }
+        if (stored.getRating() != updatedBook.getRating()) {
+            columns.add("Rating");
+        }
+        return columns;
+    }
+
+    private static String updateColumnsSql(List<String> columns) {
+        return "UPDATE Book SET " + String.join(" = ?, ", columns) + " = ? WHERE BookId = ?";
+    }
+
+    /**
+     * Binds the values of the columns of updateColumnsSql, and the BookId.
+     */
+    private static void bindColumns(PreparedStatement statement, List<String> columns, Book book) throws SQLException {
+        int index = 1;
+        for (String column : columns) {
+            switch (column) {
+                case "isbn":
+                    statement.setString(index++, book.getIsbn());
+                    break;
+                case "title":
+                    statement.setString(index++, book.getTitle());
+                    break;
+                case "publication_year":
+                    statement.setDate(index++, book.getPublished());
+                    break;
+                case "Genre":
+                    statement.setString(index++, book.getGenre().toString());
+                    break;
+                case "Rating":
+                    statement.setInt(index++, book.getRating());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown Book column: " + column);
             }
-            if (existingAuthor != null) {
-                // Författaren finns, uppdatera den befintliga författaren
-                author.setAuthorId(existingAuthor.getAuthorId()); // Sätt befintligt ID
-                updateAuthorInDatabase(author); // Uppdatera befintlig författare
-            } else {
-                // Författaren finns inte, skapa en ny
-                int newAuthorId = insertNewAuthorIntoDatabase(author);
-                author.setAuthorId(newAuthorId); // Sätt nytt ID
+        }
+        statement.setInt(index, book.getBookId());
+    }
+
+    private static LocalDate toLocalDate(Date date) {
+        return date == null ? null : date.toLocalDate();
+    }
+
+    /**
+     * @return the existing authors with the given PersonNumbers, by PersonNumber
+     */
+    private Map<String, Author> findAuthorsByPersonNumber(Connection connection, Collection<String> personNumbers)
+            throws SQLException {
+        Map<String, Author> found = new HashMap<>();
+        List<String> all = new ArrayList<>(personNumbers);
+        int maxParameters = 1000;
+        for (int start = 0; start < all.size(); start += maxParameters) {
+            List<String> part = all.subList(start, Math.min(start + maxParameters, all.size()));
+            String placeholders = String.join(", ", Collections.nCopies(part.size(), "?"));
+            String query = "SELECT AuthorId, Name, PersonNumber FROM Author WHERE PersonNumber IN (" + placeholders + ")";
+            try (PreparedStatement statement = connection.prepareStatement(query)) { // not cached, the SQL varies with the authors
+                for (int i = 0; i < part.size(); i++) {
+                    statement.setString(i + 1, part.get(i));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        String personNumber = resultSet.getString("PersonNumber");
+                        found.put(personNumber, new Author(resultSet.getInt("AuthorId"), resultSet.getString("Name"), personNumber));
+                    }
+                }
             }
         }
-        // Uppdatera sedan bok-författare associationerna
-        updateBookAuthors(updatedBook.getBookId(), updatedBook.getAuthors());
+        return found;
     }
-    private void updateBookAuthors(int bookId, List<Author> authors) throws BooksDbException {
-        // Delete existing book-author associations
-        String deleteAssociationsSql = "DELETE FROM BookAuthor WHERE BookId = ?";
-        try (PreparedStatement deleteStmt = connection.prepareStatement(deleteAssociationsSql)) {
-            deleteStmt.setInt(1, bookId);
-            deleteStmt.executeUpdate();
+
+    @Override
+    public BookBatch beginBatch() {
+        return new BookBatch(this::commitBatch);
+    }
+
+    /**
+     * Writes a batch in one transaction, with a number of round trips that does
+     * not grow with the number of books:
+     * - the books to update or delete are read and locked in BookId order with
+     *   one SELECT ... FOR UPDATE, and the ISBNs and authors are looked up with
+     *   one IN query each (per 1000 values);
+     * - the operations that cannot be applied are left out and reported;
+     * - the rest is written with one JDBC batch per statement: deletes, new and
+     *   renamed authors, updates per set of changed columns, additions and the
+     *   BookAuthor links added and removed.
+     * If a statement still fails, e.g. two books of the batch swap ISBNs, the
+     * whole transaction is rolled back.
+     */
+    private BookBatchResult commitBatch(List<BookBatch.Item> items) throws BooksDbException {
+        BookBatchResult.Outcome[] outcomes = new BookBatchResult.Outcome[items.size()];
+        String[] messages = new String[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            BookBatch.Item item = items.get(i);
+            if (item.operation != BookBatch.Operation.DELETE) {
+                try {
+                    BookBatch.validate(item.book);
+                } catch (BooksDbException e) {
+                    outcomes[i] = BookBatchResult.Outcome.FAILED;
+                    messages[i] = e.getMessage();
+                }
+            }
+        }
+
+        Map<Integer, Book> storedBooks = new HashMap<>();
+        Map<Integer, Set<Integer>> storedLinks = new HashMap<>();
+        Map<String, Integer> authorIds = new HashMap<>();
+        Map<String, Author> storedAuthors = new HashMap<>(); // as they are once committed, for the author index
+        List<Author> renamedAuthors = new ArrayList<>();
+        int[] newBookIds = new int[items.size()];
+
+        // the pool rolls back uncommitted work and restores auto-commit when the connection is returned
+        try (PooledConnection pooled = borrowConnection()) {
+            Connection connection = pooled.getConnection();
+            connection.setAutoCommit(false);
+
+            Set<Integer> changedIds = new TreeSet<>();
+            for (BookBatch.Item item : items) {
+                if (item.operation != BookBatch.Operation.ADD) {
+                    changedIds.add(item.book.getBookId());
+                }
+            }
+            readAndLockBooks(connection, changedIds, storedBooks, storedLinks);
+
+            // Leave out the books that are gone and the ISBNs that are taken, as if applied one by one
+            Set<String> isbns = new LinkedHashSet<>();
+            for (int i = 0; i < items.size(); i++) {
+                BookBatch.Item item = items.get(i);
+                if (outcomes[i] == null && item.operation != BookBatch.Operation.ADD
+                        && !storedBooks.containsKey(item.book.getBookId())) {
+                    outcomes[i] = BookBatchResult.Outcome.NOT_FOUND;
+                } else if (outcomes[i] == null && item.operation != BookBatch.Operation.DELETE) {
+                    isbns.add(item.book.getIsbn());
+                }
+            }
+            Map<String, Integer> isbnOwners = findBookIdsByIsbn(connection, isbns);
+            for (int i = 0; i < items.size(); i++) {
+                BookBatch.Item item = items.get(i);
+                if (outcomes[i] != null) {
+                    continue;
+                }
+                if (item.operation == BookBatch.Operation.DELETE) {
+                    isbnOwners.values().remove(item.book.getBookId());
+                    continue;
+                }
+                int bookId = item.operation == BookBatch.Operation.ADD ? 0 : item.book.getBookId();
+                Integer owner = isbnOwners.get(item.book.getIsbn());
+                if (owner != null && (bookId == 0 || owner != bookId)) {
+                    outcomes[i] = BookBatchResult.Outcome.FAILED;
+                    messages[i] = "A book with ISBN " + item.book.getIsbn() + " already exists.";
+                } else {
+                    if (bookId != 0) {
+                        isbnOwners.remove(storedBooks.get(bookId).getIsbn(), bookId);
+                    }
+                    isbnOwners.put(item.book.getIsbn(), bookId);
+                }
+            }
+
+            // Resolve the authors of the books to write. Like updateBook, an update renames a known
+            // author, the last one wins; like addBook, an addition does not
+            Map<String, Author> authorsByPersonNumber = new LinkedHashMap<>();
+            Set<String> renamable = new HashSet<>();
+            for (int i = 0; i < items.size(); i++) {
+                BookBatch.Operation operation = items.get(i).operation;
+                if (outcomes[i] != null || operation == BookBatch.Operation.DELETE) {
+                    continue;
+                }
+                for (Author author : items.get(i).book.getAuthors()) {
+                    if (operation == BookBatch.Operation.UPDATE) {
+                        authorsByPersonNumber.put(author.getPersonNumber(), author);
+                        renamable.add(author.getPersonNumber());
+                    } else {
+                        authorsByPersonNumber.putIfAbsent(author.getPersonNumber(), author);
+                    }
+                }
+            }
+            Map<String, Author> existingAuthors = findAuthorsByPersonNumber(connection, authorsByPersonNumber.keySet());
+            List<Author> newAuthors = new ArrayList<>();
+            for (Author author : authorsByPersonNumber.values()) {
+                Author existing = existingAuthors.get(author.getPersonNumber());
+                int authorId;
+                String name = author.getName();
+                if (existing == null) {
+                    authorId = idAllocator.nextAuthorId();
+                    newAuthors.add(author);
+                } else {
+                    authorId = existing.getAuthorId();
+                    if (renamable.contains(author.getPersonNumber()) && !Objects.equals(existing.getName(), author.getName())) {
+                        renamedAuthors.add(author);
+                    } else {
+                        name = existing.getName();
+                    }
+                }
+                authorIds.put(author.getPersonNumber(), authorId);
+                storedAuthors.put(author.getPersonNumber(), new Author(authorId, name, author.getPersonNumber()));
+            }
+
+            try (PreparedStatement unlinkAllStmt = pooled.prepareStatement("DELETE FROM BookAuthor WHERE BookId = ?");
+                 PreparedStatement deleteStmt = pooled.prepareStatement("DELETE FROM Book WHERE BookId = ?");
+                 PreparedStatement authorStmt = pooled.prepareStatement(insertAuthorSql());
+                 PreparedStatement renameStmt = pooled.prepareStatement(renameAuthorSql());
+                 PreparedStatement unlinkStmt = pooled.prepareStatement(
+                         "DELETE FROM BookAuthor WHERE BookId = ? AND AuthorId = ?");
+                 PreparedStatement bookStmt = pooled.prepareStatement(
+                         "INSERT INTO Book (BookId, isbn, title, publication_year, Genre, Rating) VALUES (?, ?, ?, ?, ?, ?)");
+                 PreparedStatement linkStmt = pooled.prepareStatement(
+                         "INSERT INTO BookAuthor (BookId, AuthorId) VALUES (?, ?)")) {
+                Map<String, List<Book>> updatesByColumns = new LinkedHashMap<>();
+                boolean deletes = false, unlinks = false, additions = false, links = false;
+                for (int i = 0; i < items.size(); i++) {
+                    if (outcomes[i] != null) {
+                        continue;
+                    }
+                    Book book = items.get(i).book;
+                    switch (items.get(i).operation) {
+                        case DELETE:
+                            unlinkAllStmt.setInt(1, book.getBookId());
+                            unlinkAllStmt.addBatch();
+                            deleteStmt.setInt(1, book.getBookId());
+                            deleteStmt.addBatch();
+                            deletes = true;
+                            break;
+                        case UPDATE:
+                            List<String> columns = changedColumns(storedBooks.get(book.getBookId()), book);
+                            if (!columns.isEmpty()) {
+                                updatesByColumns.computeIfAbsent(String.join(",", columns), c -> new ArrayList<>()).add(book);
+                            }
+                            Set<Integer> linked = linkedAuthorIds(book, authorIds);
+                            Set<Integer> stored = storedLinks.getOrDefault(book.getBookId(), Set.of());
+                            for (int authorId : stored) {
+                                if (!linked.contains(authorId)) {
+                                    unlinkStmt.setInt(1, book.getBookId());
+                                    unlinkStmt.setInt(2, authorId);
+                                    unlinkStmt.addBatch();
+                                    unlinks = true;
+                                }
+                            }
+                            for (int authorId : linked) {
+                                if (!stored.contains(authorId)) {
+                                    linkStmt.setInt(1, book.getBookId());
+                                    linkStmt.setInt(2, authorId);
+                                    linkStmt.addBatch();
+                                    links = true;
+                                }
+                            }
+                            break;
+                        case ADD:
+                            newBookIds[i] = idAllocator.nextBookId();
+                            bookStmt.setInt(1, newBookIds[i]);
+                            bookStmt.setString(2, book.getIsbn());
+                            bookStmt.setString(3, book.getTitle());
+                            bookStmt.setDate(4, book.getPublished());
+                            bookStmt.setString(5, book.getGenre().toString());
+                            bookStmt.setInt(6, book.getRating());
+                            bookStmt.addBatch();
+                            additions = true;
+                            for (int authorId : linkedAuthorIds(book, authorIds)) {
+                                linkStmt.setInt(1, newBookIds[i]);
+                                linkStmt.setInt(2, authorId);
+                                linkStmt.addBatch();
+                                links = true;
+                            }
+                            break;
+                    }
+                }
+                for (Author author : newAuthors) {
+                    bindNewAuthor(authorStmt, authorIds.get(author.getPersonNumber()), author.getName(),
+                            author.getPersonNumber());
+                    authorStmt.addBatch();
+                }
+                for (Author author : renamedAuthors) {
+                    bindRenamedAuthor(renameStmt, authorIds.get(author.getPersonNumber()), author.getName());
+                    renameStmt.addBatch();
+                }
+
+                // in the order of the foreign keys: links before their books, authors before their links
+                if (deletes) {
+                    unlinkAllStmt.executeBatch();
+                    deleteStmt.executeBatch();
+                }
+                if (!newAuthors.isEmpty()) {
+                    authorStmt.executeBatch();
+                }
+                if (!renamedAuthors.isEmpty()) {
+                    renameStmt.executeBatch();
+                }
+                for (Map.Entry<String, List<Book>> update : updatesByColumns.entrySet()) {
+                    List<String> columns = List.of(update.getKey().split(","));
+                    try (PreparedStatement updateStmt = connection.prepareStatement(updateColumnsSql(columns))) { // not cached, the SQL varies with the changes
+                        for (Book book : update.getValue()) {
+                            bindColumns(updateStmt, columns, book);
+                            updateStmt.addBatch();
+                        }
+                        updateStmt.executeBatch();
+                    }
+                }
+                if (unlinks) {
+                    unlinkStmt.executeBatch();
+                }
+                if (additions) {
+                    bookStmt.executeBatch();
+                }
+                if (links) {
+                    linkStmt.executeBatch();
+                }
+            }
+            connection.commit();
         } catch (SQLException e) {
-            throw new BooksDbException("Error deleting book-author associations: " + e.getMessage(), e);
+            invalidateChangedBooks(items);
+            throw new BooksDbException("Failed to commit the batch of " + items.size()
+                    + " books, nothing was written: " + e.getMessage(), e);
         }
+        invalidateChangedBooks(items);
 
-        // Add new book-author associations
-        String insertAssociationSql = "INSERT INTO BookAuthor (BookId, AuthorId) VALUES (?, ?)";
-        for (Author author : authors) {
-            try (PreparedStatement insertStmt = connection.prepareStatement(insertAssociationSql)) {
-                insertStmt.setInt(1, bookId);
-                insertStmt.setInt(2, author.getAuthorId());
-                insertStmt.executeUpdate();
-            } catch (SQLException e) {
-                throw new BooksDbException("Error adding book-author association: " + e.getMessage(), e);
+        // Committed, bring the books, caches and search indexes up to date
+        for (Author author : renamedAuthors) {
+            int authorId = authorIds.get(author.getPersonNumber());
+            bookCache.invalidateByAuthor(authorId);
+            authorIndex.putAuthor(authorId, author.getName());
+        }
+        List<BookBatchResult.ItemResult> results = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            BookBatch.Item item = items.get(i);
+            Book book = item.book;
+            if (outcomes[i] == null) {
+                outcomes[i] = BookBatchResult.Outcome.APPLIED;
+                if (item.operation == BookBatch.Operation.DELETE) {
+                    titleIndex.remove(book.getBookId());
+                    authorIndex.removeBook(book.getBookId());
+                } else {
+                    if (item.operation == BookBatch.Operation.ADD) {
+                        book.setBookId(newBookIds[i]);
+                    }
+                    for (Author author : book.getAuthors()) {
+                        author.setAuthorId(authorIds.get(author.getPersonNumber()));
+                    }
+                    titleIndex.put(book.getBookId(), book.getTitle());
+                    authorIndex.putBook(book.getBookId(), storedAuthors(book, storedAuthors));
+                }
             }
+            results.add(new BookBatchResult.ItemResult(item.operation, book, outcomes[i], messages[i]));
         }
+        return new BookBatchResult(results);
     }
 
+    /**
+     * Drops every book the batch updates or deletes from the cache, whatever
+     * the outcome, so that the next read sees what the database holds: the
+     * new values if the item was applied, the old ones if it failed or the
+     * transaction was rolled back.
+     */
+    private void invalidateChangedBooks(List<BookBatch.Item> items) {
+        for (BookBatch.Item item : items) {
+            if (item.operation != BookBatch.Operation.ADD) {
+                bookCache.invalidate(item.book.getBookId());
+            }
+        }
+    }
+
+    /**
+     * @return the distinct AuthorIds of the book's authors, resolved by PersonNumber
+     */
+    private static Set<Integer> linkedAuthorIds(Book book, Map<String, Integer> authorIds) {
+        Set<Integer> linked = new LinkedHashSet<>();
+        for (Author author : book.getAuthors()) {
+            linked.add(authorIds.get(author.getPersonNumber()));
+        }
+        return linked;
+    }
+
+    /**
+     * Reads the books with the given ids and their BookAuthor links, locking
+     * them until the transaction ends. The ids are locked in ascending order.
+     */
+    private void readAndLockBooks(Connection connection, Set<Integer> bookIds, Map<Integer, Book> books,
+                                  Map<Integer, Set<Integer>> links) throws SQLException {
+        List<Integer> all = new ArrayList<>(bookIds);
+        int maxParameters = 1000;
+        for (int start = 0; start < all.size(); start += maxParameters) {
+            List<Integer> part = all.subList(start, Math.min(start + maxParameters, all.size()));
+            String placeholders = String.join(", ", Collections.nCopies(part.size(), "?"));
+            String query = "SELECT b.BookId, b.isbn, b.title, b.publication_year, b.Genre, b.Rating, ba.AuthorId " +
+                    "FROM Book b LEFT JOIN BookAuthor ba ON ba.BookId = b.BookId WHERE b.BookId IN (" + placeholders + ") " +
+                    "ORDER BY b.BookId FOR UPDATE";
+            try (PreparedStatement statement = connection.prepareStatement(query)) { // not cached, the SQL varies with the batch
+                for (int i = 0; i < part.size(); i++) {
+                    statement.setInt(i + 1, part.get(i));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        int bookId = resultSet.getInt("BookId");
+                        if (!books.containsKey(bookId)) {
+                            Book book = new Book(bookId, resultSet.getString("isbn"), resultSet.getString("title"),
+                                    resultSet.getDate("publication_year"));
+                            book.setGenre(Genre.valueOf(resultSet.getString("Genre")));
+                            book.setRating(resultSet.getInt("Rating"));
+                            books.put(bookId, book);
+                            links.put(bookId, new HashSet<>());
+                        }
+                        int authorId = resultSet.getInt("AuthorId");
+                        if (!resultSet.wasNull()) {
+                            links.get(bookId).add(authorId);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the BookIds of the books with the given ISBNs, by ISBN
+     */
+    private Map<String, Integer> findBookIdsByIsbn(Connection connection, Collection<String> isbns) throws SQLException {
+        Map<String, Integer> found = new HashMap<>();
+        List<String> all = new ArrayList<>(isbns);
+        int maxParameters = 1000;
+        for (int start = 0; start < all.size(); start += maxParameters) {
+            List<String> part = all.subList(start, Math.min(start + maxParameters, all.size()));
+            String placeholders = String.join(", ", Collections.nCopies(part.size(), "?"));
+            String query = "SELECT BookId, isbn FROM Book WHERE isbn IN (" + placeholders + ")";
+            try (PreparedStatement statement = connection.prepareStatement(query)) { // not cached, the SQL varies with the batch
+                for (int i = 0; i < part.size(); i++) {
+                    statement.setString(i + 1, part.get(i));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        found.put(resultSet.getString("isbn"), resultSet.getInt("BookId"));
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+
+    @Override
+    public int addAuthor(Author author) throws BooksDbException {
+        return insertNewAuthorIntoDatabase(author);
+    }
+
+    @Override
+    public void updateAuthor(Author author) throws BooksDbException {
+        updateAuthorInDatabase(author);
+    }
 
     public int insertNewAuthorIntoDatabase(Author newAuthor) throws BooksDbException {
-        String sql = "INSERT INTO Author (Name, PersonNumber) VALUES (?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            pstmt.setString(1, newAuthor.getName());
-            pstmt.setString(2, newAuthor.getPersonNumber());
+        try (PooledConnection pooled = borrowConnection()) {
+            int authorId = insertNewAuthorIntoDatabase(pooled, newAuthor);
+            authorIndex.putAuthor(authorId, newAuthor.getName());
+            return authorId;
+        } catch (SQLException e) {
+            throw new BooksDbException("Error inserting new author: " + e.getMessage(), e);
+        }
+    }
+
+    private int insertNewAuthorIntoDatabase(PooledConnection pooled, Author newAuthor) throws BooksDbException {
+        try (PreparedStatement pstmt = pooled.prepareStatement(insertAuthorSql())) {
+            int authorId = idAllocator.nextAuthorId();
+            bindNewAuthor(pstmt, authorId, newAuthor.getName(), newAuthor.getPersonNumber());
             int affectedRows = pstmt.executeUpdate();
             if (affectedRows == 0) {
                 throw new BooksDbException("Creating author failed, no rows affected.");
             }
-            try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    return generatedKeys.getInt(1);
-                } else {
-                    throw new BooksDbException("Creating author failed, no ID obtained.");
-                }
-            }
+            return authorId;
         } catch (SQLException e) {
             throw new BooksDbException("Error inserting new author: " + e.getMessage(), e);
         }
     }
+
     public void updateAuthorInDatabase(Author author) throws BooksDbException {
-        String sql = "UPDATE Author SET Name = ?, PersonNumber = ? WHERE AuthorId = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, author.getName());
-            pstmt.setString(2, author.getPersonNumber());
-            pstmt.setInt(3, author.getAuthorId());
+        try (PooledConnection pooled = borrowConnection()) {
+            updateAuthorInDatabase(pooled, author);
+            bookCache.invalidateByAuthor(author.getAuthorId());
+            authorIndex.putAuthor(author.getAuthorId(), author.getName());
+        } catch (SQLException e) {
+            throw new BooksDbException("Error updating author: " + e.getMessage(), e);
+        }
+    }
+
+    private void updateAuthorInDatabase(PooledConnection pooled, Author author) throws BooksDbException {
+        boolean withNameKey = nameKeys;
+        String sql = withNameKey ? "UPDATE Author SET Name = ?, PersonNumber = ?, NameKey = ? WHERE AuthorId = ?"
+                : "UPDATE Author SET Name = ?, PersonNumber = ? WHERE AuthorId = ?";
+        try (PreparedStatement pstmt = pooled.prepareStatement(sql)) {
+            int index = 1;
+            pstmt.setString(index++, author.getName());
+            pstmt.setString(index++, author.getPersonNumber());
+            if (withNameKey) {
+                pstmt.setString(index++, AuthorIndex.nameKey(author.getName()));
+            }
+            pstmt.setInt(index, author.getAuthorId());
             int affectedRows = pstmt.executeUpdate();
             if (affectedRows == 0) {
                 throw new BooksDbException("No author was updated. Check the AuthorId: " + author.getAuthorId());
@@ -327,9 +1110,9 @@ public class BooksDpImpl implements BooksDbInterface {
         }
     }
 
-    private Author findAuthorByPersonNumber(String personNumber) throws SQLException {
+    private Author findAuthorByPersonNumber(PooledConnection pooled, String personNumber) throws SQLException {
         String query = "SELECT * FROM Author WHERE PersonNumber = ?";
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
+        try (PreparedStatement statement = pooled.prepareStatement(query)) {
             statement.setString(1, personNumber);
             ResultSet resultSet = statement.executeQuery();
             if (resultSet.next()) {
@@ -339,6 +1122,42 @@ public class BooksDpImpl implements BooksDbInterface {
         }
     }
 
+    /**
+     * @return the INSERT of an author, with its NameKey if the column exists, see bindNewAuthor
+     */
+    private String insertAuthorSql() {
+        return nameKeys ? "INSERT INTO Author (AuthorId, Name, PersonNumber, NameKey) VALUES (?, ?, ?, ?)"
+                : "INSERT INTO Author (AuthorId, Name, PersonNumber) VALUES (?, ?, ?)";
+    }
+
+    private void bindNewAuthor(PreparedStatement statement, int authorId, String name, String personNumber)
+            throws SQLException {
+        statement.setInt(1, authorId);
+        statement.setString(2, name);
+        statement.setString(3, personNumber);
+        if (nameKeys) {
+            statement.setString(4, AuthorIndex.nameKey(name));
+        }
+    }
+
+    /**
+     * @return the UPDATE of an author's name, with its NameKey if the column exists, see bindRenamedAuthor
+     */
+    private String renameAuthorSql() {
+        return nameKeys ? "UPDATE Author SET Name = ?, NameKey = ? WHERE AuthorId = ?"
+                : "UPDATE Author SET Name = ? WHERE AuthorId = ?";
+    }
+
+    private void bindRenamedAuthor(PreparedStatement statement, int authorId, String name) throws SQLException {
+        statement.setString(1, name);
+        if (nameKeys) {
+            statement.setString(2, AuthorIndex.nameKey(name));
+            statement.setInt(3, authorId);
+        } else {
+            statement.setInt(2, authorId);
+        }
+    }
+
 
 
     @Override
@@ -347,34 +1166,30 @@ public class BooksDpImpl implements BooksDbInterface {
         String deleteBookAuthorsSql = "DELETE FROM BookAuthor WHERE BookId = ?";
         String deleteBookSql = "DELETE FROM Book WHERE BookId = ?";
 
-        try {
+        // the pool rolls back uncommitted work and restores auto-commit when the connection is returned
+        try (PooledConnection pooled = borrowConnection()) {
+            Connection connection = pooled.getConnection();
             connection.setAutoCommit(false);
 
             // Delete associations from BookAuthor table
-            try (PreparedStatement deleteAuthorsStmt = connection.prepareStatement(deleteBookAuthorsSql)) {
+            try (PreparedStatement deleteAuthorsStmt = pooled.prepareStatement(deleteBookAuthorsSql)) {
                 deleteAuthorsStmt.setInt(1, book.getBookId());
                 deleteAuthorsStmt.executeUpdate();
             }
 
             // Delete the book from Book table
-            try (PreparedStatement deleteBookStmt = connection.prepareStatement(deleteBookSql)) {
+            try (PreparedStatement deleteBookStmt = pooled.prepareStatement(deleteBookSql)) {
                 deleteBookStmt.setInt(1, book.getBookId());
                 deleteBookStmt.executeUpdate();
             }
 
             connection.commit();
         } catch (SQLException e) {
-            if (connection != null) {
-                try {
-                    connection.rollback();
-                } catch (SQLException ex) {
-
-                }
-            }
             throw new BooksDbException("Error removing book: " + e.getMessage(), e);
         }
-        // Remove the book from the in-memory list
-        books.remove(book);
+        bookCache.invalidate(book.getBookId());
+        titleIndex.remove(book.getBookId());
+        authorIndex.removeBook(book.getBookId());
     }
 
 
@@ -384,156 +1199,677 @@ public class BooksDpImpl implements BooksDbInterface {
 
 
 
-    @Override
-    public List<Book> searchBooksByTitle(String searchTitle) throws BooksDbException {
-        List<Book> result = new ArrayList<>();
-        searchTitle = searchTitle.toLowerCase();
-        String query = "SELECT * FROM Book WHERE LOWER(title) LIKE ?";
+    /**
+     * Starts building the title index in the background. Title searches use SQL
+     * until the build has finished.
+     */
+    private void buildTitleIndex() {
+        if (!booleanProperty("db.titleIndex.enabled", true)) {
+            return;
+        }
+        int build = titleIndex.beginBuild();
+        Thread builder = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            try (PooledConnection pooled = borrowConnection();
+                 PreparedStatement statement = pooled.getConnection().prepareStatement(
+                         "SELECT BookId, title FROM Book ORDER BY BookId",
+                         ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(streamingFetchSize(pooled.getConnection()));
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        titleIndex.addFromBuild(build, resultSet.getInt("BookId"), resultSet.getString("title"));
+                    }
+                }
+                titleIndex.finishBuild(build);
+                System.out.println("Title index built: " + titleIndex.size() + " titles in "
+                        + (System.currentTimeMillis() - start) + " ms.");
+            } catch (SQLException | BooksDbException e) {
+                titleIndex.abandonBuild(build);
+                System.out.println("Could not build the title index, title searches use SQL: " + e.getMessage());
+            }
+        }, "title-index-builder");
+        builder.setDaemon(true);
+        builder.start();
+        titleIndexBuilder = builder;
+    }
 
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setString(1, "%" + searchTitle + "%");
-            ResultSet resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                int bookId = resultSet.getInt("BookId");
-                String isbn = resultSet.getString("isbn");
-                String title = resultSet.getString("title");
-                Date publishedDate = resultSet.getDate("publication_year");
-                Genre genre = Genre.valueOf(resultSet.getString("Genre"));
-                int rating = resultSet.getInt("Rating");
-
-                Book book = new Book(bookId, isbn, title, publishedDate); // Create book with BookId
-                book.setGenre(genre);
-                book.setRating(rating);
-                book.setAuthors(getAuthorsForBook(bookId)); // Fetch authors for each book using BookId
-                result.add(book);
+    /**
+     * Starts building the author index in the background from the Author and
+     * BookAuthor tables. Author searches use SQL until the build has finished.
+     */
+    private void buildAuthorIndex() {
+        if (!booleanProperty("db.authorIndex.enabled", true)) {
+            return;
+        }
+        int build = authorIndex.beginBuild();
+        Thread builder = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            try (PooledConnection pooled = borrowConnection()) {
+                Connection connection = pooled.getConnection();
+                int fetchSize = streamingFetchSize(connection);
+                try (PreparedStatement statement = connection.prepareStatement("SELECT AuthorId, Name FROM Author",
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    statement.setFetchSize(fetchSize);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            authorIndex.addAuthorFromBuild(build, resultSet.getInt("AuthorId"), resultSet.getString("Name"));
+                        }
+                    }
+                }
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "SELECT BookId, AuthorId FROM BookAuthor ORDER BY BookId",
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    statement.setFetchSize(fetchSize);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            authorIndex.addLinkFromBuild(build, resultSet.getInt("BookId"), resultSet.getInt("AuthorId"));
+                        }
+                    }
+                }
+                authorIndex.finishBuild(build);
+                System.out.println("Author index built: " + authorIndex.authorCount() + " authors in "
+                        + (System.currentTimeMillis() - start) + " ms.");
+            } catch (SQLException | BooksDbException e) {
+                authorIndex.abandonBuild(build);
+                System.out.println("Could not build the author index, author searches use SQL: " + e.getMessage());
+            }
+        }, "author-index-builder");
+        builder.setDaemon(true);
+        builder.start();
+        authorIndexBuilder = builder;
+    }
+
+    /**
+     * Waits for the search indexes started by connect() to be built, e.g. before
+     * measuring search times.
+     *
+     * @return true if the builds have finished, false if the timeout expired first
+     */
+    public boolean awaitSearchIndexes(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Thread builder : new Thread[]{titleIndexBuilder, authorIndexBuilder}) {
+            if (builder != null) {
+                builder.join(Math.max(1, deadline - System.currentTimeMillis()));
+                if (builder.isAlive()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean booleanProperty(String key, boolean defaultValue) {
+        return DbProperties.booleanProperty(properties, key, defaultValue);
+    }
+
+    /**
+     * Returns the books with the given ids in the same order, leaving out ids
+     * that no longer exist. Cached books are used as they are and the others
+     * are read with one IN query per 1000 ids.
+     */
+    private List<Book> getBooksByIds(int[] bookIds) throws BooksDbException {
+        Map<Integer, Book> found = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (int bookId : bookIds) {
+            Book cached = bookCache.getById(bookId);
+            if (cached != null) {
+                found.put(bookId, cached);
+            } else {
+                missing.add(bookId);
             }
-        } catch (SQLException e) {
-            throw new BooksDbException("Error searching books by title: " + e.getMessage());
         }
 
+        if (!missing.isEmpty()) {
+            int maxParameters = 1000;
+            try (PooledConnection pooled = borrowConnection()) {
+                for (int start = 0; start < missing.size(); start += maxParameters) {
+                    List<Integer> part = missing.subList(start, Math.min(start + maxParameters, missing.size()));
+                    String placeholders = String.join(", ", Collections.nCopies(part.size(), "?"));
+                    String query = SELECT_BOOKS_WITH_AUTHORS + "WHERE b.BookId IN (" + placeholders + ") ORDER BY b.BookId";
+                    // not cached, the SQL varies with the number of ids
+                    try (PreparedStatement statement = pooled.getConnection().prepareStatement(query)) {
+                        for (int i = 0; i < part.size(); i++) {
+                            statement.setInt(i + 1, part.get(i));
+                        }
+                        for (Book book : readBooksWithAuthors(statement)) {
+                            found.put(book.getBookId(), book);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                throw new BooksDbException("Error reading books by id: " + e.getMessage(), e);
+            }
+        }
+
+        return inOrder(bookIds, found);
+    }
+
+    /**
+     * @return the books found in the order of the ids, leaving out the ids not found
+     */
+    private static List<Book> inOrder(int[] bookIds, Map<Integer, Book> found) {
+        List<Book> result = new ArrayList<>();
+        for (int bookId : bookIds) {
+            Book book = found.get(bookId);
+            if (book != null) {
+                result.add(book);
+            }
+        }
         return result;
     }
 
+    /**
+     * Reads the books an index search found. Up to db.index.maxIdLookup books
+     * are read by id, from the cache or with IN queries; for a broader search,
+     * e.g. a short title query on a cold cache, one IN query per 1000 books
+     * would cost more than reading the matches with the search's own query
+     * once, so that query is run instead and its books are put in the order
+     * of the ids.
+     */
+    private List<Book> readIndexMatches(int[] bookIds, SearchMode mode, String searchFor) throws BooksDbException {
+        if (bookIds.length <= maxIdLookup) {
+            return getBooksByIds(bookIds);
+        }
+        Map<Integer, Book> found = new HashMap<>();
+        for (Book book : searchInDatabase(mode, searchFor)) {
+            found.put(book.getBookId(), book);
+        }
+        return inOrder(bookIds, found);
+    }
+
+
+    @Override
+    public List<Book> searchBooksByTitle(String searchTitle) throws BooksDbException {
+        if (titleIndex.isWarm()) {
+            // best matches first, see TitleIndex.search
+            return readIndexMatches(titleIndex.search(searchTitle), SearchMode.Title, searchTitle);
+        }
+        return searchInDatabase(SearchMode.Title, searchTitle);
+    }
+
 
 
     @Override
     public List<Book> searchBooksByAuthor(String authorName) throws BooksDbException {
-        List<Book> result = new ArrayList<>();
-        String query = "SELECT b.BookId, b.isbn, b.title, b.publication_year, b.Genre, b.Rating FROM Book b " +
-                "JOIN BookAuthor ba ON b.BookId = ba.BookId " +
-                "JOIN Author a ON ba.AuthorId = a.AuthorId " +
-                "WHERE LOWER(a.Name) LIKE ?";
+        if (authorIndex.isWarm()) {
+            // matches every word of the query against the start of a word in the name, see AuthorIndex
+            return readIndexMatches(authorIndex.search(authorName), SearchMode.Author, authorName);
+        }
+        return searchInDatabase(SearchMode.Author, authorName);
+    }
 
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setString(1, "%" + authorName.toLowerCase() + "%");
-            ResultSet resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                int bookId = resultSet.getInt("BookId");
-                String isbn = resultSet.getString("isbn");
-                String title = resultSet.getString("title");
-                Date publishedDate = resultSet.getDate("publication_year");
-                Genre genre = Genre.valueOf(resultSet.getString("Genre"));
-                int rating = resultSet.getInt("Rating");
-
-                Book book = new Book(bookId, isbn, title, publishedDate);
-                book.setGenre(genre);
-                book.setRating(rating);
-                book.setAuthors(getAuthorsForBook(bookId)); // Adjust this method to work with bookId
-                result.add(book);
-            }
+    /**
+     * Searches by title or author without the indexes, in BookId order. The
+     * author filter is a subquery so the outer join still returns every co-author.
+     */
+    private List<Book> searchInDatabase(SearchMode mode, String searchFor) throws BooksDbException {
+        String query = SELECT_BOOKS_WITH_AUTHORS + "WHERE " + searchCondition(mode, searchFor, "b") + " ORDER BY b.BookId";
+
+        try (PooledConnection pooled = borrowConnection();
+             PreparedStatement statement = pooled.prepareStatement(query)) {
+            bindSearchValue(statement, 1, mode, searchFor);
+            return readBooksWithAuthors(statement);
         } catch (SQLException e) {
-            throw new BooksDbException("Error searching books by author: " + e.getMessage());
+            throw new BooksDbException("Error searching books by " + mode.toString().toLowerCase() + ": " + e.getMessage(), e);
         }
-
-        return result;
     }
 
 
 
     @Override
     public List<Book> searchBookByISBN(String isbn) throws BooksDbException {
-        List<Book> result = new ArrayList<>();
-        String query = "SELECT * FROM Book WHERE isbn = ?";
+        Book cached = bookCache.getByIsbn(isbn);
+        if (cached != null) {
+            List<Book> result = new ArrayList<>();
+            result.add(cached);
+            return result;
+        }
+        String query = SELECT_BOOKS_WITH_AUTHORS + "WHERE b.isbn = ? ORDER BY b.BookId";
 
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
+        try (PooledConnection pooled = borrowConnection();
+             PreparedStatement statement = pooled.prepareStatement(query)) {
             statement.setString(1, isbn);
-            ResultSet resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                int bookId = resultSet.getInt("BookId"); // Retrieve BookId
-                String title = resultSet.getString("title");
-                Date publishedDate = resultSet.getDate("publication_year");
-                Genre genre = Genre.valueOf(resultSet.getString("Genre"));
-                int rating = resultSet.getInt("Rating");
-
-                Book book = new Book(bookId, isbn, title, publishedDate);
-                book.setGenre(genre);
-                book.setRating(rating);
-                book.setAuthors(getAuthorsForBook(bookId)); // Use BookId to fetch authors
-                result.add(book);
-            }
+            return readBooksWithAuthors(statement);
         } catch (SQLException e) {
-            throw new BooksDbException("Error searching book by ISBN: " + e.getMessage());
+            throw new BooksDbException("Error searching book by ISBN: " + e.getMessage(), e);
         }
-
-        return result;
     }
 
     @Override
     public List<Book> searchBooksByGenre(Genre genre) throws BooksDbException {
-        List<Book> result = new ArrayList<>();
-        String query = "SELECT * FROM Book WHERE Genre = ?";
+        String query = SELECT_BOOKS_WITH_AUTHORS + "WHERE b.Genre = ? ORDER BY b.BookId";
 
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
+        try (PooledConnection pooled = borrowConnection();
+             PreparedStatement statement = pooled.prepareStatement(query)) {
             statement.setString(1, genre.toString());
-            ResultSet resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                int bookId = resultSet.getInt("BookId");
-                String isbn = resultSet.getString("isbn");
-                String title = resultSet.getString("title");
-                Date publishedDate = resultSet.getDate("publication_year");
-                int rating = resultSet.getInt("Rating");
-
-                Book book = new Book(bookId, isbn, title, publishedDate);
-                book.setGenre(genre);
-                book.setRating(rating);
-                book.setAuthors(getAuthorsForBook(bookId)); // Use BookId to fetch authors
-                result.add(book);
+            return readBooksWithAuthors(statement);
+        } catch (SQLException e) {
+            throw new BooksDbException("Error searching books by genre: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<Book> searchBooksByRating(int rating) throws BooksDbException {
+        String query = SELECT_BOOKS_WITH_AUTHORS + "WHERE b.Rating = ? ORDER BY b.BookId";
+
+        try (PooledConnection pooled = borrowConnection();
+             PreparedStatement statement = pooled.prepareStatement(query)) {
+            statement.setInt(1, rating);
+            return readBooksWithAuthors(statement);
+        } catch (SQLException e) {
+            throw new BooksDbException("Error searching books by rating: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Compiles the spec into one query with the same shape as readPage: the
+     * criteria, order, offset and limit are applied to Book alone in a derived table,
+     * and only the books found are joined with their authors. Genre IN (...)
+     * with a rating range can use ix_book_genre_rating, and TITLE order
+     * ix_book_title_id, which also lets the book the spec starts after be
+     * sought like the last key of a page in readPage.
+     */
+    @Override
+    public List<Book> searchBooks(BookSearchSpec spec) throws BooksDbException {
+        List<Object> parameters = new ArrayList<>();
+        String where = specCondition(spec, parameters);
+        if (spec.getAfterBookId() != null) {
+            String after = spec.isDescending() ? "<" : ">";
+            where += (where.isEmpty() ? "WHERE " : "AND ") + (spec.getSortOrder() == BookSortOrder.TITLE
+                    ? "(bk.title " + after + " ? OR (bk.title = ? AND bk.BookId " + after + " ?)) "
+                    : "bk.BookId " + after + " ? ");
+            if (spec.getSortOrder() == BookSortOrder.TITLE) {
+                parameters.add(spec.getAfterTitle());
+                parameters.add(spec.getAfterTitle());
+            }
+            parameters.add(spec.getAfterBookId());
+        }
+        String limit = "";
+        if (spec.getLimit() > 0) {
+            limit = spec.getOffset() > 0 ? " LIMIT ? OFFSET ?" : " LIMIT ?";
+            parameters.add(spec.getLimit());
+            if (spec.getOffset() > 0) {
+                parameters.add(spec.getOffset());
+            }
+        }
+
+        String orderBy = spec.getSortOrder() == BookSortOrder.TITLE ? "%1$s.title, %1$s.BookId" : "%1$s.BookId";
+        if (spec.isDescending()) {
+            orderBy = spec.getSortOrder() == BookSortOrder.TITLE ? "%1$s.title DESC, %1$s.BookId DESC" : "%1$s.BookId DESC";
+        }
+        String query = "SELECT b.BookId, b.isbn, b.title, b.publication_year, b.Genre, b.Rating, " +
+                "a.AuthorId, a.Name, a.PersonNumber FROM " +
+                "(SELECT bk.BookId, bk.isbn, bk.title, bk.publication_year, bk.Genre, bk.Rating FROM Book bk " +
+                where + "ORDER BY " + String.format(orderBy, "bk") + limit + ") b " +
+                AUTHOR_JOIN + "ORDER BY " + String.format(orderBy, "b");
+
+        try (PooledConnection pooled = borrowConnection();
+             // not cached, the SQL varies with the criteria given
+             PreparedStatement statement = pooled.getConnection().prepareStatement(query)) {
+            bindSpecParameters(statement, parameters);
+            return readBooksWithAuthors(statement);
+        } catch (SQLException e) {
+            throw new BooksDbException("Error searching books: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int countBooks(BookSearchSpec spec) throws BooksDbException {
+        List<Object> parameters = new ArrayList<>();
+        String query = "SELECT COUNT(*) FROM Book bk " + specCondition(spec, parameters);
+
+        try (PooledConnection pooled = borrowConnection();
+             // not cached, the SQL varies with the criteria given
+             PreparedStatement statement = pooled.getConnection().prepareStatement(query)) {
+            bindSpecParameters(statement, parameters);
+            try (ResultSet resultSet = CancellationToken.executeCurrent(statement)) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        } catch (SQLException e) {
+            throw new BooksDbException("Error counting books: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Counts the matching books per genre, rating and year with one grouped
+     * query. The groups are the combinations of the three, at most a few
+     * thousand rows even for a large catalog, and are added up into the three
+     * facets here, so the books are read once instead of once per facet.
+     */
+    @Override
+    public BookFacets getFacets(BookSearchSpec spec) throws BooksDbException {
+        List<Object> parameters = new ArrayList<>();
+        String query = "SELECT bk.Genre, bk.Rating, YEAR(bk.publication_year) AS published, COUNT(*) FROM Book bk " +
+                specCondition(spec, parameters) + "GROUP BY bk.Genre, bk.Rating, YEAR(bk.publication_year)";
+
+        try (PooledConnection pooled = borrowConnection();
+             PreparedStatement statement = pooled.getConnection().prepareStatement(query)) {
+            bindSpecParameters(statement, parameters);
+            int total = 0;
+            Map<Genre, Integer> genreCounts = new EnumMap<>(Genre.class);
+            Map<Integer, Integer> ratingCounts = new HashMap<>();
+            Map<Integer, Integer> yearCounts = new HashMap<>();
+            try (ResultSet resultSet = CancellationToken.executeCurrent(statement)) {
+                while (resultSet.next()) {
+                    int count = resultSet.getInt(4);
+                    total += count;
+                    genreCounts.merge(Genre.valueOf(resultSet.getString(1)), count, Integer::sum);
+                    ratingCounts.merge(resultSet.getInt(2), count, Integer::sum);
+                    int year = resultSet.getInt(3);
+                    if (!resultSet.wasNull()) {
+                        yearCounts.merge(year, count, Integer::sum);
+                    }
+                }
             }
+            return new BookFacets(total, genreCounts, ratingCounts, yearCounts);
         } catch (SQLException e) {
-            throw new BooksDbException("Error searching books by genre: " + e.getMessage());
+            throw new BooksDbException("Error counting books: " + e.getMessage(), e);
         }
+    }
 
+    /**
+     * @return the WHERE clause on the Book alias bk for the criteria of the spec,
+     * or an empty string, adding the values to bind to parameters
+     */
+    private String specCondition(BookSearchSpec spec, List<Object> parameters) {
+        List<String> conditions = new ArrayList<>();
+        if (spec.getTitleContains() != null) {
+            conditions.add(searchCondition(SearchMode.Title, spec.getTitleContains(), "bk"));
+            parameters.add(containsPattern(spec.getTitleContains()));
+        }
+        if (spec.getAuthorContains() != null) {
+            conditions.add(searchCondition(SearchMode.Author, spec.getAuthorContains(), "bk"));
+            parameters.addAll(authorNamePatterns(spec.getAuthorContains()));
+        }
+        if (!spec.getGenres().isEmpty()) {
+            conditions.add("bk.Genre IN (" + String.join(", ", Collections.nCopies(spec.getGenres().size(), "?")) + ")");
+            for (Genre genre : spec.getGenres()) {
+                parameters.add(genre.toString());
+            }
+        }
+        if (spec.getMinRating() != null) {
+            conditions.add("bk.Rating >= ?");
+            parameters.add(spec.getMinRating());
+        }
+        if (spec.getMaxRating() != null) {
+            conditions.add("bk.Rating <= ?");
+            parameters.add(spec.getMaxRating());
+        }
+        if (spec.getPublishedFrom() != null) {
+            conditions.add("bk.publication_year >= ?");
+            parameters.add(Date.valueOf(spec.getPublishedFrom()));
+        }
+        if (spec.getPublishedTo() != null) {
+            conditions.add("bk.publication_year <= ?");
+            parameters.add(Date.valueOf(spec.getPublishedTo()));
+        }
+        return conditions.isEmpty() ? "" : "WHERE " + String.join(" AND ", conditions) + " ";
+    }
 
+    private static void bindSpecParameters(PreparedStatement statement, List<Object> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            Object parameter = parameters.get(i);
+            if (parameter instanceof Integer number) {
+                statement.setInt(i + 1, number);
+            } else if (parameter instanceof Date date) {
+                statement.setDate(i + 1, date);
+            } else {
+                statement.setString(i + 1, (String) parameter);
+            }
+        }
+    }
 
-        return result;
+    @Override
+    public BookPage getBooksPage(String afterKey, int limit, BookSortOrder sortOrder) throws BooksDbException {
+        return readPage(null, null, afterKey, limit, sortOrder);
     }
 
     @Override
-    public List<Book> searchBooksByRating(int rating) throws BooksDbException {
-        List<Book> result = new ArrayList<>();
-        String query = "SELECT * FROM Book WHERE Rating = ?";
+    public BookPage searchBooksPage(SearchMode mode, String searchFor, String afterKey, int limit,
+                                    BookSortOrder sortOrder) throws BooksDbException {
+        return readPage(mode, searchFor, afterKey, limit, sortOrder);
+    }
 
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setInt(1, rating);
-            ResultSet resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                int bookId = resultSet.getInt("BookId");
-                String isbn = resultSet.getString("isbn");
-                String title = resultSet.getString("title");
-                Date publishedDate = resultSet.getDate("publication_year");
-                Genre genre = Genre.valueOf(resultSet.getString("Genre"));
-
-                Book book = new Book(bookId, isbn, title, publishedDate);
-                book.setGenre(genre);
-                book.setRating(rating);
-                book.setAuthors(getAuthorsForBook(bookId)); // Use BookId to fetch authors
-                result.add(book);
+    /**
+     * Reads one page with keyset pagination: the books are limited in a derived
+     * table that seeks past the last key of the previous page, and only those
+     * books are joined with their authors. One extra book is fetched to tell
+     * whether there is a next page.
+     */
+    private BookPage readPage(SearchMode mode, String searchFor, String afterKey, int limit,
+                              BookSortOrder sortOrder) throws BooksDbException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page limit must be positive: " + limit);
+        }
+        PageToken after = PageToken.decode(afterKey, sortOrder);
+        String orderBy = sortOrder == BookSortOrder.TITLE ? "%1$s.title, %1$s.BookId" : "%1$s.BookId";
+
+        StringBuilder where = new StringBuilder();
+        if (mode != null) {
+            where.append(searchCondition(mode, searchFor, "bk"));
+        }
+        if (after != null) {
+            where.append(where.length() == 0 ? "" : " AND ");
+            where.append(sortOrder == BookSortOrder.TITLE
+                    ? "(bk.title > ? OR (bk.title = ? AND bk.BookId > ?))"
+                    : "bk.BookId > ?");
+        }
+        String query = "SELECT b.BookId, b.isbn, b.title, b.publication_year, b.Genre, b.Rating, " +
+                "a.AuthorId, a.Name, a.PersonNumber FROM " +
+                "(SELECT bk.BookId, bk.isbn, bk.title, bk.publication_year, bk.Genre, bk.Rating FROM Book bk " +
+                (where.length() == 0 ? "" : "WHERE " + where + " ") +
+                "ORDER BY " + String.format(orderBy, "bk") + " LIMIT ?) b " +
+                AUTHOR_JOIN + "ORDER BY " + String.format(orderBy, "b");
+
+        try (PooledConnection pooled = borrowConnection();
+             PreparedStatement statement = pooled.prepareStatement(query)) {
+            int index = 1;
+            if (mode != null) {
+                index = bindSearchValue(statement, index, mode, searchFor);
+            }
+            if (after != null) {
+                if (sortOrder == BookSortOrder.TITLE) {
+                    statement.setString(index++, after.getTitle());
+                    statement.setString(index++, after.getTitle());
+                }
+                statement.setInt(index++, after.getBookId());
             }
+            statement.setInt(index, limit + 1);
+
+            List<Book> result = readBooksWithAuthors(statement);
+            if (result.size() <= limit) {
+                return new BookPage(result, null);
+            }
+            List<Book> page = new ArrayList<>(result.subList(0, limit));
+            return new BookPage(page, PageToken.after(page.get(limit - 1), sortOrder).encode());
         } catch (SQLException e) {
-            throw new BooksDbException("Error searching books by rating: " + e.getMessage());
+            throw new BooksDbException("Error reading a page of books: " + e.getMessage(), e);
         }
+    }
 
-        return result;
+    /**
+     * @return the WHERE condition on the Book alias that matches books for a search mode,
+     * with the parameters to bind with bindSearchValue
+     */
+    private String searchCondition(SearchMode mode, String searchFor, String alias) {
+        switch (mode) {
+            case Title:
+                return "LOWER(" + alias + ".title) LIKE ? ESCAPE '!'";
+            case ISBN:
+                return alias + ".isbn = ?";
+            case Author:
+                return alias + ".BookId IN (SELECT fba.BookId FROM BookAuthor fba " +
+                        "JOIN Author fa ON fba.AuthorId = fa.AuthorId WHERE " + authorNameCondition(searchFor) + ")";
+            case GENRE:
+                return alias + ".Genre = ?";
+            case RATING:
+                return alias + ".Rating = ?";
+            default:
+                throw new IllegalArgumentException("Unknown search mode: " + mode);
+        }
+    }
+
+    /**
+     * @return the condition on the Author alias fa that matches names like
+     * AuthorIndex.search: every word of the query starts a word of the name,
+     * ignoring case and diacritics, with one parameter per word, see authorNamePatterns.
+     * Without Author.NameKey, the name contains the query, ignoring case.
+     */
+    private String authorNameCondition(String authorName) {
+        if (!nameKeys) {
+            return "LOWER(fa.Name) LIKE ? ESCAPE '!'";
+        }
+        int words = AuthorIndex.tokenize(authorName).length;
+        return words == 0 ? "1 = 0" : String.join(" AND ", Collections.nCopies(words, "fa.NameKey LIKE ?"));
+    }
+
+    private List<String> authorNamePatterns(String authorName) {
+        List<String> patterns = new ArrayList<>();
+        if (!nameKeys) {
+            patterns.add(containsPattern(authorName));
+            return patterns;
+        }
+        for (String token : AuthorIndex.tokenize(authorName)) {
+            patterns.add("% " + token + "%");
+        }
+        return patterns;
+    }
+
+    /**
+     * @return the pattern, for a LIKE ... ESCAPE '!' condition on a lower-cased column,
+     * that matches values containing text like TitleIndex does: lower-cased with
+     * Locale.ROOT and with % and _ taken literally. The escape character is '!'
+     * rather than a backslash because MySQL and H2 disagree on how to quote one.
+     */
+    private static String containsPattern(String text) {
+        String escaped = TitleIndex.normalize(text).replace("!", "!!").replace("%", "!%").replace("_", "!_");
+        return "%" + escaped + "%";
+    }
+
+    private int bindSearchValue(PreparedStatement statement, int index, SearchMode mode, String searchFor)
+            throws SQLException, BooksDbException {
+        switch (mode) {
+            case Title:
+                statement.setString(index, containsPattern(searchFor));
+                break;
+            case Author:
+                for (String pattern : authorNamePatterns(searchFor)) {
+                    statement.setString(index++, pattern);
+                }
+                return index;
+            case ISBN:
+                statement.setString(index, searchFor);
+                break;
+            case GENRE:
+                try {
+                    statement.setString(index, Genre.valueOf(searchFor.trim().toUpperCase(Locale.ROOT)).toString());
+                } catch (IllegalArgumentException e) {
+                    throw new BooksDbException("Unknown genre: " + searchFor, e);
+                }
+                break;
+            case RATING:
+                try {
+                    statement.setInt(index, Integer.parseInt(searchFor.trim()));
+                } catch (NumberFormatException e) {
+                    throw new BooksDbException("Invalid rating: " + searchFor, e);
+                }
+                break;
+        }
+        return index + 1;
+    }
+
+    @Override
+    public Stream<Book> streamAllBooks() throws BooksDbException {
+        return streamBooksWithAuthors(SELECT_BOOKS_WITH_AUTHORS + "ORDER BY b.BookId", null, null);
+    }
+
+    @Override
+    public Stream<Book> streamBooks(SearchMode mode, String searchFor) throws BooksDbException {
+        String query = SELECT_BOOKS_WITH_AUTHORS + "WHERE " + searchCondition(mode, searchFor, "b") + " ORDER BY b.BookId";
+        return streamBooksWithAuthors(query, mode, searchFor);
+    }
+
+    /**
+     * Runs the query on a forward-only, read-only result set that the driver
+     * streams from the server, and returns a lazy stream that assembles one
+     * book at a time. The connection stays borrowed until the stream is closed.
+     */
+    private Stream<Book> streamBooksWithAuthors(String query, SearchMode mode, String searchFor) throws BooksDbException {
+        PooledConnection pooled = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            pooled = borrowConnection();
+            Connection connection = pooled.getConnection();
+            // not cached: the fetch size and result set type are specific to streaming
+            statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(streamingFetchSize(connection));
+            if (mode != null) {
+                bindSearchValue(statement, 1, mode, searchFor);
+            }
+            resultSet = CancellationToken.executeCurrent(statement);
+        } catch (SQLException | BooksDbException e) {
+            closeStreamResources(resultSet, statement, pooled);
+            if (e instanceof BooksDbException) {
+                throw (BooksDbException) e;
+            }
+            throw new BooksDbException("Error streaming books: " + e.getMessage(), (SQLException) e);
+        }
+
+        BookRowReader reader = new BookRowReader(resultSet, false);
+        Spliterator<Book> books = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Book> action) {
+                try {
+                    Book book = reader.next();
+                    if (book == null) {
+                        return false;
+                    }
+                    action.accept(book);
+                    return true;
+                } catch (SQLException e) {
+                    throw new UncheckedBooksDbException(
+                            new BooksDbException("Error streaming books: " + e.getMessage(), e));
+                }
+            }
+        };
+        ResultSet openResultSet = resultSet;
+        PreparedStatement openStatement = statement;
+        PooledConnection borrowed = pooled;
+        return StreamSupport.stream(books, false)
+                .onClose(() -> closeStreamResources(openResultSet, openStatement, borrowed));
+    }
+
+    /**
+     * MySQL Connector/J only streams rows one by one with a fetch size of
+     * Integer.MIN_VALUE (or with useCursorFetch=true in the URL, in batches of a
+     * positive fetch size). Other drivers take the fetch size as a hint.
+     */
+    private int streamingFetchSize(Connection connection) throws SQLException {
+        boolean mySql = connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT).contains("mysql");
+        boolean cursorFetch = connection.getMetaData().getURL().contains("useCursorFetch=true");
+        if (mySql && !cursorFetch) {
+            return Integer.MIN_VALUE;
+        }
+        return intProperty("db.stream.fetchSize", 500);
+    }
+
+    private static void closeStreamResources(ResultSet resultSet, Statement statement, PooledConnection pooled) {
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            // the connection is released below either way
+        }
+        if (pooled != null) {
+            pooled.close();
+        }
     }
 
 
@@ -0,0 +1,116 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Lets a caller cancel the database queries of a call, e.g. a search that
+ * has been replaced by a newer one, and limits how long each query may run.
+ * The token is bound to the thread making the call with AsyncBooksDb.submit;
+ * BooksDpImpl then runs its queries through it, so that cancel() stops the
+ * running query with Statement.cancel() and makes later queries fail at once.
+ */
+public class CancellationToken {
+    private static final ThreadLocal<CancellationToken> CURRENT = new ThreadLocal<>();
+
+    private final int timeoutSeconds;
+    private Statement running;
+    private boolean cancelled;
+
+    /**
+     * @param timeoutSeconds the query timeout for each query, 0 for none
+     */
+    public CancellationToken(int timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * Cancels the query running now, if any, and all later queries.
+     */
+    public void cancel() {
+        Statement statement;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            statement = running;
+        }
+        if (statement != null) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                System.out.println("Could not cancel the query: " + e.getMessage());
+            }
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the token bound to the current thread, or null
+     */
+    static CancellationToken current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs the call with this token bound to the current thread.
+     */
+    <T> T runWith(AsyncBooksDb.DbCall<T> call) throws BooksDbException {
+        CancellationToken outer = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            throwIfCancelled();
+            return call.call();
+        } finally {
+            if (outer == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(outer);
+            }
+        }
+    }
+
+    /**
+     * Executes the query with the timeout, cancelling it if cancel() is called meanwhile.
+     */
+    ResultSet executeQuery(PreparedStatement statement) throws SQLException {
+        synchronized (this) {
+            if (cancelled) {
+                throw new SQLException("The query was cancelled.");
+            }
+            running = statement;
+        }
+        try {
+            statement.setQueryTimeout(timeoutSeconds);
+            try {
+                return statement.executeQuery();
+            } finally {
+                statement.setQueryTimeout(0); // the statement may be cached and reused by other calls
+            }
+        } finally {
+            synchronized (this) {
+                running = null;
+            }
+        }
+    }
+
+    /**
+     * Executes the query through the token bound to the current thread, if any.
+     */
+    static ResultSet executeCurrent(PreparedStatement statement) throws SQLException {
+        CancellationToken token = CURRENT.get();
+        return token == null ? statement.executeQuery() : token.executeQuery(statement);
+    }
+
+    private void throwIfCancelled() throws BooksDbException {
+        if (isCancelled()) {
+            throw new BooksDbException("The query was cancelled.");
+        }
+    }
+}
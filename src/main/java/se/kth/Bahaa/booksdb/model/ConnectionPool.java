@@ -0,0 +1,313 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of JDBC connections to one database.
+ * Connections are borrowed for the duration of one operation and handed back
+ * by closing the returned PooledConnection. Idle connections are validated on
+ * borrow, and connections idle for longer than the idle timeout are closed as
+ * long as the pool stays at or above its minimum size. Each connection keeps
+ * its own cache of prepared statements, see PooledConnection.prepareStatement.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long waitTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition connectionReleased = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private int totalConnections; // idle + borrowed + being opened
+    private boolean closed;
+    private ScheduledExecutorService evictor;
+    private volatile SlowQueryLog slowQueryLog;
+
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                          long idleTimeoutMillis, long waitTimeoutMillis, int validationTimeoutSeconds,
+                          int statementCacheSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size, min: " + minSize + ", max: " + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.waitTimeoutMillis = waitTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Reports the statements run on this pool's connections to the log, which
+     * is closed with the pool. Set it before start(), connections opened
+     * earlier are not logged.
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Opens the minimum number of connections (at least one, so that bad
+     * credentials are reported right away) and starts the idle evictor.
+     */
+    public void start() throws SQLException {
+        int initial = Math.max(1, minSize);
+        for (int i = 0; i < initial; i++) {
+            PooledConnection pooled = newPooledConnection();
+            lock.lock();
+            try {
+                totalConnections++;
+                idle.push(pooled);
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (idleTimeoutMillis > 0) {
+            evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "connection-pool-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1000, idleTimeoutMillis / 2);
+            evictor.scheduleWithFixedDelay(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Borrows a connection, waiting at most the configured wait timeout for
+     * one to become available. Close the returned object to give it back.
+     */
+    public PooledConnection borrow() throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitTimeoutMillis);
+        while (true) {
+            PooledConnection candidate = null;
+            boolean mayOpen = false;
+            lock.lock();
+            try {
+                while (true) {
+                    if (closed) {
+                        throw new SQLException("The connection pool is closed");
+                    }
+                    if (!idle.isEmpty()) {
+                        candidate = idle.pop();
+                        break;
+                    }
+                    if (totalConnections < maxSize) {
+                        totalConnections++; // reserve the slot before opening outside the lock
+                        mayOpen = true;
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new SQLException("Timed out after " + waitTimeoutMillis
+                                + " ms waiting for a database connection (pool size " + maxSize + ")");
+                    }
+                    connectionReleased.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection", e);
+            } finally {
+                lock.unlock();
+            }
+
+            if (mayOpen) {
+                try {
+                    PooledConnection pooled = newPooledConnection();
+                    pooled.markBorrowed();
+                    return pooled;
+                } catch (SQLException e) {
+                    discardSlot();
+                    throw e;
+                }
+            }
+            if (isUsable(candidate)) {
+                candidate.markBorrowed();
+                return candidate;
+            }
+            destroy(candidate); // stale connection, try the next one
+        }
+    }
+
+    /**
+     * Called by PooledConnection.close(). Resets the connection and puts it
+     * back in the pool, or closes it if it is broken or the pool is closed.
+     */
+    void release(PooledConnection pooled) {
+        Connection connection = pooled.getConnection();
+        try {
+            if (connection.isClosed()) {
+                destroy(pooled);
+                return;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback(); // never hand uncommitted work to the next borrower
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            destroy(pooled);
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (!closed) {
+                pooled.markIdle();
+                idle.push(pooled);
+                connectionReleased.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        destroy(pooled);
+    }
+
+    public int getTotalConnections() {
+        lock.lock();
+        try {
+            return totalConnections;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIdleConnections() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many statements were served from the statement caches of all connections
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits.sum();
+    }
+
+    /**
+     * @return how many statements had to be prepared because they were not in the cache
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.sum();
+    }
+
+    /**
+     * Closes all idle connections. Borrowed connections are closed when they are released.
+     */
+    @Override
+    public void close() {
+        Deque<PooledConnection> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayDeque<>(idle);
+            idle.clear();
+            connectionReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        if (slowQueryLog != null) {
+            slowQueryLog.close();
+        }
+        toClose.forEach(this::destroy);
+    }
+
+    private void evictIdleConnections() {
+        Deque<PooledConnection> expired = new ArrayDeque<>();
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            // the oldest idle connections are at the tail since released connections are pushed to the head
+            Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+            while (oldestFirst.hasNext() && totalConnections - expired.size() > minSize) {
+                PooledConnection pooled = oldestFirst.next();
+                if (now - pooled.getIdleSince() < idleTimeoutMillis) {
+                    break;
+                }
+                oldestFirst.remove();
+                expired.add(pooled);
+            }
+        } finally {
+            lock.unlock();
+        }
+        expired.forEach(this::destroy);
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        try {
+            return pooled.getConnection().isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a connection to the same database that is not part of the pool,
+     * for work that must not wait for a pooled connection, see IdAllocator.
+     * The caller closes it.
+     */
+    Connection openUnpooledConnection() throws SQLException {
+        return StatementTracer.wrap(DriverManager.getConnection(url, user, password), slowQueryLog);
+    }
+
+    private PooledConnection newPooledConnection() throws SQLException {
+        // traced so InstrumentedBooksDb can count the round trips of each call, and slow statements are logged
+        Connection connection = StatementTracer.wrap(DriverManager.getConnection(url, user, password), slowQueryLog);
+        StatementCache cache = new StatementCache(connection, statementCacheSize,
+                statementCacheHits, statementCacheMisses);
+        return new PooledConnection(this, connection, cache);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        pooled.getStatementCache().closeAll();
+        try {
+            pooled.getConnection().close();
+        } catch (SQLException e) {
+            // nothing more we can do with a broken connection
+        }
+        discardSlot();
+    }
+
+    private void discardSlot() {
+        lock.lock();
+        try {
+            totalConnections--;
+            connectionReleased.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.util.Properties;
+
+/**
+ * Reads the db.* settings of the application configuration the same way
+ * everywhere: values are trimmed, a missing or blank value gives the
+ * default, and so does an invalid number, with a message saying so instead
+ * of a NumberFormatException at startup.
+ */
+public final class DbProperties {
+
+    private DbProperties() {
+    }
+
+    public static int intProperty(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean booleanProperty(Properties properties, String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
@@ -0,0 +1,174 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out primary keys for Book and Author rows using a hi-lo scheme.
+ * A block of ids is reserved in the IdSequence table with one short
+ * transaction, and the ids in the block are then handed out from memory.
+ * The row lock taken on IdSequence makes reservations safe between several
+ * processes writing to the same database. Ids left in a block when the
+ * application exits are never used, so there may be gaps. The IdSequence
+ * table is created by SchemaMigrator.
+ *
+ * The callers ask for ids while they hold a pooled connection in a
+ * transaction of their own, so the blocks are reserved on a connection
+ * outside the pool: taking a second pooled connection could wait forever
+ * once every pooled connection is held by a writer waiting for an id. The
+ * allocator is guarded by a ReentrantLock rather than synchronized, so a
+ * virtual thread reserving a block does not pin its carrier thread.
+ */
+public class IdAllocator implements AutoCloseable {
+    public static final String BOOK = "Book";
+    public static final String AUTHOR = "Author";
+
+    private final ConnectionPool pool;
+    private final int blockSize;
+    private final Map<String, Block> blocks = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private Connection connection; // for the reservations, opened when first needed
+
+    private static class Block {
+        int next;
+        int end; // exclusive
+    }
+
+    /**
+     * @param pool the pool of the database, used to open the allocator's own connection
+     */
+    public IdAllocator(ConnectionPool pool, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.pool = pool;
+        this.blockSize = blockSize;
+    }
+
+    public int nextBookId() throws SQLException {
+        return next(BOOK, "BookId");
+    }
+
+    public int nextAuthorId() throws SQLException {
+        return next(AUTHOR, "AuthorId");
+    }
+
+    /**
+     * Closes the allocator's connection. The ids left in the blocks are not used.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            blocks.clear();
+            closeConnection();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int next(String table, String idColumn) throws SQLException {
+        lock.lock();
+        try {
+            Block block = blocks.computeIfAbsent(table, name -> new Block());
+            if (block.next >= block.end) {
+                block.next = reserveBlock(table, idColumn);
+                block.end = block.next + blockSize;
+            }
+            return block.next++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves the next block for a table and returns its first id, in a
+     * transaction of its own so the IdSequence row lock is held only for it.
+     */
+    private int reserveBlock(String table, String idColumn) throws SQLException {
+        Connection connection = connection();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                int first = lockNextId(connection, table);
+                if (first < 0) {
+                    // first reservation for this table, start after the highest existing id
+                    first = maxId(connection, table, idColumn) + 1;
+                    try (PreparedStatement insert = connection.prepareStatement(
+                            "INSERT INTO IdSequence (Name, NextId) VALUES (?, ?)")) {
+                        insert.setString(1, table);
+                        insert.setInt(2, first + blockSize);
+                        insert.executeUpdate();
+                    }
+                } else {
+                    try (PreparedStatement update = connection.prepareStatement(
+                            "UPDATE IdSequence SET NextId = ? WHERE Name = ?")) {
+                        update.setInt(1, first + blockSize);
+                        update.setString(2, table);
+                        update.executeUpdate();
+                    }
+                }
+                connection.commit();
+                return first;
+            } catch (SQLException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackFailure) {
+                    closeConnection(); // broken, opened again by the next reservation
+                    throw e;
+                }
+                if (attempt > 0) {
+                    throw e;
+                }
+                // another writer may have created the sequence row at the same time, retry once
+            }
+        }
+    }
+
+    private Connection connection() throws SQLException {
+        if (connection != null && !connection.isValid(2)) {
+            closeConnection();
+        }
+        if (connection == null) {
+            connection = pool.openUnpooledConnection();
+            connection.setAutoCommit(false);
+        }
+        return connection;
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // nothing more we can do with a broken connection
+            }
+            connection = null;
+        }
+    }
+
+    private int lockNextId(Connection connection, String table) throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT NextId FROM IdSequence WHERE Name = ? FOR UPDATE")) {
+            select.setString(1, table);
+            try (ResultSet resultSet = select.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : -1;
+            }
+        }
+    }
+
+    private int maxId(Connection connection, String table, String idColumn) throws SQLException {
+        // table and column come from the constants above, never from user input
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                     "SELECT COALESCE(MAX(" + idColumn + "), 0) FROM " + table)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,880 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * A BooksDbInterface that keeps the whole catalog in memory, for running
+ * without a database server (db.backend=memory) and as the baseline that the
+ * SQL path is benchmarked against. Nothing is persisted: the books are kept
+ * over disconnect and connect, but are gone when the application exits.
+ *
+ * Books and authors are kept by id in IntMaps, with a sorted id set for BookId
+ * order, a title-ordered set for TITLE pages, a sorted ISBN index, an id set
+ * per genre and per rating, and the same TitleIndex and AuthorIndex that
+ * BooksDpImpl searches once they are built, so both find the same books.
+ * Readers run concurrently; writers take the write lock one at a time. The
+ * books returned are copies, so changing one does not change the catalog
+ * until it is passed to updateBook.
+ */
+public class InMemoryBooksDb implements BooksDbInterface {
+    // titles ignoring case first, like MySQL's default collation
+    private static final Comparator<StoredBook> TITLE_ORDER = Comparator
+            .comparing((StoredBook b) -> b.title, String.CASE_INSENSITIVE_ORDER)
+            .thenComparing(b -> b.title)
+            .thenComparingInt(b -> b.bookId);
+
+    private static class StoredBook {
+        final int bookId;
+        final String isbn;
+        final String title;
+        final Date published;
+        final Genre genre;
+        final int rating;
+        final int[] authorIds;
+
+        StoredBook(int bookId, Book book, int[] authorIds) {
+            this.bookId = bookId;
+            this.isbn = book.getIsbn();
+            this.title = book.getTitle();
+            this.published = book.getPublished() == null ? null : new Date(book.getPublished().getTime());
+            this.genre = book.getGenre();
+            this.rating = book.getRating();
+            this.authorIds = authorIds;
+        }
+
+        StoredBook(int bookId, String title) { // a position in TITLE_ORDER, for seeking to a page
+            this.bookId = bookId;
+            this.isbn = null;
+            this.title = title;
+            this.published = null;
+            this.genre = null;
+            this.rating = 0;
+            this.authorIds = null;
+        }
+    }
+
+    private static class StoredAuthor {
+        final int authorId;
+        final String name;
+        final String personNumber;
+
+        StoredAuthor(int authorId, String name, String personNumber) {
+            this.authorId = authorId;
+            this.name = name;
+            this.personNumber = personNumber;
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final IntMap<StoredBook> books = new IntMap<>();
+    private final IntMap<StoredAuthor> authors = new IntMap<>();
+    private final Map<String, Integer> authorIdsByPersonNumber = new HashMap<>();
+    private final SortedIntSet bookIds = new SortedIntSet();
+    private final NavigableSet<StoredBook> booksByTitle = new TreeSet<>(TITLE_ORDER);
+    private final TreeMap<String, Integer> bookIdsByIsbn = new TreeMap<>();
+    private final SortedIntSet[] booksByGenre = new SortedIntSet[Genre.values().length];
+    private SortedIntSet[] booksByRating = new SortedIntSet[6];
+    private final TitleIndex titleIndex = new TitleIndex();
+    private final AuthorIndex authorIndex = new AuthorIndex();
+    private int nextBookId = 1;
+    private int nextAuthorId = 1;
+    private volatile boolean connected;
+
+    public InMemoryBooksDb() {
+        for (int i = 0; i < booksByGenre.length; i++) {
+            booksByGenre[i] = new SortedIntSet();
+        }
+        // an empty catalog is fully indexed, and the indexes are kept up to date from here on
+        titleIndex.finishBuild(titleIndex.beginBuild());
+        authorIndex.finishBuild(authorIndex.beginBuild());
+    }
+
+    /**
+     * There is no server to connect to, this only makes the catalog usable.
+     */
+    @Override
+    public boolean connect(String databaseUrl, String username, String password, String databaseName) {
+        connected = true;
+        System.out.println("Using the in-memory database (" + size() + " books), changes are not saved.");
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+        if (connected) {
+            connected = false;
+            System.out.println("Disconnected from the in-memory database.");
+        } else {
+            System.out.println("Connection is already closed.");
+        }
+    }
+
+    /**
+     * @return the number of books in the catalog
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return books.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> getAllBooks() throws BooksDbException {
+        checkConnected();
+        lock.readLock().lock();
+        try {
+            List<Book> result = new ArrayList<>(bookIds.size());
+            for (int i = 0; i < bookIds.size(); i++) {
+                result.add(toBook(books.get(bookIds.get(i))));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        checkConnected();
+        validate(book);
+        lock.writeLock().lock();
+        try {
+            if (bookIdsByIsbn.containsKey(book.getIsbn())) {
+                throw new BooksDbException("Failed to add book and authors: a book with ISBN " + book.getIsbn()
+                        + " already exists.");
+            }
+            insert(book);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds all the books or, if one of them is invalid or its ISBN is taken, none of them.
+     */
+    @Override
+    public void addBooks(Collection<Book> booksToAdd) throws BooksDbException {
+        checkConnected();
+        for (Book book : booksToAdd) {
+            validate(book);
+        }
+        lock.writeLock().lock();
+        try {
+            Set<String> isbns = new HashSet<>();
+            for (Book book : booksToAdd) {
+                if (bookIdsByIsbn.containsKey(book.getIsbn()) || !isbns.add(book.getIsbn())) {
+                    throw new BooksDbException("Failed to add books, 0 of " + booksToAdd.size()
+                            + " were added: a book with ISBN " + book.getIsbn() + " already exists.");
+                }
+            }
+            for (Book book : booksToAdd) {
+                insert(book);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Like BooksDpImpl, authors are matched on person number: a known author
+     * gets the name given here, an unknown one is added.
+     */
+    @Override
+    public void updateBook(Book updatedBook) throws BooksDbException {
+        checkConnected();
+        validate(updatedBook);
+        lock.writeLock().lock();
+        try {
+            StoredBook old = books.get(updatedBook.getBookId());
+            if (old == null) {
+                throw new BooksDbException("Error updating book details: there is no book with BookId "
+                        + updatedBook.getBookId() + ".");
+            }
+            Integer isbnOwner = bookIdsByIsbn.get(updatedBook.getIsbn());
+            if (isbnOwner != null && isbnOwner != old.bookId) {
+                throw new BooksDbException("Error updating book details: a book with ISBN "
+                        + updatedBook.getIsbn() + " already exists.");
+            }
+            replace(old, updatedBook);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteBook(Book book) throws BooksDbException {
+        checkConnected();
+        lock.writeLock().lock();
+        try {
+            StoredBook stored = books.get(book.getBookId());
+            if (stored != null) {
+                unindex(stored);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies the operations one by one under the write lock, so readers see
+     * all of them or none.
+     */
+    @Override
+    public BookBatch beginBatch() {
+        return new BookBatch(this::commitBatch);
+    }
+
+    private BookBatchResult commitBatch(List<BookBatch.Item> items) throws BooksDbException {
+        checkConnected();
+        List<BookBatchResult.ItemResult> results = new ArrayList<>(items.size());
+        lock.writeLock().lock();
+        try {
+            for (BookBatch.Item item : items) {
+                Book book = item.book;
+                BookBatchResult.Outcome outcome = BookBatchResult.Outcome.APPLIED;
+                String message = null;
+                try {
+                    if (item.operation != BookBatch.Operation.DELETE) {
+                        validate(book);
+                    }
+                    StoredBook stored = item.operation == BookBatch.Operation.ADD ? null : books.get(book.getBookId());
+                    Integer isbnOwner = item.operation == BookBatch.Operation.DELETE ? null : bookIdsByIsbn.get(book.getIsbn());
+                    if (item.operation != BookBatch.Operation.ADD && stored == null) {
+                        outcome = BookBatchResult.Outcome.NOT_FOUND;
+                    } else if (isbnOwner != null && (stored == null || isbnOwner != stored.bookId)) {
+                        outcome = BookBatchResult.Outcome.FAILED;
+                        message = "A book with ISBN " + book.getIsbn() + " already exists.";
+                    } else if (item.operation == BookBatch.Operation.ADD) {
+                        insert(book);
+                    } else if (item.operation == BookBatch.Operation.UPDATE) {
+                        replace(stored, book);
+                    } else {
+                        unindex(stored);
+                    }
+                } catch (BooksDbException e) {
+                    outcome = BookBatchResult.Outcome.FAILED;
+                    message = e.getMessage();
+                }
+                results.add(new BookBatchResult.ItemResult(item.operation, book, outcome, message));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return new BookBatchResult(results);
+    }
+
+    @Override
+    public int addAuthor(Author author) throws BooksDbException {
+        checkConnected();
+        validate(author);
+        lock.writeLock().lock();
+        try {
+            int authorId = nextAuthorId++;
+            putAuthor(new StoredAuthor(authorId, author.getName(), author.getPersonNumber()));
+            return authorId;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateAuthor(Author author) throws BooksDbException {
+        checkConnected();
+        validate(author);
+        lock.writeLock().lock();
+        try {
+            if (!authors.containsKey(author.getAuthorId())) {
+                throw new BooksDbException("No author was updated. Check the AuthorId: " + author.getAuthorId());
+            }
+            putAuthor(new StoredAuthor(author.getAuthorId(), author.getName(), author.getPersonNumber()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Best matches first, see TitleIndex.search.
+     */
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        checkConnected();
+        lock.readLock().lock();
+        try {
+            return toBooks(titleIndex.search(title));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Matches every word of the query against the start of a word in the name, see AuthorIndex.
+     */
+    @Override
+    public List<Book> searchBooksByAuthor(String authorName) throws BooksDbException {
+        checkConnected();
+        lock.readLock().lock();
+        try {
+            return toBooks(authorIndex.search(authorName));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> searchBookByISBN(String isbn) throws BooksDbException {
+        checkConnected();
+        lock.readLock().lock();
+        try {
+            Integer bookId = bookIdsByIsbn.get(isbn);
+            List<Book> result = new ArrayList<>();
+            if (bookId != null) {
+                result.add(toBook(books.get(bookId)));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> searchBooksByGenre(Genre genre) throws BooksDbException {
+        checkConnected();
+        if (genre == null) {
+            throw new BooksDbException("Error searching books by genre: no genre given.");
+        }
+        lock.readLock().lock();
+        try {
+            return toBooks(booksByGenre[genre.ordinal()].toArray());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> searchBooksByRating(int rating) throws BooksDbException {
+        checkConnected();
+        lock.readLock().lock();
+        try {
+            return toBooks(booksWithRating(rating).toArray());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Intersects the id sets of the title, author, genre and rating criteria,
+     * smallest first, then filters on the publication dates. Without criteria
+     * in BookId order, the offset is a position in the id set, so every page
+     * costs the same. The book the spec starts after is sought in the id set
+     * or booksByTitle.
+     */
+    @Override
+    public List<Book> searchBooks(BookSearchSpec spec) throws BooksDbException {
+        checkConnected();
+        lock.readLock().lock();
+        try {
+            int[] ids = criteriaBookIds(spec);
+            Date from = spec.getPublishedFrom() == null ? null : Date.valueOf(spec.getPublishedFrom());
+            Date to = spec.getPublishedTo() == null ? null : Date.valueOf(spec.getPublishedTo());
+            int limit = spec.getLimit() == 0 ? Integer.MAX_VALUE : spec.getLimit();
+            boolean sortByTitle = spec.getSortOrder() == BookSortOrder.TITLE;
+            boolean descending = spec.isDescending();
+            int skip = spec.getOffset(); // matches still to skip before the first one returned
+            StoredBook after = spec.getAfterBookId() == null ? null
+                    : new StoredBook(spec.getAfterBookId(), spec.getAfterTitle());
+            List<StoredBook> matches = new ArrayList<>();
+            if (ids == null && sortByTitle) {
+                // already in order, so the limit can stop the walk
+                NavigableSet<StoredBook> seen = after == null ? booksByTitle
+                        : descending ? booksByTitle.headSet(after, false) : booksByTitle.tailSet(after, false);
+                Iterator<StoredBook> it = descending ? seen.descendingIterator() : seen.iterator();
+                while (it.hasNext() && matches.size() < limit) {
+                    StoredBook stored = it.next();
+                    if (!isPublishedBetween(stored, from, to)) {
+                        continue;
+                    }
+                    if (skip > 0) {
+                        skip--;
+                    } else {
+                        matches.add(stored);
+                    }
+                }
+            } else {
+                SortedIntSet idSet = ids == null ? bookIds : SortedIntSet.of(ids);
+                int first = 0; // the ids that can be returned are those from first to count - 1
+                int count = idSet.size();
+                if (after != null && !sortByTitle) {
+                    if (descending) {
+                        count = idSet.indexAfter(after.bookId - 1);
+                    } else {
+                        first = idSet.indexAfter(after.bookId);
+                    }
+                }
+                int i = 0;
+                if (!sortByTitle && from == null && to == null) {
+                    i = Math.min(skip, count - first); // every id matches, so the offset is a position
+                    skip = 0;
+                }
+                for (; i < count - first && (sortByTitle || matches.size() < limit); i++) {
+                    StoredBook stored = books.get(idSet.get(descending ? count - 1 - i : first + i));
+                    if (!isPublishedBetween(stored, from, to)) {
+                        continue;
+                    }
+                    if (sortByTitle && after != null
+                            && (descending ? TITLE_ORDER.compare(stored, after) >= 0 : TITLE_ORDER.compare(stored, after) <= 0)) {
+                        continue;
+                    }
+                    if (skip > 0 && !sortByTitle) {
+                        skip--;
+                    } else {
+                        matches.add(stored);
+                    }
+                }
+                if (sortByTitle) {
+                    matches.sort(descending ? TITLE_ORDER.reversed() : TITLE_ORDER);
+                    matches = matches.subList(Math.min(skip, matches.size()), matches.size());
+                }
+            }
+
+            List<Book> result = new ArrayList<>(Math.min(matches.size(), limit));
+            for (int i = 0; i < matches.size() && i < limit; i++) {
+                result.add(toBook(matches.get(i)));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int countBooks(BookSearchSpec spec) throws BooksDbException {
+        checkConnected();
+        lock.readLock().lock();
+        try {
+            int[] ids = criteriaBookIds(spec);
+            Date from = spec.getPublishedFrom() == null ? null : Date.valueOf(spec.getPublishedFrom());
+            Date to = spec.getPublishedTo() == null ? null : Date.valueOf(spec.getPublishedTo());
+            if (from == null && to == null) {
+                return ids == null ? bookIds.size() : ids.length;
+            }
+            int count = 0;
+            int size = ids == null ? bookIds.size() : ids.length;
+            for (int i = 0; i < size; i++) {
+                if (isPublishedBetween(books.get(ids == null ? bookIds.get(i) : ids[i]), from, to)) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Without criteria, the genre and rating counts are the sizes of their id
+     * sets; otherwise the matching books are counted in one pass.
+     */
+    @Override
+    public BookFacets getFacets(BookSearchSpec spec) throws BooksDbException {
+        checkConnected();
+        lock.readLock().lock();
+        try {
+            int[] ids = criteriaBookIds(spec);
+            Date from = spec.getPublishedFrom() == null ? null : Date.valueOf(spec.getPublishedFrom());
+            Date to = spec.getPublishedTo() == null ? null : Date.valueOf(spec.getPublishedTo());
+            Map<Genre, Integer> genreCounts = new EnumMap<>(Genre.class);
+            Map<Integer, Integer> ratingCounts = new HashMap<>();
+            Map<Integer, Integer> yearCounts = new HashMap<>();
+
+            if (ids == null && from == null && to == null) {
+                for (Genre genre : Genre.values()) {
+                    if (!booksByGenre[genre.ordinal()].isEmpty()) {
+                        genreCounts.put(genre, booksByGenre[genre.ordinal()].size());
+                    }
+                }
+                for (int rating = 0; rating < booksByRating.length; rating++) {
+                    if (booksByRating[rating] != null && !booksByRating[rating].isEmpty()) {
+                        ratingCounts.put(rating, booksByRating[rating].size());
+                    }
+                }
+                books.forEachValue(stored -> {
+                    if (stored.published != null) {
+                        yearCounts.merge(stored.published.toLocalDate().getYear(), 1, Integer::sum);
+                    }
+                });
+                return new BookFacets(books.size(), genreCounts, ratingCounts, yearCounts);
+            }
+
+            int total = 0;
+            for (int bookId : ids == null ? bookIds.toArray() : ids) {
+                StoredBook stored = books.get(bookId);
+                if (isPublishedBetween(stored, from, to)) {
+                    total++;
+                    genreCounts.merge(stored.genre, 1, Integer::sum);
+                    ratingCounts.merge(stored.rating, 1, Integer::sum);
+                    if (stored.published != null) {
+                        yearCounts.merge(stored.published.toLocalDate().getYear(), 1, Integer::sum);
+                    }
+                }
+            }
+            return new BookFacets(total, genreCounts, ratingCounts, yearCounts);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public BookPage getBooksPage(String afterKey, int limit, BookSortOrder sortOrder) throws BooksDbException {
+        return readPage(null, null, afterKey, limit, sortOrder);
+    }
+
+    @Override
+    public BookPage searchBooksPage(SearchMode mode, String searchFor, String afterKey, int limit,
+                                    BookSortOrder sortOrder) throws BooksDbException {
+        return readPage(mode, searchFor, afterKey, limit, sortOrder);
+    }
+
+    /**
+     * The books are copied one at a time as the stream is consumed, from the
+     * BookIds there were when it was opened; books deleted since are left out.
+     * Closing the stream is not needed, but does no harm.
+     */
+    @Override
+    public Stream<Book> streamAllBooks() throws BooksDbException {
+        checkConnected();
+        int[] ids;
+        lock.readLock().lock();
+        try {
+            ids = bookIds.toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+        return streamBooks(ids);
+    }
+
+    @Override
+    public Stream<Book> streamBooks(SearchMode mode, String searchFor) throws BooksDbException {
+        checkConnected();
+        int[] ids;
+        lock.readLock().lock();
+        try {
+            ids = matchingBookIds(mode, searchFor);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return streamBooks(ids);
+    }
+
+    private Stream<Book> streamBooks(int[] ids) {
+        return Arrays.stream(ids).mapToObj(bookId -> {
+            lock.readLock().lock();
+            try {
+                StoredBook stored = books.get(bookId);
+                return stored == null ? null : toBook(stored);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }).filter(Objects::nonNull);
+    }
+
+    private BookPage readPage(SearchMode mode, String searchFor, String afterKey, int limit,
+                              BookSortOrder sortOrder) throws BooksDbException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page limit must be positive: " + limit);
+        }
+        PageToken after = PageToken.decode(afterKey, sortOrder);
+        checkConnected();
+        lock.readLock().lock();
+        try {
+            List<StoredBook> page = new ArrayList<>(Math.min(limit, 1024) + 1);
+            if (sortOrder == BookSortOrder.TITLE) {
+                Iterator<StoredBook> ordered;
+                if (mode == null) {
+                    ordered = (after == null ? booksByTitle
+                            : booksByTitle.tailSet(new StoredBook(after.getBookId(), after.getTitle()), false)).iterator();
+                } else {
+                    List<StoredBook> matches = new ArrayList<>();
+                    StoredBook start = after == null ? null : new StoredBook(after.getBookId(), after.getTitle());
+                    for (int bookId : matchingBookIds(mode, searchFor)) {
+                        StoredBook stored = books.get(bookId);
+                        if (start == null || TITLE_ORDER.compare(stored, start) > 0) {
+                            matches.add(stored);
+                        }
+                    }
+                    matches.sort(TITLE_ORDER);
+                    ordered = matches.iterator();
+                }
+                while (ordered.hasNext() && page.size() <= limit) {
+                    page.add(ordered.next());
+                }
+            } else {
+                SortedIntSet ids = mode == null ? bookIds : SortedIntSet.of(matchingBookIds(mode, searchFor));
+                for (int i = after == null ? 0 : ids.indexAfter(after.getBookId());
+                     i < ids.size() && page.size() <= limit; i++) {
+                    page.add(books.get(ids.get(i)));
+                }
+            }
+
+            List<Book> result = new ArrayList<>(page.size());
+            for (int i = 0; i < page.size() && i < limit; i++) {
+                result.add(toBook(page.get(i)));
+            }
+            if (page.size() <= limit) {
+                return new BookPage(result, null);
+            }
+            return new BookPage(result, PageToken.after(result.get(limit - 1), sortOrder).encode());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the BookIds of the books matching the search, in ascending order. Call with the read lock held.
+     */
+    private int[] matchingBookIds(SearchMode mode, String searchFor) throws BooksDbException {
+        switch (mode) {
+            case Title:
+                int[] ranked = titleIndex.search(searchFor);
+                Arrays.sort(ranked);
+                return ranked;
+            case Author:
+                return authorIndex.search(searchFor);
+            case ISBN:
+                Integer bookId = bookIdsByIsbn.get(searchFor);
+                return bookId == null ? new int[0] : new int[]{bookId};
+            case GENRE:
+                try {
+                    return booksByGenre[Genre.valueOf(searchFor.trim().toUpperCase(Locale.ROOT)).ordinal()].toArray();
+                } catch (IllegalArgumentException e) {
+                    throw new BooksDbException("Unknown genre: " + searchFor, e);
+                }
+            case RATING:
+                try {
+                    return booksWithRating(Integer.parseInt(searchFor.trim())).toArray();
+                } catch (NumberFormatException e) {
+                    throw new BooksDbException("Invalid rating: " + searchFor, e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown search mode: " + mode);
+        }
+    }
+
+    /**
+     * Replaces a stored book with the updated one, see updateBook. Call with the write lock held.
+     */
+    private void replace(StoredBook old, Book updatedBook) {
+        for (Author author : updatedBook.getAuthors()) {
+            Integer authorId = authorIdsByPersonNumber.get(author.getPersonNumber());
+            if (authorId != null) {
+                author.setAuthorId(authorId);
+                putAuthor(new StoredAuthor(authorId, author.getName(), author.getPersonNumber()));
+            }
+        }
+        unindex(old);
+        index(new StoredBook(old.bookId, updatedBook, resolveAuthors(updatedBook)));
+    }
+
+    /**
+     * Adds a validated book whose ISBN is free, and sets the ids of the book
+     * and its authors. Call with the write lock held.
+     */
+    private void insert(Book book) {
+        int bookId = nextBookId++;
+        index(new StoredBook(bookId, book, resolveAuthors(book)));
+        book.setBookId(bookId);
+    }
+
+    /**
+     * Sets the AuthorId of each of the book's authors, adding the authors not
+     * known by person number, and returns the distinct ids. Call with the write lock held.
+     */
+    private int[] resolveAuthors(Book book) {
+        int[] ids = new int[book.getAuthors().size()];
+        int count = 0;
+        for (Author author : book.getAuthors()) {
+            Integer authorId = authorIdsByPersonNumber.get(author.getPersonNumber());
+            if (authorId == null) {
+                authorId = nextAuthorId++;
+                putAuthor(new StoredAuthor(authorId, author.getName(), author.getPersonNumber()));
+            }
+            author.setAuthorId(authorId);
+            boolean linked = false;
+            for (int i = 0; i < count; i++) {
+                linked |= ids[i] == authorId;
+            }
+            if (!linked) {
+                ids[count++] = authorId;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    private void putAuthor(StoredAuthor author) {
+        StoredAuthor old = authors.put(author.authorId, author);
+        if (old != null && authorIdsByPersonNumber.get(old.personNumber) == old.authorId) {
+            authorIdsByPersonNumber.remove(old.personNumber);
+        }
+        // like the SQL lookup, the first author with a person number is the one found
+        authorIdsByPersonNumber.putIfAbsent(author.personNumber, author.authorId);
+        authorIndex.putAuthor(author.authorId, author.name);
+    }
+
+    private void index(StoredBook book) {
+        books.put(book.bookId, book);
+        bookIds.add(book.bookId);
+        booksByTitle.add(book);
+        bookIdsByIsbn.put(book.isbn, book.bookId);
+        booksByGenre[book.genre.ordinal()].add(book.bookId);
+        ratingBucket(book.rating).add(book.bookId);
+        titleIndex.put(book.bookId, book.title);
+        authorIndex.putBook(book.bookId, authorsOf(book));
+    }
+
+    private void unindex(StoredBook book) {
+        books.remove(book.bookId);
+        bookIds.remove(book.bookId);
+        booksByTitle.remove(book);
+        bookIdsByIsbn.remove(book.isbn);
+        booksByGenre[book.genre.ordinal()].remove(book.bookId);
+        ratingBucket(book.rating).remove(book.bookId);
+        titleIndex.remove(book.bookId);
+        authorIndex.removeBook(book.bookId);
+    }
+
+    /**
+     * @return the BookIds matching the title, author, genre and rating criteria of
+     * the spec in ascending order, or null if it has none of them. Call with the read lock held.
+     */
+    private int[] criteriaBookIds(BookSearchSpec spec) {
+        List<SortedIntSet> criteria = new ArrayList<>();
+        if (spec.getTitleContains() != null) {
+            int[] ranked = titleIndex.search(spec.getTitleContains());
+            Arrays.sort(ranked);
+            criteria.add(SortedIntSet.of(ranked));
+        }
+        if (spec.getAuthorContains() != null) {
+            criteria.add(SortedIntSet.of(authorIndex.search(spec.getAuthorContains())));
+        }
+        if (!spec.getGenres().isEmpty()) {
+            List<SortedIntSet> genres = new ArrayList<>();
+            for (Genre genre : spec.getGenres()) {
+                genres.add(booksByGenre[genre.ordinal()]);
+            }
+            criteria.add(SortedIntSet.of(SortedIntSet.union(genres)));
+        }
+        if (spec.getMinRating() != null || spec.getMaxRating() != null) {
+            int from = spec.getMinRating() == null ? 0 : Math.max(spec.getMinRating(), 0);
+            int to = spec.getMaxRating() == null ? booksByRating.length - 1
+                    : Math.min(spec.getMaxRating(), booksByRating.length - 1);
+            List<SortedIntSet> ratings = new ArrayList<>();
+            for (int rating = from; rating <= to; rating++) {
+                ratings.add(booksWithRating(rating));
+            }
+            criteria.add(SortedIntSet.of(SortedIntSet.union(ratings)));
+        }
+        return criteria.isEmpty() ? null : SortedIntSet.intersect(criteria.toArray(new SortedIntSet[0]));
+    }
+
+    /**
+     * @return whether the book was published within the range, where null ends are open;
+     * books without a date are outside any range, as with SQL comparisons with NULL
+     */
+    private static boolean isPublishedBetween(StoredBook book, Date from, Date to) {
+        if (from == null && to == null) {
+            return true;
+        }
+        return book.published != null
+                && (from == null || !book.published.before(from))
+                && (to == null || !book.published.after(to));
+    }
+
+    /**
+     * @return the books with the given rating, for reading
+     */
+    private SortedIntSet booksWithRating(int rating) {
+        if (rating < 0 || rating >= booksByRating.length || booksByRating[rating] == null) {
+            return new SortedIntSet();
+        }
+        return booksByRating[rating];
+    }
+
+    /**
+     * @return the books with the given rating, created if needed. Call with the write lock held.
+     */
+    private SortedIntSet ratingBucket(int rating) {
+        if (rating >= booksByRating.length) {
+            booksByRating = Arrays.copyOf(booksByRating, Math.max(rating + 1, booksByRating.length * 2));
+        }
+        if (booksByRating[rating] == null) {
+            booksByRating[rating] = new SortedIntSet();
+        }
+        return booksByRating[rating];
+    }
+
+    private List<Author> authorsOf(StoredBook book) {
+        List<Author> result = new ArrayList<>(book.authorIds.length);
+        for (int authorId : book.authorIds) {
+            StoredAuthor author = authors.get(authorId);
+            result.add(new Author(author.authorId, author.name, author.personNumber));
+        }
+        return result;
+    }
+
+    private Book toBook(StoredBook stored) {
+        Book book = new Book(stored.bookId, stored.isbn, stored.title,
+                stored.published == null ? null : new Date(stored.published.getTime()));
+        book.setGenre(stored.genre);
+        book.setRating(stored.rating);
+        book.setAuthors(authorsOf(stored));
+        return book;
+    }
+
+    private List<Book> toBooks(int[] ids) {
+        List<Book> result = new ArrayList<>(ids.length);
+        for (int bookId : ids) {
+            StoredBook stored = books.get(bookId);
+            if (stored != null) {
+                result.add(toBook(stored));
+            }
+        }
+        return result;
+    }
+
+    private static void validate(Book book) throws BooksDbException {
+        BookBatch.validate(book);
+    }
+
+    private static void validate(Author author) throws BooksDbException {
+        if (author.getName() == null || author.getPersonNumber() == null) {
+            throw new BooksDbException("An author needs a name and a person number.");
+        }
+    }
+
+    private void checkConnected() throws BooksDbException {
+        if (!connected) {
+            throw new BooksDbException("Not connected to a database.");
+        }
+    }
+}
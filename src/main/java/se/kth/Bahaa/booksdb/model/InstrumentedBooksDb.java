@@ -0,0 +1,286 @@
+package se.kth.Bahaa.booksdb.model;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * Wraps any BooksDbInterface and records, per method, the number of calls and
+ * errors, a latency histogram, the rows (books) returned and the database
+ * round trips made. The round trips are counted by the connection pool's
+ * StatementTracer for the calling thread, so they are only known for
+ * BooksDpImpl; other implementations, like InMemoryBooksDb, show 0.
+ *
+ * The metrics are registered as MBeans, one per method, under
+ * se.kth.Bahaa.booksdb:type=BooksDb, and printed every db.metrics.logIntervalSec
+ * seconds (0 turns the printing off).
+ */
+public class InstrumentedBooksDb implements BooksDbInterface, AutoCloseable {
+    private static final String JMX_DOMAIN = "se.kth.Bahaa.booksdb";
+
+    private final BooksDbInterface booksDb;
+    private final String name;
+    private final Map<String, MethodMetrics> metrics = new ConcurrentHashMap<>();
+    private final List<ObjectName> registered = new ArrayList<>();
+    private final ScheduledExecutorService reporter;
+
+    /**
+     * @param booksDb    the database to instrument
+     * @param properties the application configuration, read for the db.metrics.* settings
+     */
+    public InstrumentedBooksDb(BooksDbInterface booksDb, Properties properties) {
+        this.booksDb = booksDb;
+        this.name = properties.getProperty("db.metrics.jmxName", "BooksDb").trim();
+        int interval = DbProperties.intProperty(properties, "db.metrics.logIntervalSec", 60);
+        if (interval > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "books-db-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(this::printReport, interval, interval, TimeUnit.SECONDS);
+        } else {
+            reporter = null;
+        }
+    }
+
+    public BooksDbInterface getBooksDb() {
+        return booksDb;
+    }
+
+    /**
+     * @return the metrics of each method called so far, by method name
+     */
+    public Map<String, MethodMetrics> getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return one line per method called so far
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder("Database metrics:");
+        metrics.values().stream()
+                .filter(m -> m.getCalls() > 0)
+                .sorted((a, b) -> a.getMethod().compareTo(b.getMethod()))
+                .forEach(m -> report.append(System.lineSeparator()).append("  ").append(m));
+        return report.toString();
+    }
+
+    /**
+     * Stops the periodic report and unregisters the MBeans.
+     */
+    @Override
+    public void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (registered) {
+            for (ObjectName objectName : registered) {
+                try {
+                    server.unregisterMBean(objectName);
+                } catch (JMException e) {
+                    // already gone
+                }
+            }
+            registered.clear();
+        }
+    }
+
+    @Override
+    public boolean connect(String databaseUrl, String username, String password, String databaseName) throws BooksDbException {
+        return record("connect", () -> booksDb.connect(databaseUrl, username, password, databaseName), r -> 0);
+    }
+
+    @Override
+    public List<Book> getAllBooks() throws BooksDbException {
+        return record("getAllBooks", booksDb::getAllBooks, List::size);
+    }
+
+    @Override
+    public void disconnect() throws BooksDbException {
+        record("disconnect", () -> {
+            booksDb.disconnect();
+            return null;
+        }, r -> 0);
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        record("addBook", () -> {
+            booksDb.addBook(book);
+            return null;
+        }, r -> 1);
+    }
+
+    @Override
+    public void addBooks(Collection<Book> books) throws BooksDbException {
+        record("addBooks", () -> {
+            booksDb.addBooks(books);
+            return null;
+        }, r -> books.size());
+    }
+
+    @Override
+    public void updateBook(Book updatedBook) throws BooksDbException {
+        record("updateBook", () -> {
+            booksDb.updateBook(updatedBook);
+            return null;
+        }, r -> 1);
+    }
+
+    @Override
+    public void deleteBook(Book book) throws BooksDbException {
+        record("deleteBook", () -> {
+            booksDb.deleteBook(book);
+            return null;
+        }, r -> 1);
+    }
+
+    @Override
+    public BookBatch beginBatch() {
+        BookBatch batch = booksDb.beginBatch();
+        return new BookBatch(items -> record("commitBatch", () -> batch.commit(items), result -> result.getItems().size()));
+    }
+
+    @Override
+    public int addAuthor(Author author) throws BooksDbException {
+        return record("addAuthor", () -> booksDb.addAuthor(author), r -> 1);
+    }
+
+    @Override
+    public void updateAuthor(Author author) throws BooksDbException {
+        record("updateAuthor", () -> {
+            booksDb.updateAuthor(author);
+            return null;
+        }, r -> 1);
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return record("searchBooksByTitle", () -> booksDb.searchBooksByTitle(title), List::size);
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthor(String authorName) throws BooksDbException {
+        return record("searchBooksByAuthor", () -> booksDb.searchBooksByAuthor(authorName), List::size);
+    }
+
+    @Override
+    public List<Book> searchBookByISBN(String isbn) throws BooksDbException {
+        return record("searchBookByISBN", () -> booksDb.searchBookByISBN(isbn), List::size);
+    }
+
+    @Override
+    public List<Book> searchBooksByGenre(Genre genre) throws BooksDbException {
+        return record("searchBooksByGenre", () -> booksDb.searchBooksByGenre(genre), List::size);
+    }
+
+    @Override
+    public List<Book> searchBooksByRating(int rating) throws BooksDbException {
+        return record("searchBooksByRating", () -> booksDb.searchBooksByRating(rating), List::size);
+    }
+
+    @Override
+    public List<Book> searchBooks(BookSearchSpec spec) throws BooksDbException {
+        return record("searchBooks", () -> booksDb.searchBooks(spec), List::size);
+    }
+
+    @Override
+    public int countBooks(BookSearchSpec spec) throws BooksDbException {
+        return record("countBooks", () -> booksDb.countBooks(spec), count -> 0);
+    }
+
+    @Override
+    public BookFacets getFacets(BookSearchSpec spec) throws BooksDbException {
+        return record("getFacets", () -> booksDb.getFacets(spec), facets -> 1);
+    }
+
+    @Override
+    public BookPage getBooksPage(String afterKey, int limit, BookSortOrder sortOrder) throws BooksDbException {
+        return record("getBooksPage", () -> booksDb.getBooksPage(afterKey, limit, sortOrder),
+                page -> page.getBooks().size());
+    }
+
+    @Override
+    public BookPage searchBooksPage(SearchMode mode, String searchFor, String afterKey, int limit,
+                                    BookSortOrder sortOrder) throws BooksDbException {
+        return record("searchBooksPage", () -> booksDb.searchBooksPage(mode, searchFor, afterKey, limit, sortOrder),
+                page -> page.getBooks().size());
+    }
+
+    /**
+     * The latency and round trips are those of opening the stream; the rows are
+     * counted as the stream is consumed.
+     */
+    @Override
+    public Stream<Book> streamAllBooks() throws BooksDbException {
+        MethodMetrics method = metricsFor("streamAllBooks");
+        return record("streamAllBooks", booksDb::streamAllBooks, s -> 0).peek(book -> method.addRows(1));
+    }
+
+    @Override
+    public Stream<Book> streamBooks(SearchMode mode, String searchFor) throws BooksDbException {
+        MethodMetrics method = metricsFor("streamBooks");
+        return record("streamBooks", () -> booksDb.streamBooks(mode, searchFor), s -> 0)
+                .peek(book -> method.addRows(1));
+    }
+
+    private <T> T record(String methodName, AsyncBooksDb.DbCall<T> call, ToLongFunction<T> rows)
+            throws BooksDbException {
+        MethodMetrics method = metricsFor(methodName);
+        long roundTripsBefore = StatementTracer.roundTrips();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.call();
+            failed = false;
+            method.addRows(rows.applyAsLong(result));
+            return result;
+        } finally {
+            method.record((System.nanoTime() - start) / 1000, StatementTracer.roundTrips() - roundTripsBefore, failed);
+        }
+    }
+
+    private MethodMetrics metricsFor(String methodName) {
+        MethodMetrics method = metrics.get(methodName);
+        if (method == null) {
+            method = metrics.computeIfAbsent(methodName, this::register);
+        }
+        return method;
+    }
+
+    private MethodMetrics register(String methodName) {
+        MethodMetrics method = new MethodMetrics(methodName);
+        try {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=BooksDb,name=" + ObjectName.quote(name)
+                    + ",method=" + methodName);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(method, objectName);
+            synchronized (registered) {
+                registered.add(objectName);
+            }
+        } catch (JMException e) {
+            System.out.println("Could not register the metrics of " + methodName + " with JMX: " + e.getMessage());
+        }
+        return method;
+    }
+
+    private void printReport() {
+        if (metrics.values().stream().anyMatch(m -> m.getCalls() > 0)) {
+            System.out.println(report());
+        }
+    }
+}
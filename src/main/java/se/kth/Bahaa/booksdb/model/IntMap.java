@@ -0,0 +1,149 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A hash map from int keys to non-null values, with open addressing and
+ * linear probing in two parallel arrays, so there is no boxed Integer and no
+ * entry object per mapping. Used by InMemoryBooksDb for books and authors by
+ * id. Not thread safe.
+ */
+class IntMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+    private Object[] values; // null marks a free slot
+    private int size;
+
+    IntMap() {
+        this(MIN_CAPACITY);
+    }
+
+    IntMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return (V) values[slot];
+            }
+        }
+        return null;
+    }
+
+    boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the previous value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("IntMap does not hold null values");
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * 3 / 4) {
+            resize(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V removed = (V) values[slot];
+                deleteSlot(slot);
+                size--;
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEachValue(Consumer<? super V> action) {
+        for (Object value : values) {
+            if (value != null) {
+                action.accept((V) value);
+            }
+        }
+    }
+
+    /**
+     * Empties the slot and moves the entries after it in the same probe run
+     * back, so that no lookup stops early at the hole (no tombstones needed).
+     */
+    private void deleteSlot(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            // move the entry if its home slot is not between the hole and its current slot (cyclically)
+            if (hole <= next ? (home <= hole || home > next) : (home <= hole && home > next)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        values[hole] = null;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9; // spreads sequential ids over the table
+        return h ^ (h >>> 16);
+    }
+}
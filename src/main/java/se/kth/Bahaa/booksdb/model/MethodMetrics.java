@@ -0,0 +1,82 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call counts, errors, latencies, rows and round trips of one method, see InstrumentedBooksDb.
+ */
+public class MethodMetrics implements MethodMetricsMBean {
+    private final String method;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder roundTrips = new LongAdder();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    MethodMetrics(String method) {
+        this.method = method;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    void record(long micros, long roundTripCount, boolean failed) {
+        calls.increment();
+        if (failed) {
+            errors.increment();
+        }
+        totalMicros.add(micros);
+        roundTrips.add(roundTripCount);
+        latencies.record(micros);
+    }
+
+    void addRows(long count) {
+        rows.add(count);
+    }
+
+    @Override public long getCalls() { return calls.sum(); }
+    @Override public long getErrors() { return errors.sum(); }
+    @Override public long getRows() { return rows.sum(); }
+    @Override public long getRoundTrips() { return roundTrips.sum(); }
+    @Override public double getP50Millis() { return latencies.percentile(50) / 1000.0; }
+    @Override public double getP95Millis() { return latencies.percentile(95) / 1000.0; }
+    @Override public double getP99Millis() { return latencies.percentile(99) / 1000.0; }
+
+    @Override
+    public double getMeanMillis() {
+        long count = calls.sum();
+        return count == 0 ? 0 : totalMicros.sum() / 1000.0 / count;
+    }
+
+    @Override
+    public double getRoundTripsPerCall() {
+        long count = calls.sum();
+        return count == 0 ? 0 : (double) roundTrips.sum() / count;
+    }
+
+    @Override
+    public double getRowsPerRoundTrip() {
+        long trips = roundTrips.sum();
+        return trips == 0 ? 0 : (double) rows.sum() / trips;
+    }
+
+    @Override
+    public void reset() {
+        calls.reset();
+        errors.reset();
+        totalMicros.reset();
+        rows.reset();
+        roundTrips.reset();
+        latencies.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-20s calls: %d, errors: %d, mean: %.2f ms, p50: %.2f ms, p95: %.2f ms, p99: %.2f ms, "
+                        + "rows: %d, round trips/call: %.1f, rows/round trip: %.1f",
+                method, getCalls(), getErrors(), getMeanMillis(), getP50Millis(), getP95Millis(), getP99Millis(),
+                getRows(), getRoundTripsPerCall(), getRowsPerRoundTrip());
+    }
+}
@@ -0,0 +1,30 @@
+package se.kth.Bahaa.booksdb.model;
+
+/**
+ * The JMX view of the metrics of one BooksDbInterface method, registered by
+ * InstrumentedBooksDb as se.kth.Bahaa.booksdb:type=BooksDb,name=...,method=...
+ */
+public interface MethodMetricsMBean {
+    long getCalls();
+    long getErrors();
+    double getMeanMillis();
+    double getP50Millis();
+    double getP95Millis();
+    double getP99Millis();
+    long getRows();
+    long getRoundTrips();
+
+    /**
+     * Database round trips per call. A value that grows with the number of rows
+     * returned means the method makes one query per row (N+1).
+     */
+    double getRoundTripsPerCall();
+
+    /**
+     * Rows returned per database round trip, low values together with many rows
+     * per call also point at N+1 queries.
+     */
+    double getRowsPerRoundTrip();
+
+    void reset();
+}
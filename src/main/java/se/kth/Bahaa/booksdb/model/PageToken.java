@@ -0,0 +1,55 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * The position of the last book on a page, encoded as an opaque string for
+ * BookPage.getNextPageToken(). The next page starts right after it.
+ */
+class PageToken {
+    private final BookSortOrder sortOrder;
+    private final int bookId;
+    private final String title; // only used for BookSortOrder.TITLE
+
+    PageToken(BookSortOrder sortOrder, int bookId, String title) {
+        this.sortOrder = sortOrder;
+        this.bookId = bookId;
+        this.title = title;
+    }
+
+    static PageToken after(Book book, BookSortOrder sortOrder) {
+        return new PageToken(sortOrder, book.getBookId(), book.getTitle());
+    }
+
+    int getBookId() { return bookId; }
+    String getTitle() { return title; }
+
+    String encode() {
+        String raw = sortOrder.name() + ":" + bookId + (sortOrder == BookSortOrder.TITLE ? ":" + title : "");
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the decoded token, or null if token is null (the first page)
+     * @throws BooksDbException if the token is malformed or was made for another sort order
+     */
+    static PageToken decode(String token, BookSortOrder expectedOrder) throws BooksDbException {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":", 3);
+            BookSortOrder sortOrder = BookSortOrder.valueOf(parts[0]);
+            if (sortOrder != expectedOrder) {
+                throw new BooksDbException("The page token is for sort order " + sortOrder + ", not " + expectedOrder);
+            }
+            int bookId = Integer.parseInt(parts[1]);
+            String title = sortOrder == BookSortOrder.TITLE ? parts[2] : null;
+            return new PageToken(sortOrder, bookId, title);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new BooksDbException("Invalid page token: " + token, e);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * A connection borrowed from a ConnectionPool. Use it in a try-with-resources
+ * block; closing it returns the underlying connection to the pool instead of
+ * closing it. Statements with constant SQL should be prepared through
+ * prepareStatement so they are reused between borrows.
+ */
+public class PooledConnection implements AutoCloseable {
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final StatementCache statementCache;
+    private volatile boolean borrowed;
+    private volatile long idleSince;
+
+    PooledConnection(ConnectionPool pool, Connection connection, StatementCache statementCache) {
+        this.pool = pool;
+        this.connection = connection;
+        this.statementCache = statementCache;
+        this.idleSince = System.currentTimeMillis();
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Prepares a statement through the connection's statement cache. Close the
+     * statement as usual when done; that hands it back to the cache. SQL built
+     * with a varying number of parameters should use getConnection().prepareStatement
+     * instead, so it does not push the hot statements out of the cache.
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return statementCache.prepare(sql);
+    }
+
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    long getIdleSince() {
+        return idleSince;
+    }
+
+    void markBorrowed() {
+        borrowed = true;
+    }
+
+    void markIdle() {
+        idleSince = System.currentTimeMillis();
+    }
+
+    @Override
+    public void close() {
+        if (borrowed) { // ignore a second close of the same borrow
+            borrowed = false;
+            pool.release(this);
+        }
+    }
+}
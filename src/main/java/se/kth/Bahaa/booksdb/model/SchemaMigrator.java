@@ -0,0 +1,351 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Brings the database schema up to the version this application needs.
+ * Each migration has a version number; the versions applied are recorded in
+ * the SchemaVersion table and only newer migrations are run on connect.
+ * The steps are written so they can be run again on a database that was set
+ * up by hand, e.g. an index is only created if no index with the same
+ * columns exists, since MySQL has no CREATE INDEX IF NOT EXISTS.
+ *
+ * verify() checks the live schema for the indexes the queries in BooksDpImpl
+ * rely on, so a database where they are missing can be reported, and
+ * hasColumn for the columns added by later migrations, which a database that
+ * is not migrated (db.schema.migrate=false) may lack.
+ */
+public class SchemaMigrator {
+
+    /**
+     * An index the queries need, identified by its columns rather than its name.
+     */
+    public static class RequiredIndex {
+        private final String name;
+        private final String table;
+        private final boolean unique;
+        private final List<String> columns;
+
+        RequiredIndex(String name, String table, boolean unique, String... columns) {
+            this.name = name;
+            this.table = table;
+            this.unique = unique;
+            this.columns = List.of(columns);
+        }
+
+        public String getName() { return name; }
+        public String getTable() { return table; }
+        public boolean isUnique() { return unique; }
+        public List<String> getColumns() { return columns; }
+
+        @Override
+        public String toString() {
+            return (unique ? "unique index " : "index ") + name + " on " + table + " (" + String.join(", ", columns) + ")";
+        }
+    }
+
+    private interface Step {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    private static class Migration {
+        final int version;
+        final String description;
+        final List<Step> steps;
+
+        Migration(int version, String description, Step... steps) {
+            this.version = version;
+            this.description = description;
+            this.steps = List.of(steps);
+        }
+    }
+
+    private static final List<RequiredIndex> REQUIRED_INDEXES = List.of(
+            new RequiredIndex("ux_book_isbn", "Book", true, "isbn"),
+            new RequiredIndex("ix_book_genre_rating", "Book", false, "Genre", "Rating"),
+            new RequiredIndex("ix_book_rating", "Book", false, "Rating"),
+            new RequiredIndex("ix_book_title_id", "Book", false, "title", "BookId"), // title order pages
+            new RequiredIndex("ix_author_person_number", "Author", false, "PersonNumber"),
+            new RequiredIndex("ux_book_author", "BookAuthor", true, "BookId", "AuthorId"),
+            new RequiredIndex("ix_book_author_author", "BookAuthor", false, "AuthorId", "BookId"));
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Create the Book, Author, BookAuthor and IdSequence tables",
+                    sql("CREATE TABLE IF NOT EXISTS Book (" +
+                            "BookId INT NOT NULL AUTO_INCREMENT PRIMARY KEY, " +
+                            "isbn VARCHAR(20) NOT NULL, " +
+                            "title VARCHAR(255) NOT NULL, " +
+                            "publication_year DATE, " +
+                            "Genre VARCHAR(30), " +
+                            "Rating INT)"),
+                    sql("CREATE TABLE IF NOT EXISTS Author (" +
+                            "AuthorId INT NOT NULL AUTO_INCREMENT PRIMARY KEY, " +
+                            "Name VARCHAR(255) NOT NULL, " +
+                            "PersonNumber VARCHAR(20) NOT NULL)"),
+                    sql("CREATE TABLE IF NOT EXISTS BookAuthor (" +
+                            "BookId INT NOT NULL, " +
+                            "AuthorId INT NOT NULL, " +
+                            "PRIMARY KEY (BookId, AuthorId), " +
+                            "FOREIGN KEY (BookId) REFERENCES Book (BookId), " +
+                            "FOREIGN KEY (AuthorId) REFERENCES Author (AuthorId))"),
+                    sql("CREATE TABLE IF NOT EXISTS IdSequence (" +
+                            "Name VARCHAR(64) NOT NULL PRIMARY KEY, NextId INT NOT NULL)")),
+            new Migration(2, "Add the indexes used by the searches",
+                    REQUIRED_INDEXES.stream().map(SchemaMigrator::index).toArray(Step[]::new)),
+            new Migration(3, "Add Author.NameKey for matching author names by word prefix",
+                    column("Author", "NameKey", "VARCHAR(512)"),
+                    SchemaMigrator::fillNameKeys));
+
+    private final ConnectionPool pool;
+
+    public SchemaMigrator(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the newest schema version this application knows
+     */
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    public static List<RequiredIndex> getRequiredIndexes() {
+        return REQUIRED_INDEXES;
+    }
+
+    /**
+     * Runs the migrations newer than the version recorded in the database.
+     * If one fails, the ones before it stay recorded and it is run again on
+     * the next connect.
+     *
+     * @return the schema version of the database afterwards
+     */
+    public int migrate() throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            Connection connection = pooled.getConnection();
+            int version = currentVersion(connection);
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version <= version) {
+                    continue;
+                }
+                if (version == 0 && !tableExists(connection, "SchemaVersion")) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("CREATE TABLE IF NOT EXISTS SchemaVersion (" +
+                                "Version INT NOT NULL PRIMARY KEY, " +
+                                "Description VARCHAR(255) NOT NULL, " +
+                                "AppliedAt TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+                    }
+                }
+                long start = System.currentTimeMillis();
+                for (Step step : migration.steps) {
+                    step.apply(connection);
+                }
+                try (PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO SchemaVersion (Version, Description) VALUES (?, ?)")) {
+                    insert.setInt(1, migration.version);
+                    insert.setString(2, migration.description);
+                    insert.executeUpdate();
+                }
+                version = migration.version;
+                System.out.println("Applied schema migration " + version + ": " + migration.description
+                        + " (" + (System.currentTimeMillis() - start) + " ms).");
+            }
+            return version;
+        }
+    }
+
+    /**
+     * Checks the live schema for the indexes in getRequiredIndexes().
+     *
+     * @return the required indexes that are missing, empty if there are none
+     */
+    public List<RequiredIndex> verify() throws SQLException {
+        List<RequiredIndex> missing = new ArrayList<>();
+        try (PooledConnection pooled = pool.borrow()) {
+            Connection connection = pooled.getConnection();
+            Map<String, List<List<String>>> indexesByTable = new HashMap<>();
+            Map<String, List<List<String>>> uniqueIndexesByTable = new HashMap<>();
+            for (RequiredIndex required : REQUIRED_INDEXES) {
+                if (!indexesByTable.containsKey(required.table)) {
+                    indexesByTable.put(required.table, new ArrayList<>());
+                    uniqueIndexesByTable.put(required.table, new ArrayList<>());
+                    readIndexes(connection, required.table,
+                            indexesByTable.get(required.table), uniqueIndexesByTable.get(required.table));
+                }
+                if (!covers(required, indexesByTable.get(required.table), uniqueIndexesByTable.get(required.table))) {
+                    missing.add(required);
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return whether the table has the column, e.g. Author.NameKey when migration 3 has not run
+     */
+    public boolean hasColumn(String table, String column) throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            return columnExists(pooled.getConnection(), table, column);
+        }
+    }
+
+    /**
+     * Computes the NameKey of the authors that have none, e.g. those written
+     * since the migration by another client or by hand. Needs the column.
+     *
+     * @return the number of authors updated
+     */
+    public int fillNameKeys() throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            return fillNameKeys(pooled.getConnection());
+        }
+    }
+
+    private static Step sql(String statementSql) {
+        return connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(statementSql);
+            }
+        };
+    }
+
+    /**
+     * Adds the column unless the table has it.
+     */
+    private static Step column(String table, String column, String type) {
+        return connection -> {
+            if (columnExists(connection, table, column)) {
+                return;
+            }
+            // names and types come from the constants above, never from user input
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+            }
+        };
+    }
+
+    private static boolean columnExists(Connection connection, String table, String column) throws SQLException {
+        try (ResultSet resultSet = connection.getMetaData().getColumns(connection.getCatalog(), null, table, null)) {
+            while (resultSet.next()) {
+                if (resultSet.getString("COLUMN_NAME").equalsIgnoreCase(column)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the NameKey of the authors that have none, see AuthorIndex.nameKey.
+     *
+     * @return the number of authors updated
+     */
+    private static int fillNameKeys(Connection connection) throws SQLException {
+        try (Statement select = connection.createStatement();
+             ResultSet resultSet = select.executeQuery("SELECT AuthorId, Name FROM Author WHERE NameKey IS NULL");
+             PreparedStatement update = connection.prepareStatement("UPDATE Author SET NameKey = ? WHERE AuthorId = ?")) {
+            int pending = 0;
+            int filled = 0;
+            while (resultSet.next()) {
+                update.setString(1, AuthorIndex.nameKey(resultSet.getString("Name")));
+                update.setInt(2, resultSet.getInt("AuthorId"));
+                update.addBatch();
+                filled++;
+                if (++pending == 1000) {
+                    update.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                update.executeBatch();
+            }
+            return filled;
+        }
+    }
+
+    private static Step index(RequiredIndex index) {
+        return connection -> {
+            List<List<String>> all = new ArrayList<>();
+            List<List<String>> unique = new ArrayList<>();
+            readIndexes(connection, index.table, all, unique);
+            if (covers(index, all, unique)) {
+                return;
+            }
+            // names and columns come from the constants above, never from user input
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE " + (index.unique ? "UNIQUE " : "") + "INDEX " + index.name
+                        + " ON " + index.table + " (" + String.join(", ", index.columns) + ")");
+            }
+        };
+    }
+
+    /**
+     * A unique index is covered by a unique index on exactly its columns, other
+     * indexes by any index starting with their columns.
+     */
+    private static boolean covers(RequiredIndex required, List<List<String>> indexes, List<List<String>> uniqueIndexes) {
+        List<String> columns = required.columns.stream().map(c -> c.toLowerCase(Locale.ROOT)).toList();
+        if (required.unique) {
+            return uniqueIndexes.stream().anyMatch(columns::equals);
+        }
+        return indexes.stream().anyMatch(index ->
+                index.size() >= columns.size() && index.subList(0, columns.size()).equals(columns));
+    }
+
+    /**
+     * Reads the columns of every index on the table, in index order and lower case.
+     */
+    private static void readIndexes(Connection connection, String table, List<List<String>> indexes,
+                                    List<List<String>> uniqueIndexes) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        Map<String, TreeMap<Short, String>> columnsByIndex = new HashMap<>();
+        Map<String, Boolean> uniqueByIndex = new HashMap<>();
+        try (ResultSet resultSet = metaData.getIndexInfo(connection.getCatalog(), null, table, false, false)) {
+            while (resultSet.next()) {
+                String indexName = resultSet.getString("INDEX_NAME");
+                String column = resultSet.getString("COLUMN_NAME");
+                if (indexName == null || column == null) {
+                    continue; // table statistics
+                }
+                columnsByIndex.computeIfAbsent(indexName, n -> new TreeMap<>())
+                        .put(resultSet.getShort("ORDINAL_POSITION"), column.toLowerCase(Locale.ROOT));
+                uniqueByIndex.put(indexName, !resultSet.getBoolean("NON_UNIQUE"));
+            }
+        }
+        for (Map.Entry<String, TreeMap<Short, String>> entry : columnsByIndex.entrySet()) {
+            List<String> columns = new ArrayList<>(entry.getValue().values());
+            indexes.add(columns);
+            if (uniqueByIndex.get(entry.getKey())) {
+                uniqueIndexes.add(columns);
+            }
+        }
+    }
+
+    private static int currentVersion(Connection connection) throws SQLException {
+        if (!tableExists(connection, "SchemaVersion")) {
+            return 0;
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(Version), 0) FROM SchemaVersion")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private static boolean tableExists(Connection connection, String table) throws SQLException {
+        try (ResultSet resultSet = connection.getMetaData().getTables(connection.getCatalog(), null, table, null)) {
+            return resultSet.next();
+        }
+    }
+}
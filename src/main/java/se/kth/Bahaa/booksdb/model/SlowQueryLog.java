@@ -0,0 +1,293 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Logs the statements that take longer than a threshold, as timed by
+ * StatementTracer, together with their bound parameters. Parameters bound to
+ * one of the masked columns (PersonNumber by default) are printed as ***.
+ *
+ * The first time a statement shape (its SQL text) is slow, its EXPLAIN plan is
+ * captured once on a background thread with a connection of its own, since the
+ * caller may still be reading the result. Slow statements and plans are kept
+ * per shape in memory, see getSlowQueries(), printed, and appended to the log
+ * file if one is configured.
+ */
+public class SlowQueryLog implements AutoCloseable {
+
+    /**
+     * What is known about one slow statement shape.
+     */
+    public static class SlowQuery {
+        private final String sql;
+        private final LongAdder count = new LongAdder();
+        private volatile long maxMillis;
+        private volatile String lastParameters = "";
+        private volatile String plan; // null until captured
+        private final AtomicBoolean planRequested = new AtomicBoolean();
+
+        SlowQuery(String sql) {
+            this.sql = sql;
+        }
+
+        public String getSql() { return sql; }
+        public long getCount() { return count.sum(); }
+        public long getMaxMillis() { return maxMillis; }
+        public String getLastParameters() { return lastParameters; }
+        public String getPlan() { return plan; }
+
+        @Override
+        public String toString() {
+            return count.sum() + " x, max " + maxMillis + " ms: " + sql;
+        }
+    }
+
+    private static final Pattern INSERT_COLUMNS =
+            Pattern.compile("^\\s*INSERT\\s+INTO\\s+\\w+\\s*\\(([^)]*)\\)", Pattern.CASE_INSENSITIVE);
+    // a column compared with the placeholder(s) after it: "c = ?", "c LIKE ?", "c IN (?, ?"
+    private static final Pattern COMPARED_COLUMN = Pattern.compile(
+            "(\\w+)\\s*(?:=|<>|!=|<=|>=|<|>|\\bLIKE\\b|\\bIN\\b\\s*\\()\\s*(?:\\?\\s*,\\s*)*$",
+            Pattern.CASE_INSENSITIVE);
+    private static final int MAX_VALUE_LENGTH = 100;
+    private static final int MAX_PARAMETERS_SHOWN = 20; // e.g. of an IN list
+
+    private final ConnectionPool pool;
+    private final long thresholdMillis;
+    private final Set<String> maskedColumns;
+    private final Path logFile;
+    private final Map<String, SlowQuery> slowQueries = new ConcurrentHashMap<>();
+    private final Map<String, boolean[]> maskedParametersBySql = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor explainer;
+
+    /**
+     * @param pool            the pool to borrow a connection from for EXPLAIN
+     * @param thresholdMillis statements taking at least this long are logged
+     * @param maskedColumns   columns whose bound values are never logged, case insensitive
+     * @param logFile         file the slow statements and plans are appended to, or null
+     */
+    public SlowQueryLog(ConnectionPool pool, long thresholdMillis, Set<String> maskedColumns, Path logFile) {
+        this.pool = pool;
+        this.thresholdMillis = thresholdMillis;
+        this.maskedColumns = maskedColumns.stream()
+                .map(c -> c.trim().toLowerCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+        this.logFile = logFile;
+        // one plan at a time is plenty, plans that do not fit in the queue are captured another time
+        this.explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(16), r -> {
+            Thread thread = new Thread(r, "slow-query-explain");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public long getThresholdMillis() {
+        return thresholdMillis;
+    }
+
+    /**
+     * @return the slow statement shapes seen so far, slowest first
+     */
+    public List<SlowQuery> getSlowQueries() {
+        List<SlowQuery> all = new ArrayList<>(slowQueries.values());
+        all.sort(Comparator.comparingLong(SlowQuery::getMaxMillis).reversed());
+        return all;
+    }
+
+    /**
+     * Called by StatementTracer after each statement.
+     *
+     * @param sql        the SQL text, the shape of the statement
+     * @param parameters the bound parameters by index, empty for plain statements
+     * @param batchSize  the number of rows of an executed batch, 0 otherwise
+     */
+    void statementExecuted(String sql, long elapsedNanos, Map<Integer, Object> parameters, int batchSize) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        if (millis < thresholdMillis || sql == null || sql.regionMatches(true, 0, "EXPLAIN ", 0, 8)) {
+            return; // plans are captured below, not logged themselves
+        }
+        String shownParameters = formatParameters(sql, parameters);
+        SlowQuery slowQuery = slowQueries.computeIfAbsent(sql, SlowQuery::new);
+        slowQuery.count.increment();
+        slowQuery.lastParameters = shownParameters;
+        if (millis > slowQuery.maxMillis) {
+            slowQuery.maxMillis = millis; // racy, but only ever an approximate maximum
+        }
+
+        String entry = "Slow query (" + millis + " ms" + (batchSize > 0 ? ", batch of " + batchSize : "") + "): "
+                + sql + (shownParameters.isEmpty() ? "" : System.lineSeparator() + "  parameters: " + shownParameters);
+        System.out.println(entry);
+        append(entry);
+        if (slowQuery.plan == null && isExplainable(sql) && slowQuery.planRequested.compareAndSet(false, true)) {
+            Map<Integer, Object> boundValues = new TreeMap<>(parameters);
+            SlowQuery explained = slowQuery;
+            try {
+                explainer.execute(() -> capturePlan(explained, boundValues));
+            } catch (RejectedExecutionException e) {
+                explained.planRequested.set(false); // busy or closed, try again the next time it is slow
+            }
+        }
+    }
+
+    /**
+     * Stops capturing plans. Plans already being captured are dropped.
+     */
+    @Override
+    public void close() {
+        explainer.shutdownNow();
+    }
+
+    private void capturePlan(SlowQuery slowQuery, Map<Integer, Object> parameters) {
+        String plan;
+        try (PooledConnection pooled = pool.borrow()) {
+            plan = explain(pooled.getConnection(), slowQuery.sql, parameters);
+        } catch (SQLException e) {
+            plan = "EXPLAIN failed: " + e.getMessage();
+        }
+        slowQuery.plan = plan;
+        String entry = "Plan for: " + slowQuery.sql + System.lineSeparator() + plan;
+        System.out.println(entry);
+        append(entry);
+    }
+
+    /**
+     * Runs EXPLAIN with the same parameters and formats the result as one line
+     * per row, e.g. MySQL's table, type, key and rows columns.
+     */
+    private static String explain(Connection connection, String sql, Map<Integer, Object> parameters)
+            throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+            for (Map.Entry<Integer, Object> parameter : parameters.entrySet()) {
+                statement.setObject(parameter.getKey(), parameter.getValue());
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                int columns = metaData.getColumnCount();
+                while (resultSet.next()) {
+                    if (columns == 1) { // e.g. H2, a single PLAN column
+                        plan.append("  ").append(resultSet.getString(1).replace("\n", "\n  "));
+                    } else {
+                        plan.append(" ");
+                        for (int i = 1; i <= columns; i++) {
+                            plan.append(' ').append(metaData.getColumnLabel(i)).append('=').append(resultSet.getString(i));
+                        }
+                    }
+                    plan.append(System.lineSeparator());
+                }
+            }
+        }
+        return plan.toString().stripTrailing();
+    }
+
+    private static boolean isExplainable(String sql) {
+        String start = sql.stripLeading().toUpperCase(Locale.ROOT);
+        return start.startsWith("SELECT") || start.startsWith("UPDATE")
+                || start.startsWith("DELETE") || start.startsWith("INSERT");
+    }
+
+    private String formatParameters(String sql, Map<Integer, Object> parameters) {
+        if (parameters.isEmpty()) {
+            return "";
+        }
+        boolean[] masked = maskedParametersBySql.computeIfAbsent(sql, this::findMaskedParameters);
+        StringBuilder shown = new StringBuilder("[");
+        int count = 0;
+        for (Map.Entry<Integer, Object> parameter : parameters.entrySet()) {
+            int index = parameter.getKey();
+            if (count++ == MAX_PARAMETERS_SHOWN) {
+                shown.append(", ... ").append(parameters.size() - MAX_PARAMETERS_SHOWN).append(" more");
+                break;
+            }
+            if (shown.length() > 1) {
+                shown.append(", ");
+            }
+            shown.append(index).append(": ");
+            Object value = parameter.getValue();
+            if (index - 1 < masked.length && masked[index - 1] && value != null) {
+                shown.append("***");
+            } else if (value instanceof String text) {
+                shown.append('\'').append(text.length() > MAX_VALUE_LENGTH
+                        ? text.substring(0, MAX_VALUE_LENGTH) + "..." : text).append('\'');
+            } else {
+                shown.append(value);
+            }
+        }
+        return shown.append(']').toString();
+    }
+
+    /**
+     * Works out which placeholders of the SQL are bound to a masked column:
+     * by position in the column list of an INSERT ... VALUES, otherwise by the column
+     * compared with the placeholder. Placeholders whose column cannot be told
+     * are not masked.
+     */
+    private boolean[] findMaskedParameters(String sql) {
+        List<Integer> placeholders = new ArrayList<>();
+        boolean inString = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                inString = !inString;
+            } else if (c == '?' && !inString) {
+                placeholders.add(i);
+            }
+        }
+        boolean[] masked = new boolean[placeholders.size()];
+        Matcher insert = INSERT_COLUMNS.matcher(sql);
+        if (insert.find()) {
+            String[] columns = insert.group(1).split(",");
+            for (int i = 0; i < masked.length; i++) { // several rows repeat the column list
+                masked[i] = maskedColumns.contains(columns[i % columns.length].trim().toLowerCase(Locale.ROOT));
+            }
+            return masked;
+        }
+        for (int i = 0; i < masked.length; i++) {
+            Matcher compared = COMPARED_COLUMN.matcher(sql.substring(0, placeholders.get(i)));
+            masked[i] = compared.find() && maskedColumns.contains(compared.group(1).toLowerCase(Locale.ROOT));
+        }
+        return masked;
+    }
+
+    private void append(String entry) {
+        if (logFile == null) {
+            return;
+        }
+        String line = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS) + " " + entry + System.lineSeparator();
+        synchronized (this) {
+            try {
+                Files.writeString(logFile, line, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.out.println("Could not write to the slow query log " + logFile + ": " + e.getMessage());
+            }
+        }
+    }
+}
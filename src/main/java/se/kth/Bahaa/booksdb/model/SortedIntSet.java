@@ -0,0 +1,141 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.util.Arrays;
+
+/**
+ * A set of ints kept as a sorted primitive array, used for the posting lists
+ * of the in-memory search indexes. Lookups are binary searches; adding ids in
+ * ascending order, as when an index is built from a query ordered by id, is
+ * an append. Not thread safe, the indexes guard it with their own locks.
+ */
+class SortedIntSet {
+    private static final int[] EMPTY = new int[0];
+
+    private int[] values = EMPTY;
+    private int size;
+
+    /**
+     * @param sorted distinct values in ascending order, e.g. the result of union
+     */
+    static SortedIntSet of(int[] sorted) {
+        SortedIntSet set = new SortedIntSet();
+        set.values = sorted;
+        set.size = sorted.length;
+        return set;
+    }
+
+    boolean add(int value) {
+        if (size > 0 && values[size - 1] < value) {
+            ensureCapacity(size + 1);
+            values[size++] = value;
+            return true;
+        }
+        int index = Arrays.binarySearch(values, 0, size, value);
+        if (index >= 0) {
+            return false;
+        }
+        int insertAt = -index - 1;
+        ensureCapacity(size + 1);
+        System.arraycopy(values, insertAt, values, insertAt + 1, size - insertAt);
+        values[insertAt] = value;
+        size++;
+        return true;
+    }
+
+    boolean remove(int value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    boolean contains(int value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the index of the first value greater than the given one, size() if there is none
+     */
+    int indexAfter(int value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    int get(int index) {
+        return values[index];
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * @return the values present in every set, in ascending order
+     */
+    static int[] intersect(SortedIntSet[] sets) {
+        if (sets.length == 0) {
+            return EMPTY;
+        }
+        SortedIntSet[] bySize = sets.clone();
+        Arrays.sort(bySize, (a, b) -> Integer.compare(a.size, b.size));
+        int[] result = bySize[0].toArray();
+        int count = result.length;
+        for (int s = 1; s < bySize.length && count > 0; s++) {
+            SortedIntSet other = bySize[s];
+            int kept = 0;
+            int from = 0;
+            for (int i = 0; i < count; i++) {
+                int index = Arrays.binarySearch(other.values, from, other.size, result[i]);
+                if (index >= 0) {
+                    result[kept++] = result[i];
+                    from = index + 1;
+                } else {
+                    from = -index - 1;
+                }
+            }
+            count = kept;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return the values present in any of the sets, in ascending order
+     */
+    static int[] union(Iterable<SortedIntSet> sets) {
+        int total = 0;
+        for (SortedIntSet set : sets) {
+            total += set.size;
+        }
+        int[] all = new int[total];
+        int offset = 0;
+        for (SortedIntSet set : sets) {
+            System.arraycopy(set.values, 0, all, offset, set.size);
+            offset += set.size;
+        }
+        Arrays.sort(all);
+        int count = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (count == 0 || all[count - 1] != all[i]) {
+                all[count++] = all[i];
+            }
+        }
+        return Arrays.copyOf(all, count);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, Math.max(capacity, Math.max(4, values.length + (values.length >> 1))));
+        }
+    }
+}
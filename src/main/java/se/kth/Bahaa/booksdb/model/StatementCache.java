@@ -0,0 +1,133 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded LRU cache of prepared statements for one pooled connection, keyed
+ * by SQL text. The statements handed out are proxies: closing one returns it to
+ * the cache instead of closing it, so callers keep using try-with-resources.
+ * A connection is used by one thread at a time, so the cache is not synchronized.
+ */
+class StatementCache {
+    private final Connection connection;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final Map<String, CachedStatement> statements;
+
+    StatementCache(Connection connection, int maxSize, LongAdder hits, LongAdder misses) {
+        this.connection = connection;
+        this.hits = hits;
+        this.misses = misses;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= maxSize) {
+                    return false;
+                }
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a prepared statement for the SQL, from the cache if there is an
+     * idle one. If the statement for this SQL is already in use, for example by
+     * an enclosing call on the same connection, an uncached one is prepared.
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        CachedStatement cached = statements.get(sql);
+        if (cached != null && !cached.inUse) {
+            hits.increment();
+            cached.inUse = true;
+            return cached.proxy;
+        }
+        misses.increment();
+        PreparedStatement statement = connection.prepareStatement(sql);
+        if (cached != null) {
+            return statement;
+        }
+        cached = new CachedStatement(statement);
+        cached.inUse = true;
+        statements.put(sql, cached);
+        return cached.proxy;
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    void closeAll() {
+        List<CachedStatement> all = new ArrayList<>(statements.values());
+        statements.clear();
+        all.forEach(CachedStatement::evict);
+    }
+
+    private static class CachedStatement implements InvocationHandler {
+        private final PreparedStatement statement;
+        private final PreparedStatement proxy;
+        private boolean inUse;
+        private boolean evicted;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        /**
+         * Closes the real statement now, or when the current user hands it back.
+         */
+        void evict() {
+            evicted = true;
+            if (!inUse) {
+                closeQuietly();
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (inUse) {
+                        inUse = false;
+                        if (evicted) {
+                            closeQuietly();
+                        } else {
+                            // leave nothing behind for the next user of this statement
+                            statement.clearParameters();
+                            statement.clearBatch();
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return !inUse || statement.isClosed();
+                default:
+                    try {
+                        return method.invoke(statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // the connection is probably gone as well
+            }
+        }
+    }
+}
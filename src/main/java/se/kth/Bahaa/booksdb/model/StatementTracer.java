@@ -0,0 +1,158 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Wraps the connections of the pool so that every statement executed on them,
+ * including commits and rollbacks, is counted as a round trip to the database
+ * for the thread that made it. InstrumentedBooksDb reads the count before and
+ * after a call to tell how many round trips the call took.
+ *
+ * With a SlowQueryLog, each execute is also timed and the parameters bound to
+ * a prepared statement are kept until they are cleared, so a slow statement
+ * can be logged with them. For a query the time is until the first rows are
+ * available, not until the result has been read.
+ */
+final class StatementTracer {
+    private static final ThreadLocal<long[]> ROUND_TRIPS = ThreadLocal.withInitial(() -> new long[1]);
+
+    private StatementTracer() {
+    }
+
+    /**
+     * @return the number of round trips made by the current thread so far
+     */
+    static long roundTrips() {
+        return ROUND_TRIPS.get()[0];
+    }
+
+    /**
+     * @param slowQueryLog where to report the statements executed, or null to only count them
+     */
+    static Connection wrap(Connection connection, SlowQueryLog slowQueryLog) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler(connection, slowQueryLog));
+    }
+
+    private static void countRoundTrip() {
+        ROUND_TRIPS.get()[0]++;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+        private final SlowQueryLog slowQueryLog;
+
+        ConnectionHandler(Connection connection, SlowQueryLog slowQueryLog) {
+            this.connection = connection;
+            this.slowQueryLog = slowQueryLog;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("commit") || name.equals("rollback")) {
+                countRoundTrip();
+            }
+            Object result = StatementTracer.invoke(connection, method, args);
+            if (result instanceof Statement && (name.equals("createStatement")
+                    || name.equals("prepareStatement") || name.equals("prepareCall"))) {
+                Class<?> type = result instanceof CallableStatement ? CallableStatement.class
+                        : result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+                return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type},
+                        new StatementHandler((Statement) result, (Connection) proxy, slowQueryLog,
+                                name.equals("createStatement") ? null : (String) args[0]));
+            }
+            return result;
+        }
+    }
+
+    private static class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final Connection connection;
+        private final SlowQueryLog slowQueryLog;
+        private final String preparedSql; // null for a plain Statement
+        private final Map<Integer, Object> parameters;
+        private int batchSize;
+
+        StatementHandler(Statement statement, Connection connection, SlowQueryLog slowQueryLog, String preparedSql) {
+            this.statement = statement;
+            this.connection = connection;
+            this.slowQueryLog = slowQueryLog;
+            this.preparedSql = preparedSql;
+            this.parameters = slowQueryLog != null && preparedSql != null ? new TreeMap<>() : null;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                countRoundTrip();
+                if (slowQueryLog != null) {
+                    return timed(method, args, name.equals("executeBatch") || name.equals("executeLargeBatch"));
+                }
+            } else if (name.equals("getConnection")) {
+                return connection; // the traced connection, not the driver's
+            } else if (parameters != null) {
+                recordParameters(name, args);
+            }
+            return StatementTracer.invoke(statement, method, args);
+        }
+
+        private Object timed(Method method, Object[] args, boolean batch) throws Throwable {
+            long start = System.nanoTime();
+            try {
+                return StatementTracer.invoke(statement, method, args);
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                // a plain Statement gets its SQL with the execute call
+                String sql = preparedSql != null ? preparedSql
+                        : args != null && args.length > 0 && args[0] instanceof String text ? text : null;
+                slowQueryLog.statementExecuted(sql, elapsed, parameters != null ? parameters : Map.of(),
+                        batch ? batchSize : 0);
+                if (batch) {
+                    batchSize = 0;
+                }
+            }
+        }
+
+        private void recordParameters(String name, Object[] args) {
+            if (name.equals("clearParameters")) {
+                parameters.clear();
+            } else if (name.equals("addBatch")) {
+                batchSize++;
+            } else if (name.equals("clearBatch")) {
+                batchSize = 0;
+            } else if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                Object value = args[1];
+                if (name.equals("setNull")) {
+                    value = null;
+                } else if (value instanceof InputStream || value instanceof Reader
+                        || value instanceof Blob || value instanceof Clob) {
+                    value = "<" + name.substring(3) + ">"; // not read, it can only be read once
+                }
+                parameters.put(index, value);
+            }
+        }
+    }
+}
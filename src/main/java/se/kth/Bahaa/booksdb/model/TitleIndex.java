@@ -0,0 +1,270 @@
+package se.kth.Bahaa.booksdb.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory inverted index from title trigrams to BookIds, answering
+ * case-insensitive substring searches on titles without scanning them all.
+ * A query is answered by intersecting the posting lists of its trigrams and
+ * checking the remaining candidates against their titles.
+ *
+ * The index is cold until a build has finished; callers should then fall back
+ * to another way of searching. Changes made while a build is running win over
+ * the possibly older rows the build reads.
+ */
+class TitleIndex {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, String> titles = new HashMap<>(); // normalized titles by BookId
+    private final Map<Long, SortedIntSet> postings = new HashMap<>();
+    private Set<Integer> changedDuringBuild;
+    private int currentBuild; // builds with an older number were superseded and are ignored
+    private volatile boolean warm;
+
+    boolean isWarm() {
+        return warm;
+    }
+
+    /**
+     * Empties the index and marks it cold until finishBuild is called.
+     *
+     * @return the build number to pass to addFromBuild and finishBuild
+     */
+    int beginBuild() {
+        lock.writeLock().lock();
+        try {
+            warm = false;
+            titles.clear();
+            postings.clear();
+            changedDuringBuild = new HashSet<>();
+            return ++currentBuild;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a title read by the build, unless the book was changed since the build began.
+     */
+    void addFromBuild(int build, int bookId, String title) {
+        lock.writeLock().lock();
+        try {
+            if (build == currentBuild && changedDuringBuild != null && !changedDuringBuild.contains(bookId)) {
+                index(bookId, title);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void finishBuild(int build) {
+        lock.writeLock().lock();
+        try {
+            if (build == currentBuild) {
+                changedDuringBuild = null;
+                warm = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Leaves the index cold after a failed build, unless a newer build has started.
+     */
+    void abandonBuild(int build) {
+        lock.writeLock().lock();
+        try {
+            if (build == currentBuild) {
+                warm = false;
+                titles.clear();
+                postings.clear();
+                changedDuringBuild = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Empties the index and leaves it cold, e.g. when disconnecting.
+     */
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            warm = false;
+            titles.clear();
+            postings.clear();
+            changedDuringBuild = null;
+            currentBuild++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a book or replaces its title.
+     */
+    void put(int bookId, String title) {
+        lock.writeLock().lock();
+        try {
+            markChanged(bookId);
+            unindex(bookId);
+            index(bookId, title);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(int bookId) {
+        lock.writeLock().lock();
+        try {
+            markChanged(bookId);
+            unindex(bookId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the books whose title contains the query, ignoring case. The best
+     * matches come first: exact titles, then titles starting with the query,
+     * then matches at the start of a word, then other matches, earlier and in
+     * shorter titles first.
+     *
+     * @return the matching BookIds in rank order
+     */
+    int[] search(String query) {
+        String needle = normalize(query);
+        lock.readLock().lock();
+        try {
+            int[] candidates;
+            if (needle.length() < 3) {
+                candidates = titles.keySet().stream().mapToInt(Integer::intValue).toArray(); // too short for a trigram
+            } else {
+                long[] grams = trigrams(needle);
+                SortedIntSet[] lists = new SortedIntSet[grams.length];
+                for (int i = 0; i < grams.length; i++) {
+                    lists[i] = postings.get(grams[i]);
+                    if (lists[i] == null) {
+                        return new int[0];
+                    }
+                }
+                candidates = SortedIntSet.intersect(lists);
+            }
+
+            List<Match> matches = new ArrayList<>();
+            for (int bookId : candidates) {
+                String title = titles.get(bookId);
+                int position = title.indexOf(needle);
+                if (position >= 0) { // trigrams can match in the wrong order, check the real title
+                    matches.add(new Match(bookId, rank(title, needle, position), position, title.length()));
+                }
+            }
+            matches.sort(Comparator.comparingInt((Match m) -> m.rank)
+                    .thenComparingInt(m -> m.position)
+                    .thenComparingInt(m -> m.length)
+                    .thenComparingInt(m -> m.bookId));
+            return matches.stream().mapToInt(m -> m.bookId).toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return titles.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static class Match {
+        final int bookId;
+        final int rank;
+        final int position;
+        final int length;
+
+        Match(int bookId, int rank, int position, int length) {
+            this.bookId = bookId;
+            this.rank = rank;
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    private static int rank(String title, String needle, int position) {
+        if (position == 0) {
+            return title.length() == needle.length() ? 0 : 1;
+        }
+        return Character.isLetterOrDigit(title.charAt(position - 1)) ? 3 : 2;
+    }
+
+    private void markChanged(int bookId) {
+        if (changedDuringBuild != null) {
+            changedDuringBuild.add(bookId);
+        }
+    }
+
+    private void index(int bookId, String title) {
+        if (title == null) {
+            return;
+        }
+        String normalized = normalize(title);
+        titles.put(bookId, normalized);
+        for (long gram : trigrams(normalized)) {
+            postings.computeIfAbsent(gram, g -> new SortedIntSet()).add(bookId);
+        }
+    }
+
+    private void unindex(int bookId) {
+        String old = titles.remove(bookId);
+        if (old == null) {
+            return;
+        }
+        for (long gram : trigrams(old)) {
+            SortedIntSet list = postings.get(gram);
+            if (list != null) {
+                list.remove(bookId);
+                if (list.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the distinct trigrams of the text, each packed as three 16-bit chars in a long
+     */
+    private static long[] trigrams(String text) {
+        if (text.length() < 3) {
+            return new long[0];
+        }
+        long[] grams = new long[text.length() - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+        }
+        Arrays.sort(grams);
+        int count = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (count == 0 || grams[count - 1] != grams[i]) {
+                grams[count++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, count);
+    }
+}
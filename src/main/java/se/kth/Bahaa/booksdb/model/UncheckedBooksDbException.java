@@ -0,0 +1,17 @@
+package se.kth.Bahaa.booksdb.model;
+
+/**
+ * Wraps a BooksDbException where a checked exception cannot be thrown, for
+ * example while a Stream returned by BooksDbInterface is being consumed.
+ */
+public class UncheckedBooksDbException extends RuntimeException {
+
+    public UncheckedBooksDbException(BooksDbException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized BooksDbException getCause() {
+        return (BooksDbException) super.getCause();
+    }
+}
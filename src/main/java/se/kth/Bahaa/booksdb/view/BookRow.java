@@ -0,0 +1,71 @@
+package se.kth.Bahaa.booksdb.view;
+
+import se.kth.Bahaa.booksdb.model.Author;
+import se.kth.Bahaa.booksdb.model.Book;
+import se.kth.Bahaa.booksdb.model.Genre;
+
+import java.sql.Date;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.WeakHashMap;
+
+/**
+ * What the book table shows of a Book, computed once per version of the book
+ * instead of once per painted cell: the author names and person numbers are
+ * joined here, and the columns read the fields directly instead of through
+ * PropertyValueFactory's reflection. Immutable.
+ */
+final class BookRow {
+    private final int modificationCount; // of the book when the row was made
+    private final String title;
+    private final String isbn;
+    private final Date published;
+    private final String authorNames;
+    private final String authorPersonNumbers;
+    private final Genre genre;
+    private final int rating;
+
+    private BookRow(Book book) {
+        this.modificationCount = book.getModificationCount();
+        this.title = book.getTitle();
+        this.isbn = book.getIsbn();
+        this.published = book.getPublished() == null ? null : new Date(book.getPublished().getTime());
+        StringJoiner names = new StringJoiner(", ");
+        StringJoiner personNumbers = new StringJoiner(", ");
+        for (Author author : book.getAuthors()) {
+            names.add(author.getName());
+            personNumbers.add(author.getPersonNumber());
+        }
+        this.authorNames = names.toString();
+        this.authorPersonNumbers = personNumbers.toString();
+        this.genre = book.getGenre();
+        this.rating = book.getRating();
+    }
+
+    String getTitle() { return title; }
+    String getIsbn() { return isbn; }
+    Date getPublished() { return published; }
+    String getAuthorNames() { return authorNames; }
+    String getAuthorPersonNumbers() { return authorPersonNumbers; }
+    Genre getGenre() { return genre; }
+    int getRating() { return rating; }
+
+    /**
+     * The rows of the books shown, made again when a book has been changed
+     * since, see Book.getModificationCount. The books are held weakly, so the
+     * rows of books no longer in the table, e.g. of dropped pages of a
+     * LazyBookList, go with them. Used on the FX thread only.
+     */
+    static class Cache {
+        private final Map<Book, BookRow> rows = new WeakHashMap<>(); // Book has identity equals
+
+        BookRow rowFor(Book book) {
+            BookRow row = rows.get(book);
+            if (row == null || row.modificationCount != book.getModificationCount()) {
+                row = new BookRow(book);
+                rows.put(book, row);
+            }
+            return row;
+        }
+    }
+}
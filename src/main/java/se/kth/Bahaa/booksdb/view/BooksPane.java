@@ -3,14 +3,15 @@
     import java.sql.Date;
     import java.time.LocalDate;
     import java.util.*;
+    import java.util.function.Function;
     import java.util.stream.Collectors;
 
+    import javafx.beans.property.ReadOnlyObjectWrapper;
     import javafx.collections.FXCollections;
     import javafx.collections.ObservableList;
     import javafx.geometry.Insets;
     import javafx.geometry.Pos;
     import javafx.scene.control.*;
-    import javafx.scene.control.cell.PropertyValueFactory;
     import javafx.scene.layout.*;
     import javafx.stage.Popup;
     import se.kth.Bahaa.booksdb.model.*;
@@ -24,30 +25,31 @@
      */
     public class BooksPane extends VBox {
         private TableView<Book> booksTable;
-        private ObservableList<Book> booksInTable; // the data backing the table view
+        private ObservableList<Book> booksInTable; // the data backing the table view, unless it shows a LazyBookList
+        private TableColumn<Book, String> titleCol;
+        private final BookRow.Cache bookRows = new BookRow.Cache(); // what the table shows of each book
         private ObservableList<Author> authorList = FXCollections.observableArrayList();
         private BooksDbInterface booksDb;
 
         private ComboBox<SearchMode> searchModeBox;
         private TextField searchField;
         private Button searchButton;
+        private Label facetTotal;
+        private MenuButton genreFacets;
+        private MenuButton ratingFacets;
+        private MenuButton yearFacets;
+        private HBox failedWritesBar;
+        private Label failedWritesLabel;
         private MenuBar menuBar;
         private Controller controller;
-        private BooksDpImpl booksDbImpl;
 
-        public BooksPane(BooksDpImpl booksDb, BooksDpImpl booksDbImpl, Properties dbProperties) {
+        public BooksPane(BooksDbInterface booksDb, Properties dbProperties) {
             this.controller = new Controller(booksDb, this, dbProperties); // Pass dbProperties to the controller
             this.booksDb = booksDb;
-            this.booksDbImpl = booksDbImpl;
             this.init();
         }
         public void disconnectFromDatabase() {
-            try {
-                booksDb.disconnect();
-            } catch (BooksDbException e) {
-
-                e.printStackTrace();
-            }
+            controller.disconnectFromDatabase();
         }
         /**
          * Display a new set of books, e.g. from a database select, in the
@@ -58,6 +60,150 @@
         public void displayBooks(List<Book> books) {
             booksInTable.clear();
             booksInTable.addAll(books);
+            if (booksTable.getItems() != booksInTable) {
+                booksTable.setItems(booksInTable);
+            }
+        }
+
+        /**
+         * Displays books that are loaded a page at a time as they are scrolled
+         * to, see LazyBookList. Clicking the Title header sorts them in the
+         * database; the other columns cannot be sorted then.
+         */
+        void displayLazyBooks(LazyBookList books) {
+            if (!booksTable.getSortOrder().isEmpty() && booksTable.getSortOrder().get(0) != titleCol) {
+                booksTable.getSortOrder().clear(); // sorted in memory before, which the database cannot do
+            }
+            sortInDatabase(books);
+            if (booksTable.getItems() != books) {
+                booksTable.setItems(books);
+            }
+        }
+
+        /**
+         * The sort policy for a LazyBookList: its only orders are by BookId and
+         * by title.
+         *
+         * @return false if the table is sorted on a column the database does not order by
+         */
+        private boolean sortInDatabase(LazyBookList books) {
+            List<TableColumn<Book, ?>> sortOrder = booksTable.getSortOrder();
+            if (sortOrder.isEmpty()) {
+                books.sort(BookSortOrder.BOOK_ID, false);
+                return true;
+            }
+            if (sortOrder.size() > 1 || sortOrder.get(0) != titleCol) {
+                return false;
+            }
+            books.sort(BookSortOrder.TITLE, titleCol.getSortType() == TableColumn.SortType.DESCENDING);
+            return true;
+        }
+
+        /**
+         * Applies committed writes to the table where the books are: an updated
+         * book replaces its row, a removed one loses it and added ones are
+         * appended. The other rows are left alone, so the selection and the
+         * scroll position stay, however many books are shown.
+         *
+         * @param changes the changes of one write, from AsyncBooksDb
+         */
+        public void applyBookChanges(List<BookChange> changes) {
+            if (booksTable.getItems() instanceof LazyBookList) {
+                ((LazyBookList) booksTable.getItems()).applyChanges(changes);
+                return;
+            }
+            Map<Integer, BookChange> changesByBookId = new HashMap<>();
+            List<Book> added = new ArrayList<>();
+            for (BookChange change : changes) {
+                if (change.getType() == BookChange.Type.ADDED) {
+                    added.add(change.getBook());
+                } else {
+                    changesByBookId.put(change.getBook().getBookId(), change);
+                }
+            }
+            Book selected = booksTable.getSelectionModel().getSelectedItem();
+
+            if (!changesByBookId.isEmpty()) {
+                Set<Book> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (int i = 0; i < booksInTable.size(); i++) {
+                    BookChange change = changesByBookId.get(booksInTable.get(i).getBookId());
+                    if (change == null) {
+                        continue;
+                    }
+                    if (change.getType() == BookChange.Type.REMOVED) {
+                        removed.add(booksInTable.get(i));
+                    } else {
+                        booksInTable.set(i, change.getBook()); // also redraws a book that was edited in place
+                    }
+                }
+                if (!removed.isEmpty()) {
+                    booksInTable.removeAll(removed); // one change for all of them
+                }
+            }
+            booksInTable.addAll(added);
+
+            // replacing the selected row clears the selection in some versions of TableView
+            if (selected != null && booksTable.getSelectionModel().getSelectedItem() == null) {
+                BookChange change = changesByBookId.get(selected.getBookId());
+                if (change == null) {
+                    booksTable.getSelectionModel().select(selected);
+                } else if (change.getType() == BookChange.Type.UPDATED) {
+                    booksTable.getSelectionModel().select(change.getBook());
+                }
+            }
+        }
+
+        /**
+         * Shows how many books of the latest search there are per genre, rating
+         * and year; choosing one narrows the search down to it.
+         *
+         * @param facets the counts, or null to hide them
+         */
+        public void displayFacets(BookFacets facets) {
+            boolean visible = facets != null;
+            for (Control control : List.of(facetTotal, genreFacets, ratingFacets, yearFacets)) {
+                control.setVisible(visible);
+                control.setManaged(visible);
+            }
+            if (!visible) {
+                return;
+            }
+            facetTotal.setText(facets.getTotal() + (facets.getTotal() == 1 ? " book" : " books"));
+            genreFacets.getItems().clear();
+            facets.getGenreCounts().forEach((genre, count) ->
+                    genreFacets.getItems().add(facetItem(genre + " (" + count + ")",
+                            () -> controller.onGenreFacetSelected(genre))));
+            ratingFacets.getItems().clear();
+            facets.getRatingCounts().forEach((rating, count) ->
+                    ratingFacets.getItems().add(facetItem(rating + " (" + count + ")",
+                            () -> controller.onRatingFacetSelected(rating))));
+            yearFacets.getItems().clear();
+            facets.getYearCounts().forEach((year, count) ->
+                    yearFacets.getItems().add(facetItem(year + " (" + count + ")",
+                            () -> controller.onYearFacetSelected(year))));
+        }
+
+        /**
+         * Shows that changes could not be saved, with buttons to try them
+         * again or drop them.
+         *
+         * @param failedWrites the number of changes not saved, 0 to hide the bar
+         * @param message      why the latest one failed, or null
+         */
+        public void displayFailedWrites(int failedWrites, String message) {
+            boolean visible = failedWrites > 0;
+            failedWritesBar.setVisible(visible);
+            failedWritesBar.setManaged(visible);
+            if (visible) {
+                failedWritesLabel.setText(failedWrites + (failedWrites == 1 ? " change was" : " changes were")
+                        + " not saved" + (message == null ? "." : ": " + message));
+            }
+        }
+
+        private static MenuItem facetItem(String text, Runnable onSelected) {
+            MenuItem item = new MenuItem(text);
+            item.setOnAction(e -> onSelected.run());
+            return item;
         }
 
         /**
@@ -78,13 +224,17 @@
             initSearchView();
             initMenus();
 
-            FlowPane bottomPane = new FlowPane(10, 10, searchModeBox, searchField, searchButton);
+            initFacetView();
+            initFailedWritesView();
+
+            FlowPane bottomPane = new FlowPane(10, 10, searchModeBox, searchField, searchButton,
+                    facetTotal, genreFacets, ratingFacets, yearFacets);
             bottomPane.setPadding(new Insets(10));
             bottomPane.setAlignment(Pos.CENTER_LEFT);
 
             BorderPane mainPane = new BorderPane();
             mainPane.setCenter(booksTable);
-            mainPane.setBottom(bottomPane);
+            mainPane.setBottom(new VBox(failedWritesBar, bottomPane, initAdvancedSearchView()));
 
             this.getChildren().addAll(menuBar, mainPane);
             VBox.setVgrow(mainPane, Priority.ALWAYS);
@@ -95,29 +245,146 @@
             booksTable.setEditable(false);
             booksTable.setPlaceholder(new Label("No rows to display"));
 
-            TableColumn<Book, String> titleCol = new TableColumn<>("Title");
+            titleCol = new TableColumn<>("Title");
             TableColumn<Book, String> isbnCol = new TableColumn<>("ISBN");
             TableColumn<Book, Date> publishedCol = new TableColumn<>("Published");
-
             TableColumn<Book, String> authorNamesCol = new TableColumn<>("Authors");
-            authorNamesCol.setCellValueFactory(new PropertyValueFactory<>("authorNames"));
-
             TableColumn<Book, String> authorPersonNumbersCol = new TableColumn<>("Author Person Numbers");
-            authorPersonNumbersCol.setCellValueFactory(new PropertyValueFactory<>("authorPersonNumbers"));
-
-
-            TableColumn<Book, String> genreCol = new TableColumn<>("Genre");
+            TableColumn<Book, Genre> genreCol = new TableColumn<>("Genre");
             TableColumn<Book, Integer> ratingCol = new TableColumn<>("Rating");
-            titleCol.setCellValueFactory(new PropertyValueFactory<>("title"));
-            isbnCol.setCellValueFactory(new PropertyValueFactory<>("isbn"));
-            publishedCol.setCellValueFactory(new PropertyValueFactory<>("published"));
-            genreCol.setCellValueFactory(new PropertyValueFactory<>("genre"));
-            ratingCol.setCellValueFactory(new PropertyValueFactory<>("rating"));
+
+            showInColumn(titleCol, BookRow::getTitle);
+            showInColumn(isbnCol, BookRow::getIsbn);
+            showInColumn(publishedCol, BookRow::getPublished);
+            showInColumn(authorNamesCol, BookRow::getAuthorNames);
+            showInColumn(authorPersonNumbersCol, BookRow::getAuthorPersonNumbers);
+            showInColumn(genreCol, BookRow::getGenre);
+            showInColumn(ratingCol, BookRow::getRating);
 
             booksTable.getColumns().addAll(titleCol, isbnCol, publishedCol, authorNamesCol, authorPersonNumbersCol, genreCol, ratingCol);
 
             titleCol.prefWidthProperty().bind(booksTable.widthProperty().multiply(0.5));
             booksTable.setItems(booksInTable);
+            booksTable.setSortPolicy(table -> table.getItems() instanceof LazyBookList
+                    ? sortInDatabase((LazyBookList) table.getItems())
+                    : TableView.DEFAULT_SORT_POLICY.call(table));
+        }
+
+        /**
+         * Fills the column with a value of the book's BookRow. A row not loaded
+         * yet, see LazyBookList, has no book and shows empty cells.
+         */
+        private <T> void showInColumn(TableColumn<Book, T> column, Function<BookRow, T> value) {
+            column.setCellValueFactory(cell -> cell.getValue() == null
+                    ? null : new ReadOnlyObjectWrapper<>(value.apply(bookRows.rowFor(cell.getValue()))));
+        }
+
+        /**
+         * A collapsed pane for searching on several criteria at once, in one
+         * query, see BookSearchSpec. Fields left empty match all books.
+         */
+        private TitledPane initAdvancedSearchView() {
+            TextField titleField = new TextField();
+            titleField.setPromptText("Title contains...");
+            TextField authorField = new TextField();
+            authorField.setPromptText("Author...");
+
+            List<CheckBox> genreBoxes = new ArrayList<>();
+            for (Genre genre : Genre.values()) {
+                CheckBox genreBox = new CheckBox(genre.toString());
+                genreBox.setUserData(genre);
+                genreBoxes.add(genreBox);
+            }
+
+            ComboBox<Integer> minRatingBox = new ComboBox<>();
+            ComboBox<Integer> maxRatingBox = new ComboBox<>();
+            for (int rating = 1; rating <= 5; rating++) {
+                minRatingBox.getItems().add(rating);
+                maxRatingBox.getItems().add(rating);
+            }
+            minRatingBox.setPromptText("Min rating");
+            maxRatingBox.setPromptText("Max rating");
+
+            DatePicker fromPicker = new DatePicker();
+            fromPicker.setPromptText("Published from");
+            DatePicker toPicker = new DatePicker();
+            toPicker.setPromptText("Published to");
+
+            ComboBox<BookSortOrder> sortBox = new ComboBox<>();
+            sortBox.getItems().addAll(BookSortOrder.values());
+            sortBox.setValue(BookSortOrder.BOOK_ID);
+            Spinner<Integer> limitSpinner = new Spinner<>(0, 10000, 0, 50); // 0 for all
+            limitSpinner.setEditable(true);
+            limitSpinner.setPrefWidth(90);
+
+            Button advancedSearchButton = new Button("Search");
+            advancedSearchButton.setOnAction(e -> {
+                BookSearchSpec.Builder spec = BookSearchSpec.builder()
+                        .titleContains(titleField.getText())
+                        .authorContains(authorField.getText())
+                        .minRating(minRatingBox.getValue())
+                        .maxRating(maxRatingBox.getValue())
+                        .publishedFrom(fromPicker.getValue())
+                        .publishedTo(toPicker.getValue())
+                        .sortOrder(sortBox.getValue())
+                        .limit(limitSpinner.getValue());
+                for (CheckBox genreBox : genreBoxes) {
+                    if (genreBox.isSelected()) {
+                        spec.genres((Genre) genreBox.getUserData());
+                    }
+                }
+                try {
+                    controller.onAdvancedSearch(spec.build());
+                } catch (IllegalArgumentException ex) {
+                    showAlertAndWait(ex.getMessage(), Alert.AlertType.WARNING);
+                }
+            });
+            Button clearButton = new Button("Clear");
+            clearButton.setOnAction(e -> {
+                titleField.clear();
+                authorField.clear();
+                genreBoxes.forEach(genreBox -> genreBox.setSelected(false));
+                minRatingBox.setValue(null);
+                maxRatingBox.setValue(null);
+                fromPicker.setValue(null);
+                toPicker.setValue(null);
+                sortBox.setValue(BookSortOrder.BOOK_ID);
+                limitSpinner.getValueFactory().setValue(0);
+            });
+
+            FlowPane textRow = new FlowPane(10, 10, titleField, authorField, minRatingBox, maxRatingBox,
+                    fromPicker, toPicker);
+            FlowPane genreRow = new FlowPane(10, 10);
+            genreRow.getChildren().addAll(genreBoxes);
+            FlowPane actionRow = new FlowPane(10, 10, new Label("Sort by"), sortBox,
+                    new Label("Limit (0 = all)"), limitSpinner, advancedSearchButton, clearButton);
+            actionRow.setAlignment(Pos.CENTER_LEFT);
+
+            VBox content = new VBox(10, textRow, genreRow, actionRow);
+            content.setPadding(new Insets(10));
+            TitledPane advancedPane = new TitledPane("Advanced search", content);
+            advancedPane.setExpanded(false);
+            return advancedPane;
+        }
+
+        private void initFacetView() {
+            facetTotal = new Label();
+            genreFacets = new MenuButton("Genre");
+            ratingFacets = new MenuButton("Rating");
+            yearFacets = new MenuButton("Year");
+            displayFacets(null); // until there is a search to count
+        }
+
+        private void initFailedWritesView() {
+            failedWritesLabel = new Label();
+            Button retryButton = new Button("Retry");
+            retryButton.setOnAction(e -> controller.retryFailedWrites());
+            Button dismissButton = new Button("Dismiss");
+            dismissButton.setOnAction(e -> controller.dismissFailedWrites());
+            failedWritesBar = new HBox(10, failedWritesLabel, retryButton, dismissButton);
+            failedWritesBar.setPadding(new Insets(5, 10, 0, 10));
+            failedWritesBar.setAlignment(Pos.CENTER_LEFT);
+            displayFailedWrites(0, null); // nothing has failed yet
         }
 
         private void initSearchView() {
@@ -160,6 +427,12 @@
                 }
 
             });
+            // search as the user types, the controller waits for a pause and drops stale results
+            searchField.textProperty().addListener((observable, oldText, newText) -> {
+                if (searchModeBox.getValue() != SearchMode.GENRE) {
+                    controller.onSearchInput(newText, searchModeBox.getValue());
+                }
+            });
             HBox searchBox = new HBox(10);
             searchBox.setAlignment(Pos.CENTER_LEFT);
             searchBox.getChildren().addAll(searchModeBox, searchField, searchButton);
@@ -183,8 +456,7 @@
             confirmationAlert.setContentText("Are you sure you want to delete the selected book?");
             Optional<ButtonType> result = confirmationAlert.showAndWait();
             if (result.isPresent() && result.get() == ButtonType.OK) {
-                controller.removeBook(selectedBook);
-                booksInTable.remove(selectedBook); // Remove the book from the observable list
+                controller.removeBook(selectedBook); // the row goes when the delete is committed, see applyBookChanges
             }
         }
 
@@ -200,10 +472,8 @@
             Optional<Book> result = updateDialog.showAndWait();
 
             result.ifPresent(updatedBook -> {
-                // Call the controller to update the book
+                // Call the controller to update the book, the row is redrawn when it is committed
                 controller.updateBook(updatedBook);
-                // Refresh the table view
-                displayBooks(new ArrayList<>(booksInTable)); // Assuming booksInTable contains all books
             });
         }
 
@@ -213,7 +483,7 @@
         private void initMenus() {
             Menu fileMenu = new Menu("File");
             MenuItem exitItem = new MenuItem("Exit");
-            exitItem.setOnAction(e -> Controller.exitProgram());
+            exitItem.setOnAction(e -> controller.exitProgram());
 
             MenuItem connectItem = new MenuItem("Connect to Db");
             // Call connectToDatabase without parameters since it now uses the properties file
@@ -472,7 +742,7 @@
                     if (isNew) {
                         Author newAuthor = new Author(-1, nameField.getText(), personNumberField.getText());
                         try {
-                            int generatedAuthorId = booksDbImpl.insertNewAuthorIntoDatabase(newAuthor);
+                            int generatedAuthorId = booksDb.addAuthor(newAuthor);
                             newAuthor.setAuthorId(generatedAuthorId);
                             authorsList.add(newAuthor);
                         } catch (BooksDbException e) {
@@ -482,7 +752,7 @@
                         author.setName(nameField.getText());
                         author.setPersonNumber(personNumberField.getText());
                         try {
-                            booksDbImpl.updateAuthorInDatabase(author);
+                            booksDb.updateAuthor(author);
                         } catch (BooksDbException e) {
                             // Handle the exception
                         }
@@ -1,9 +1,13 @@
 package se.kth.Bahaa.booksdb.view;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.scene.control.Alert;
+import javafx.util.Duration;
 import se.kth.Bahaa.booksdb.model.*;
 
+import java.sql.SQLTimeoutException;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Properties;
 
@@ -12,164 +16,329 @@ import java.util.Properties;
 public class Controller {
     private final BooksPane booksView;
     private final BooksDbInterface booksDb;
+    private final AsyncBooksDb asyncDb; // runs the database calls off the FX thread and completes on it
     private Properties dbProperties;
+    private final PauseTransition searchDelay;
+    private CancellationToken runningSearch;
+    private long searchGeneration; // incremented for each search, only the latest may show its result
+    private BookSearchSpec facetSpec; // the search the facets shown are counted for, null if none
+    private final WriteBehindQueue writes; // the adds, updates and deletes not written yet
+    private final LazyBookList lazyBooks; // the rows of the table for the advanced search and the whole catalog
 
     public Controller(BooksDbInterface booksDb, BooksPane booksView, Properties dbProperties) {
         this.booksDb = booksDb;
         this.booksView = booksView;
         this.dbProperties = dbProperties;
+        this.asyncDb = new AsyncBooksDb(booksDb, dbProperties, Platform::runLater);
+        this.searchDelay = new PauseTransition(Duration.millis(
+                DbProperties.intProperty(dbProperties, "db.search.debounceMs", 300)));
+        this.writes = new WriteBehindQueue(asyncDb, dbProperties, booksView::displayFailedWrites);
+        this.asyncDb.addChangeListener(booksView::applyBookChanges);
+        this.lazyBooks = new LazyBookList(asyncDb, dbProperties);
     }
 
     public void connectToDatabase() {
-        Thread thread = new Thread(() -> {
-            try {
-                // Extract database connection details from the properties
-                String url = dbProperties.getProperty("db.url");
-                String user = dbProperties.getProperty("db.user");
-                String password = dbProperties.getProperty("db.password");
-                String databaseName = dbProperties.getProperty("db.name"); // Add this line in your properties file
-
-                boolean isConnected = booksDb.connect(url, user, password, databaseName);
-                if (isConnected) {
-                    Platform.runLater(() -> {
-                        booksView.showAlertAndWait("Connected to database successfully.", Alert.AlertType.INFORMATION);
-                        // Refresh books table if needed
-                    });
-                } else {
-                    Platform.runLater(() -> {
-                        booksView.showAlertAndWait("Failed to connect to the database.", Alert.AlertType.ERROR);
-                    });
-                }
-            } catch (BooksDbException e) {
-                Platform.runLater(() -> {
-                    booksView.showAlertAndWait("Database error: " + e.getMessage(), Alert.AlertType.ERROR);
-                });
+        // Extract database connection details from the properties
+        String url = dbProperties.getProperty("db.url");
+        String user = dbProperties.getProperty("db.user");
+        String password = dbProperties.getProperty("db.password");
+        String databaseName = dbProperties.getProperty("db.name"); // Add this line in your properties file
+
+        asyncDb.connect(url, user, password, databaseName).whenComplete((isConnected, e) -> {
+            if (e != null) {
+                showError("Database error: ", e);
+            } else if (isConnected) {
+                booksView.showAlertAndWait("Connected to database successfully.", Alert.AlertType.INFORMATION);
+                BookSearchSpec allBooks = BookSearchSpec.builder().build();
+                long generation = ++searchGeneration;
+                browse(allBooks, generation, false);
+                refreshFacets(allBooks, generation);
+                // the table follows the writes through applyBookChanges, no refresh needed
+            } else {
+                booksView.showAlertAndWait("Failed to connect to the database.", Alert.AlertType.ERROR);
             }
         });
-        thread.start(); // Start the thread for connection
     }
 
+    public void disconnectFromDatabase() {
+        asyncDb.disconnect().whenComplete((ignored, e) -> {
+            if (e != null) {
+                showError("Error disconnecting: ", e);
+            }
+        });
+    }
 
-    public static void exitProgram() {
+    /**
+     * Lets the database calls already started finish, writes the changes still
+     * queued, closes the connections and exits.
+     */
+    public void exitProgram() {
         System.out.println("Exiting the Program!");
+        searchDelay.stop();
+        cancelRunningSearch();
+        long timeout = DbProperties.intProperty(dbProperties, "db.executor.shutdownTimeoutMs", 5000);
+        if (!asyncDb.shutdown(timeout)) {
+            System.out.println("Database calls still running after " + timeout + " ms were interrupted.");
+        }
+        BookBatch unwritten = writes.takePending(); // after the batch being committed, if any, so the order is kept
+        if (unwritten != null) {
+            WriteBehindQueue.commitOnExit(unwritten);
+        }
+        try {
+            booksDb.disconnect();
+        } catch (BooksDbException e) {
+            System.out.println("Error disconnecting: " + e.getMessage());
+        }
         Platform.exit(); // för att avsluta programmet
     }
 
+    /**
+     * Queues the book to be added, see WriteBehindQueue; failures are shown
+     * by BooksPane.displayFailedWrites.
+     */
     public void addNewBook(Book book) {
-        Thread thread = new Thread(() -> {
-            try {
-                booksDb.addBook(book);
-                //Platform.runLater(this::refreshBooksTable);
-            } catch (BooksDbException e) {
-                Platform.runLater(() -> {
-                    booksView.showAlertAndWait("Error adding book: " + e.getMessage(), Alert.AlertType.ERROR);
-                });
-            }
-        });
-        thread.start(); // Starta tråden för att lägga till boken
+        writes.addBook(book);
     }
 
     public void removeBook(Book book) {
-        Thread thread = new Thread(() -> {
-            try {
-                booksDb.deleteBook(book);
-                //Platform.runLater(this::refreshBooksTable);
-            } catch (BooksDbException e) {
-                Platform.runLater(() -> {
-                    booksView.showAlertAndWait("Error removing book: " + e.getMessage(), Alert.AlertType.ERROR);
-                });
-            }
-        });
-        thread.start(); // Starta tråden för att ta bort boken
+        writes.deleteBook(book);
     }
 
     public void updateBook(Book updatedBook) {
-        Thread thread = new Thread(() -> {
-            try {
-                booksDb.updateBook(updatedBook);
-                //Platform.runLater(this::refreshBooksTable);
-            } catch (BooksDbException e) {
-                Platform.runLater(() -> {
-                    booksView.showAlertAndWait("Error updating book: " + e.getMessage(), Alert.AlertType.ERROR);
-                });
+        writes.updateBook(updatedBook);
+    }
+
+    /**
+     * Queues the writes that failed again.
+     */
+    public void retryFailedWrites() {
+        writes.retryFailed();
+    }
+
+    public void dismissFailedWrites() {
+        writes.dismissFailed();
+    }
+
+    /**
+     * Searches when the user has stopped typing for db.search.debounceMs,
+     * without alerts for incomplete input or empty results.
+     */
+    public void onSearchInput(String searchFor, SearchMode mode) {
+        searchDelay.setOnFinished(e -> startSearch(searchFor, mode, false));
+        searchDelay.playFromStart();
+    }
+
+    /**
+     * Searches at once, e.g. when the search button is pressed.
+     */
+    public void onSearchSelected(String searchFor, SearchMode mode) {
+        searchDelay.stop();
+        startSearch(searchFor, mode, true);
+    }
+
+    /**
+     * Cancels the running search, if any, and starts a new one. Only the result
+     * of the latest search is displayed, older ones are dropped even if they
+     * finish later.
+     */
+    private void startSearch(String searchFor, SearchMode mode, boolean explicit) {
+        cancelRunningSearch();
+        long generation = ++searchGeneration;
+
+        // Check if the search string is null or empty
+        if ((mode != SearchMode.RATING && (searchFor == null || searchFor.trim().isEmpty()))) {
+            if (explicit) {
+                booksView.showAlertAndWait("Enter a search string!", Alert.AlertType.WARNING);
+            }
+            return; // Exit the method if the search string is empty
+        }
+
+        AsyncBooksDb.DbCall<List<Book>> search;
+        try {
+            search = searchCall(searchFor, mode);
+        } catch (IllegalArgumentException e) { // also NumberFormatException
+            if (explicit) {
+                booksView.showAlertAndWait("Invalid format.", Alert.AlertType.ERROR);
+            }
+            return;
+        }
+        runSearch(search, generation, explicit);
+        refreshFacets(facetSpecFor(searchFor, mode), generation);
+    }
+
+    /**
+     * Searches on all the criteria of the advanced search at once, cancelling
+     * the running search like any other search. The matches are counted and
+     * shown a page at a time, see LazyBookList.
+     */
+    public void onAdvancedSearch(BookSearchSpec spec) {
+        searchDelay.stop();
+        cancelRunningSearch();
+        long generation = ++searchGeneration;
+        browse(spec, generation, true);
+        refreshFacets(spec, generation);
+    }
+
+    /**
+     * Counts the books matching the spec and shows them in the table, which
+     * loads the rows it shows as they are scrolled to. The count is cancelled
+     * like any other search when a newer one starts, and so are the page
+     * loads of the rows shown before, see LazyBookList.
+     */
+    private void browse(BookSearchSpec spec, long generation, boolean explicit) {
+        CancellationToken token = newSearchToken();
+        runningSearch = token;
+        asyncDb.submit(token, () -> booksDb.countBooks(spec)).whenComplete((total, e) -> {
+            if (generation != searchGeneration) {
+                return; // a newer search has been started
+            }
+            runningSearch = null;
+            if (e != null) {
+                showSearchError(e);
+            } else if (total == 0 && explicit) {
+                booksView.showAlertAndWait("No results found.", Alert.AlertType.INFORMATION);
+            } else {
+                lazyBooks.show(spec, total);
+                booksView.displayLazyBooks(lazyBooks);
             }
         });
-        thread.start(); // Starta tråden för att uppdatera boken
-    }
-
-    private void refreshBooksTable() {
-        Thread thread = new Thread(() -> {
-            try {
-                List<Book> books = booksDb.getAllBooks();
-                Platform.runLater(() -> {
-                    booksView.displayBooks(books);
-                });
-            } catch (BooksDbException e) {
-                Platform.runLater(() -> {
-                    booksView.showAlertAndWait("Error fetching books: " + e.getMessage(), Alert.AlertType.ERROR);
-                });
+    }
+
+    /**
+     * Narrows the search the facets were counted for down to one genre.
+     */
+    public void onGenreFacetSelected(Genre genre) {
+        onAdvancedSearch(currentFacetSpec().clearGenres().genres(genre).build());
+    }
+
+    /**
+     * Narrows the search the facets were counted for down to one rating.
+     */
+    public void onRatingFacetSelected(int rating) {
+        onAdvancedSearch(currentFacetSpec().minRating(rating).maxRating(rating).build());
+    }
+
+    /**
+     * Narrows the search the facets were counted for down to the books published in one year.
+     */
+    public void onYearFacetSelected(int year) {
+        LocalDate from = LocalDate.of(year, 1, 1);
+        LocalDate to = LocalDate.of(year, 12, 31);
+        if (facetSpec != null && facetSpec.getPublishedFrom() != null && facetSpec.getPublishedFrom().isAfter(from)) {
+            from = facetSpec.getPublishedFrom();
+        }
+        if (facetSpec != null && facetSpec.getPublishedTo() != null && facetSpec.getPublishedTo().isBefore(to)) {
+            to = facetSpec.getPublishedTo();
+        }
+        onAdvancedSearch(currentFacetSpec().publishedFrom(from).publishedTo(to).build());
+    }
+
+    private BookSearchSpec.Builder currentFacetSpec() {
+        return facetSpec == null ? BookSearchSpec.builder() : facetSpec.toBuilder();
+    }
+
+    /**
+     * Counts the books of the search per genre, rating and year with one
+     * aggregate query and shows the counts, unless a newer search has started.
+     *
+     * @param spec the search, or null to hide the facets
+     */
+    private void refreshFacets(BookSearchSpec spec, long generation) {
+        facetSpec = spec;
+        if (spec == null) {
+            booksView.displayFacets(null);
+            return;
+        }
+        asyncDb.getFacets(spec).whenComplete((facets, e) -> {
+            if (generation != searchGeneration) {
+                return;
+            }
+            if (e != null) {
+                System.out.println("Error counting facets: " + e.getMessage());
+                booksView.displayFacets(null);
+            } else {
+                booksView.displayFacets(facets);
             }
         });
-        thread.start(); // Starta tråden för att uppdatera boktabellen
     }
 
-    public void onSearchSelected(String searchFor, SearchMode mode) {
-        Thread thread = new Thread(() -> {
-            try {
-                // Check if the search string is null or empty
-                if ((mode != SearchMode.RATING && (searchFor == null || searchFor.trim().isEmpty()))) {
-                    Platform.runLater(() -> {
-                        booksView.showAlertAndWait("Enter a search string!", Alert.AlertType.WARNING);
-                    });
-                    return; // Exit the method if the search string is empty
-                }
-
-                List<Book> result = null;
-                switch (mode) {
-                    case Title:
-                        result = booksDb.searchBooksByTitle(searchFor);
-                        break;
-                    case ISBN:
-                        result = booksDb.searchBookByISBN(searchFor);
-                        break;
-                    case Author:
-                        result = booksDb.searchBooksByAuthor(searchFor);
-                        break;
-                    case GENRE:
-                        Genre genre = Genre.valueOf(searchFor.toUpperCase());
-                        result = booksDb.searchBooksByGenre(genre);
-                        break;
-                    case RATING:
-                        int rating = Integer.parseInt(searchFor);
-                        result = booksDb.searchBooksByRating(rating);
-                        break;
-                    // ... other cases ...
-                }
-
-                if (result == null || result.isEmpty()) {
-                    Platform.runLater(() -> {
-                        booksView.showAlertAndWait("No results found.", Alert.AlertType.INFORMATION);
-                    });
-                } else {
-                    List<Book> finalResult = result;
-                    Platform.runLater(() -> {
-                        booksView.displayBooks(finalResult);
-                    });
-                }
-            } catch (NumberFormatException e) {
-                Platform.runLater(() -> {
-                    booksView.showAlertAndWait("Invalid format.", Alert.AlertType.ERROR);
-                });
-            } catch (BooksDbException e) {
-                Platform.runLater(() -> {
-                    booksView.showAlertAndWait("Database error: " + e.getMessage(), Alert.AlertType.ERROR);
-                });
-            } catch (Exception e) {
-                Platform.runLater(() -> {
-                    booksView.showAlertAndWait("Unexpected error: " + e.getMessage(), Alert.AlertType.ERROR);
-                });
+    /**
+     * @return the spec matching the same books as a simple search, or null for ISBN searches
+     */
+    private static BookSearchSpec facetSpecFor(String searchFor, SearchMode mode) {
+        switch (mode) {
+            case Title:
+                return BookSearchSpec.builder().titleContains(searchFor).build();
+            case Author:
+                return BookSearchSpec.builder().authorContains(searchFor).build();
+            case GENRE:
+                return BookSearchSpec.builder().genres(Genre.valueOf(searchFor.toUpperCase())).build();
+            case RATING:
+                int rating = Integer.parseInt(searchFor);
+                return BookSearchSpec.builder().minRating(rating).maxRating(rating).build();
+            default:
+                return null;
+        }
+    }
+
+    private void runSearch(AsyncBooksDb.DbCall<List<Book>> search, long generation, boolean explicit) {
+        CancellationToken token = newSearchToken();
+        runningSearch = token;
+        asyncDb.submit(token, search).whenComplete((books, e) -> {
+            if (generation != searchGeneration) {
+                return; // a newer search has been started
+            }
+            runningSearch = null;
+            if (e != null) {
+                showSearchError(e);
+            } else if ((books == null || books.isEmpty()) && explicit) {
+                booksView.showAlertAndWait("No results found.", Alert.AlertType.INFORMATION);
+            } else {
+                booksView.displayBooks(books == null ? List.of() : books);
             }
         });
-        thread.start(); // Start the thread to perform the search
+    }
+
+    private CancellationToken newSearchToken() {
+        return new CancellationToken(DbProperties.intProperty(dbProperties, "db.search.timeoutSec", 10));
+    }
+
+    private void showSearchError(Throwable e) {
+        if (e.getCause() instanceof SQLTimeoutException) {
+            booksView.showAlertAndWait("The search took too long and was stopped.", Alert.AlertType.WARNING);
+        } else {
+            showError(e instanceof BooksDbException ? "Database error: " : "Unexpected error: ", e);
+        }
+    }
+
+    private AsyncBooksDb.DbCall<List<Book>> searchCall(String searchFor, SearchMode mode) {
+        switch (mode) {
+            case Title:
+                return () -> booksDb.searchBooksByTitle(searchFor);
+            case ISBN:
+                return () -> booksDb.searchBookByISBN(searchFor);
+            case Author:
+                return () -> booksDb.searchBooksByAuthor(searchFor);
+            case GENRE:
+                Genre genre = Genre.valueOf(searchFor.toUpperCase());
+                return () -> booksDb.searchBooksByGenre(genre);
+            case RATING:
+                int rating = Integer.parseInt(searchFor);
+                return () -> booksDb.searchBooksByRating(rating);
+            default:
+                throw new IllegalArgumentException("Unknown search mode: " + mode);
+        }
+    }
+
+    private void cancelRunningSearch() {
+        lazyBooks.cancelLoading(); // the rows of the search before are not needed any more
+        if (runningSearch != null) {
+            runningSearch.cancel();
+            runningSearch = null;
+        }
+    }
+
+    private void showError(String prefix, Throwable e) {
+        booksView.showAlertAndWait(prefix + e.getMessage(), Alert.AlertType.ERROR);
     }
 }
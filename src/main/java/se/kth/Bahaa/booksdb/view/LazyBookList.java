@@ -0,0 +1,374 @@
+package se.kth.Bahaa.booksdb.view;
+
+import javafx.collections.ObservableListBase;
+import se.kth.Bahaa.booksdb.model.AsyncBooksDb;
+import se.kth.Bahaa.booksdb.model.Book;
+import se.kth.Bahaa.booksdb.model.BookChange;
+import se.kth.Bahaa.booksdb.model.BookSearchSpec;
+import se.kth.Bahaa.booksdb.model.BookSortOrder;
+import se.kth.Bahaa.booksdb.model.CancellationToken;
+import se.kth.Bahaa.booksdb.model.DbProperties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The books of a search as a list for booksTable that only holds the pages
+ * of them that have been looked at. Its size is the number of matches, from
+ * countBooks; get returns null for a row whose page is not loaded yet and
+ * starts loading it, and the rows are redrawn when it arrives. The TableView
+ * only asks for the rows it shows, so the pages loaded are the visible ones
+ * plus the one before and after, which are fetched ahead for scrolling. Each
+ * page is one searchBooks query, which also reads the authors of that page's
+ * books and of no others. It starts after the last book of the nearest
+ * loaded page before it, so scrolling down seeks with the index of the sort
+ * order like getBooksPage instead of having the database read and skip every
+ * row before the page; only a jump far ahead of the loaded pages, e.g. by
+ * dragging the scroll bar, skips the rows in between with an offset. Each query runs with its own
+ * CancellationToken and db.search.timeoutSec, like the searches; the loads of
+ * pages that will no longer be shown are cancelled instead of left to finish.
+ *
+ * At most db.table.cachedPages pages of db.table.pageSize books are kept, the
+ * least recently used page is dropped first, so memory does not grow with the
+ * catalog. The sort order is applied by the database, see sort. Used on the
+ * FX thread only.
+ */
+class LazyBookList extends ObservableListBase<Book> {
+
+    /**
+     * The sort key of the last book of a page as it was loaded, which an edit
+     * of the book shown does not change.
+     */
+    private static class PageEnd {
+        final int bookId;
+        final String title;
+
+        PageEnd(Book book) {
+            this.bookId = book.getBookId();
+            this.title = book.getTitle();
+        }
+    }
+
+    private final AsyncBooksDb asyncDb;
+    private final int pageSize;
+    private final int timeoutSec;
+    private final Map<Integer, List<Book>> pages; // by page number, least recently used first
+    private final Map<Integer, PageEnd> pageEnds = new HashMap<>(); // of the pages loaded, for seeking past them
+    private final Map<Integer, CancellationToken> loading = new HashMap<>(); // the pages being loaded
+    private CancellationToken counting; // of the recount after books were added or removed, or null
+    private BookSearchSpec spec = BookSearchSpec.builder().build();
+    private BookSortOrder sortOrder = BookSortOrder.BOOK_ID;
+    private boolean descending;
+    private int size;
+    private long generation; // incremented when the rows change, pages of older generations are dropped
+
+    LazyBookList(AsyncBooksDb asyncDb, Properties dbProperties) {
+        this.asyncDb = asyncDb;
+        this.pageSize = Math.max(1, DbProperties.intProperty(dbProperties, "db.table.pageSize", 100));
+        this.timeoutSec = DbProperties.intProperty(dbProperties, "db.search.timeoutSec", 10);
+        int maxPages = Math.max(3, DbProperties.intProperty(dbProperties, "db.table.cachedPages", 20));
+        this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<Book>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    /**
+     * Shows the books matching the spec, in the current sort order.
+     *
+     * @param total the number of books matching it, from countBooks
+     */
+    void show(BookSearchSpec spec, int total) {
+        this.spec = spec;
+        reset(spec.getLimit() > 0 ? Math.min(total, spec.getLimit()) : total);
+    }
+
+    BookSearchSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * Orders the books by the database, starting again from the first page.
+     *
+     * @return false if the order is the current one and nothing was done
+     */
+    boolean sort(BookSortOrder sortOrder, boolean descending) {
+        if (this.sortOrder == sortOrder && this.descending == descending) {
+            return false;
+        }
+        this.sortOrder = sortOrder;
+        this.descending = descending;
+        reset(size);
+        return true;
+    }
+
+    /**
+     * Applies committed writes without starting over, so the selection and
+     * scroll position are kept: an updated book that is loaded is replaced in
+     * its row, and a removed book that is loaded has its row removed, which
+     * drops the pages after it as their rows have moved up. Where an added
+     * book or a removed book that is not loaded goes is not known here, so
+     * then the books are counted again, the rows at the end are added or
+     * removed to match, and the pages loaded are loaded again.
+     */
+    void applyChanges(List<BookChange> changes) {
+        Map<Integer, Book> updated = new HashMap<>();
+        List<Book> removed = new ArrayList<>();
+        boolean recount = counting != null; // a count started before these changes may not include them
+        for (BookChange change : changes) {
+            switch (change.getType()) {
+                case UPDATED:
+                    updated.put(change.getBook().getBookId(), change.getBook());
+                    break;
+                case REMOVED:
+                    removed.add(change.getBook());
+                    break;
+                case ADDED:
+                    recount = true;
+                    break;
+            }
+        }
+        if (!updated.isEmpty()) {
+            // titles may have changed, so the order may be off until the next reload, like with any edit
+            beginChange();
+            for (Map.Entry<Integer, List<Book>> page : pages.entrySet()) {
+                List<Book> books = page.getValue();
+                for (int i = 0; i < books.size(); i++) {
+                    Book book = updated.get(books.get(i).getBookId());
+                    if (book != null) {
+                        books.set(i, book);
+                        nextUpdate(page.getKey() * pageSize + i);
+                    }
+                }
+            }
+            endChange();
+        }
+        for (Book book : removed) {
+            int index = indexOf(book.getBookId());
+            if (index < 0) {
+                recount = true;
+            } else {
+                removeRow(index);
+            }
+        }
+        if (recount) {
+            recount();
+        }
+    }
+
+    @Override
+    public Book get(int index) {
+        Objects.checkIndex(index, size);
+        int page = index / pageSize;
+        List<Book> books = pages.get(page);
+        load(page);
+        load(page + 1);
+        load(page - 1);
+        int offset = index % pageSize;
+        return books == null || offset >= books.size() ? null : books.get(offset);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Cancels the pages being loaded, e.g. when another search is started.
+     * The rows still shown are loaded again when they are asked for.
+     */
+    void cancelLoading() {
+        for (CancellationToken token : loading.values()) {
+            token.cancel();
+        }
+        loading.clear();
+        if (counting != null) {
+            counting.cancel();
+            counting = null;
+        }
+    }
+
+    private void reset(int newSize) {
+        generation++;
+        pages.clear();
+        pageEnds.clear();
+        cancelLoading();
+        int oldSize = size;
+        size = newSize;
+        beginChange();
+        if (oldSize > 0) {
+            nextRemove(0, Collections.nCopies(oldSize, null));
+        }
+        if (newSize > 0) {
+            nextAdd(0, newSize);
+        }
+        endChange();
+    }
+
+    /**
+     * @return the row of the loaded book with this id, or -1
+     */
+    private int indexOf(int bookId) {
+        for (Map.Entry<Integer, List<Book>> page : pages.entrySet()) {
+            List<Book> books = page.getValue();
+            for (int i = 0; i < books.size(); i++) {
+                if (books.get(i).getBookId() == bookId) {
+                    return page.getKey() * pageSize + i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void removeRow(int index) {
+        int page = index / pageSize;
+        Book book = pages.get(page).remove(index % pageSize); // the page is one row short now, see isLoaded
+        pages.keySet().removeIf(p -> p > page);
+        Set<Integer> reload = restartLoading();
+        size--;
+        beginChange();
+        nextRemove(index, book);
+        endChange();
+        loadAgain(reload);
+    }
+
+    /**
+     * Counts the books again and adds or removes rows at the end to match,
+     * then loads the pages that were loaded again.
+     */
+    private void recount() {
+        Set<Integer> waiting = restartLoading();
+        long requested = generation;
+        BookSearchSpec counted = spec;
+        counting = new CancellationToken(timeoutSec);
+        asyncDb.submit(counting, () -> asyncDb.getBooksDb().countBooks(counted)).whenComplete((total, e) -> {
+            if (requested != generation) {
+                return; // the rows have changed since, and counted again if needed
+            }
+            counting = null;
+            if (e != null) {
+                System.out.println("Error counting books: " + e.getMessage());
+                loadAgain(waiting);
+                return;
+            }
+            int newSize = counted.getLimit() > 0 ? Math.min(total, counted.getLimit()) : total;
+            Set<Integer> reload = restartLoading();
+            reload.addAll(waiting);
+            reload.addAll(pages.keySet());
+            int oldSize = size;
+            size = newSize;
+            beginChange();
+            for (int page : pages.keySet()) {
+                for (int i = page * pageSize; i < Math.min((page + 1) * pageSize, Math.min(oldSize, newSize)); i++) {
+                    nextUpdate(i); // the book shown in the row may have moved
+                }
+            }
+            pages.clear();
+            pageEnds.clear();
+            if (newSize > oldSize) {
+                nextAdd(oldSize, newSize);
+            } else if (newSize < oldSize) {
+                nextRemove(newSize, Collections.nCopies(oldSize - newSize, null));
+            }
+            endChange();
+            loadAgain(reload);
+        });
+    }
+
+    /**
+     * Drops the loads running, as the rows they were started for have moved.
+     *
+     * @return the pages that were being loaded, for loadAgain
+     */
+    private Set<Integer> restartLoading() {
+        generation++;
+        Set<Integer> reload = new HashSet<>(loading.keySet());
+        cancelLoading();
+        return reload;
+    }
+
+    private void loadAgain(Set<Integer> reload) {
+        for (int page : reload) {
+            load(page);
+        }
+    }
+
+    /**
+     * @return true if the page has all its rows; a page loses one when a row is removed from it
+     */
+    private boolean isLoaded(int page) {
+        List<Book> books = pages.get(page);
+        return books != null && books.size() >= Math.min(pageSize, size - page * pageSize);
+    }
+
+    /**
+     * @return the nearest page before the given one that has all its rows, so
+     * its last book is where the rows before the given page end, or -1
+     */
+    private int loadedPageBefore(int page) {
+        int before = -1;
+        for (Map.Entry<Integer, List<Book>> loaded : pages.entrySet()) { // not get, which would reorder pages
+            int number = loaded.getKey();
+            if (number < page && number > before
+                    && loaded.getValue().size() >= Math.min(pageSize, size - number * pageSize)) {
+                before = number;
+            }
+        }
+        return before;
+    }
+
+    /**
+     * Starts loading the page unless it is loaded, being loaded or out of range.
+     */
+    private void load(int page) {
+        int from = page * pageSize;
+        if (page < 0 || from >= size || isLoaded(page) || loading.containsKey(page)) {
+            return;
+        }
+        CancellationToken token = new CancellationToken(timeoutSec);
+        loading.put(page, token);
+        long requested = generation;
+        BookSearchSpec.Builder pageSpec = spec.toBuilder()
+                .sortOrder(sortOrder)
+                .descending(descending)
+                .offset(from)
+                .limit(Math.min(pageSize, size - from));
+        int before = loadedPageBefore(page);
+        if (before >= 0) {
+            PageEnd end = pageEnds.get(before);
+            pageSpec.after(end.bookId, end.title).offset((page - before - 1) * pageSize);
+        }
+        BookSearchSpec query = pageSpec.build();
+        asyncDb.submit(token, () -> asyncDb.getBooksDb().searchBooks(query)).whenComplete((books, e) -> {
+            if (!loading.remove(page, token) || requested != generation) {
+                return; // cancelled, or the search or order has changed since
+            }
+            if (e != null) {
+                System.out.println("Error loading books " + from + " to " + (from + pageSize) + ": " + e.getMessage());
+                return; // loaded again when the rows are shown again
+            }
+            pages.put(page, books);
+            if (!books.isEmpty()) {
+                pageEnds.put(page, new PageEnd(books.get(books.size() - 1)));
+            }
+            int to = Math.min(from + books.size(), size);
+            if (from < to) {
+                beginChange();
+                for (int i = from; i < to; i++) {
+                    nextUpdate(i); // redraws the rows, keeps the selection
+                }
+                endChange();
+            }
+        });
+    }
+}
@@ -0,0 +1,263 @@
+package se.kth.Bahaa.booksdb.view;
+
+import javafx.animation.PauseTransition;
+import javafx.util.Duration;
+import se.kth.Bahaa.booksdb.model.AsyncBooksDb;
+import se.kth.Bahaa.booksdb.model.Book;
+import se.kth.Bahaa.booksdb.model.BookBatch;
+import se.kth.Bahaa.booksdb.model.BookBatchResult;
+import se.kth.Bahaa.booksdb.model.BooksDbException;
+import se.kth.Bahaa.booksdb.model.DbProperties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Takes the view's adds, updates and deletes at once and writes them behind
+ * its back: they are collected in a BookBatch, which keeps one operation per
+ * book (so several edits of a book become one UPDATE, and adding and then
+ * deleting a book writes nothing), and the batch is committed in one
+ * transaction db.writeBehind.flushMs after its first change, or as soon as it
+ * holds db.writeBehind.maxBatchSize books. One batch is committed at a time.
+ *
+ * The writes that fail are handed to the listener and kept until they are
+ * retried or dismissed. Used on the FX thread only, like the rest of the view.
+ */
+class WriteBehindQueue {
+
+    interface Listener {
+        /**
+         * @param failedWrites the number of writes waiting for retry or dismiss, 0 when there are none
+         * @param message      why the latest write failed, or null
+         */
+        void failedWritesChanged(int failedWrites, String message);
+    }
+
+    /**
+     * Calls flush a while after play, a PauseTransition of db.writeBehind.flushMs
+     * outside of tests, which have no FX toolkit to run one.
+     */
+    interface FlushDelay {
+        /**
+         * Starts the delay, unless it is running already.
+         */
+        void play();
+
+        void stop();
+
+        void setOnFinished(Runnable flush);
+    }
+
+    /**
+     * One write as the view asked for it.
+     */
+    private static class Write {
+        final BookBatch.Operation operation;
+        final Book book;
+
+        Write(BookBatch.Operation operation, Book book) {
+            this.operation = operation;
+            this.book = book;
+        }
+    }
+
+    private final AsyncBooksDb asyncDb;
+    private final Listener listener;
+    private final int maxBatchSize;
+    private final FlushDelay flushDelay;
+    private BookBatch pending; // null when there is nothing to write
+    private List<Write> pendingWrites = new ArrayList<>(); // what pending was built from, to retry if its commit fails
+    private boolean committing;
+    private final Set<Book> committingAdds = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<Write> waitingForAdds = new ArrayList<>(); // changes of books in committingAdds, which have no BookId yet
+    private final List<Write> failedWrites = new ArrayList<>();
+
+    WriteBehindQueue(AsyncBooksDb asyncDb, Properties dbProperties, Listener listener) {
+        this(asyncDb, DbProperties.intProperty(dbProperties, "db.writeBehind.maxBatchSize", 100),
+                pause(DbProperties.intProperty(dbProperties, "db.writeBehind.flushMs", 500)), listener);
+    }
+
+    WriteBehindQueue(AsyncBooksDb asyncDb, int maxBatchSize, FlushDelay flushDelay, Listener listener) {
+        this.asyncDb = asyncDb;
+        this.listener = listener;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.flushDelay = flushDelay;
+        this.flushDelay.setOnFinished(this::flush);
+    }
+
+    void addBook(Book book) {
+        enqueue(new Write(BookBatch.Operation.ADD, book));
+    }
+
+    void updateBook(Book book) {
+        enqueue(new Write(BookBatch.Operation.UPDATE, book));
+    }
+
+    void deleteBook(Book book) {
+        enqueue(new Write(BookBatch.Operation.DELETE, book));
+    }
+
+    /**
+     * Queues the failed writes again, to be written with the next batch.
+     */
+    void retryFailed() {
+        List<Write> retries = new ArrayList<>(failedWrites);
+        failedWrites.clear();
+        listener.failedWritesChanged(0, null);
+        for (Write write : retries) {
+            enqueue(write);
+        }
+    }
+
+    void dismissFailed() {
+        failedWrites.clear();
+        listener.failedWritesChanged(0, null);
+    }
+
+    /**
+     * Starts committing the pending writes now, or as soon as the batch being
+     * committed is done.
+     */
+    void flush() {
+        flushDelay.stop();
+        if (pending == null || committing) {
+            return; // the commit running flushes again when it is done
+        }
+        BookBatch batch = pending;
+        List<Write> writes = pendingWrites;
+        pending = null;
+        pendingWrites = new ArrayList<>();
+        committing = true;
+        for (Write write : writes) {
+            if (write.operation == BookBatch.Operation.ADD) {
+                committingAdds.add(write.book);
+            }
+        }
+
+        asyncDb.commit(batch).whenComplete((result, e) -> {
+            committing = false;
+            committingAdds.clear();
+            if (e != null) {
+                failed(writes, e.getMessage()); // the transaction was rolled back, nothing was written
+            } else {
+                List<Write> failed = new ArrayList<>();
+                String message = null;
+                for (BookBatchResult.ItemResult item : result.getItems()) {
+                    // a book that was already deleted is no failure for a delete
+                    if (item.getOutcome() == BookBatchResult.Outcome.FAILED
+                            || (item.getOutcome() == BookBatchResult.Outcome.NOT_FOUND
+                            && item.getOperation() != BookBatch.Operation.DELETE)) {
+                        failed.add(new Write(item.getOperation(), item.getBook()));
+                        message = item.getBook().getTitle() + ": "
+                                + (item.getMessage() == null ? "the book no longer exists" : item.getMessage());
+                    }
+                }
+                if (!failed.isEmpty()) {
+                    failed(failed, message);
+                }
+            }
+            List<Write> waiting = new ArrayList<>(waitingForAdds);
+            waitingForAdds.clear();
+            for (Write write : waiting) {
+                enqueue(write); // a failed add leaves BookId 0, and the change fails as NOT_FOUND
+            }
+            if (pending != null && pending.size() >= maxBatchSize) {
+                flush();
+            } else if (pending != null) {
+                flushDelay.play();
+            }
+        });
+    }
+
+    /**
+     * Takes the writes not committed yet, for writing them synchronously on
+     * exit. Call it once the database calls running have finished, so that
+     * the books added by the last commit have their BookId.
+     *
+     * @return the pending batch, or null if there is none
+     */
+    BookBatch takePending() {
+        committing = true; // no more commits from here, enqueue only adds to pending
+        committingAdds.clear();
+        for (Write write : waitingForAdds) {
+            enqueue(write);
+        }
+        waitingForAdds.clear();
+        flushDelay.stop();
+        BookBatch batch = pending;
+        pending = null;
+        pendingWrites = new ArrayList<>();
+        return batch;
+    }
+
+    private void enqueue(Write write) {
+        if (write.operation != BookBatch.Operation.ADD && committingAdds.contains(write.book)) {
+            waitingForAdds.add(write);
+            return;
+        }
+        if (pending == null) {
+            pending = asyncDb.beginBatch();
+        }
+        switch (write.operation) {
+            case ADD:
+                pending.addBook(write.book);
+                break;
+            case UPDATE:
+                pending.updateBook(write.book);
+                break;
+            case DELETE:
+                pending.deleteBook(write.book);
+                break;
+        }
+        pendingWrites.add(write);
+        if (pending.size() >= maxBatchSize) {
+            flush();
+        } else if (!committing) {
+            flushDelay.play(); // keeps running if already started, so a steady stream of edits still gets written
+        }
+    }
+
+    private void failed(List<Write> writes, String message) {
+        failedWrites.addAll(writes);
+        System.out.println("Could not save " + writes.size() + " change(s): " + message);
+        listener.failedWritesChanged(failedWrites.size(), message);
+    }
+
+    private static FlushDelay pause(int millis) {
+        PauseTransition pause = new PauseTransition(Duration.millis(millis));
+        return new FlushDelay() {
+            @Override
+            public void play() {
+                pause.play(); // does nothing while running
+            }
+
+            @Override
+            public void stop() {
+                pause.stop();
+            }
+
+            @Override
+            public void setOnFinished(Runnable flush) {
+                pause.setOnFinished(e -> flush.run());
+            }
+        };
+    }
+
+    /**
+     * Commits a batch taken with takePending on the calling thread.
+     */
+    static void commitOnExit(BookBatch batch) {
+        try {
+            BookBatchResult result = batch.commit();
+            if (!result.isComplete()) {
+                System.out.println("Some changes were not saved on exit: " + result);
+            }
+        } catch (BooksDbException e) {
+            System.out.println("Changes were not saved on exit: " + e.getMessage());
+        }
+    }
+}
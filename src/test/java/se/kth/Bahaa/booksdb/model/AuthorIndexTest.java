@@ -0,0 +1,112 @@
+package se.kth.Bahaa.booksdb.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AuthorIndexTest {
+
+    private static AuthorIndex warmIndex() {
+        AuthorIndex index = new AuthorIndex();
+        index.finishBuild(index.beginBuild());
+        return index;
+    }
+
+    private static Author author(int authorId, String name) {
+        return new Author(authorId, name, "19000101-" + authorId);
+    }
+
+    @Test
+    void tokenizeFoldsCaseAndDiacriticsAndSplitsOnPunctuation() {
+        assertArrayEquals(new String[]{"j", "r", "r", "tolkien"}, AuthorIndex.tokenize(" J.R.R. Tolkién "));
+        assertArrayEquals(new String[]{"asa", "larsson"}, AuthorIndex.tokenize("Åsa Larsson"));
+        assertArrayEquals(new String[0], AuthorIndex.tokenize("  -- "));
+        assertArrayEquals(new String[0], AuthorIndex.tokenize(null));
+    }
+
+    @Test
+    void nameKeyPutsASpaceBeforeEveryToken() {
+        assertEquals(" j r r tolkien", AuthorIndex.nameKey("J.R.R. Tolkién"));
+        assertEquals(" 50 cent", AuthorIndex.nameKey("50_Cent"));
+        assertEquals("", AuthorIndex.nameKey("%"));
+    }
+
+    @Test
+    void matchesEveryQueryTokenAgainstTheStartOfANameToken() {
+        AuthorIndex index = warmIndex();
+        index.putBook(1, List.of(author(1, "J.R.R. Tolkien")));
+        index.putBook(2, List.of(author(2, "Christopher Tolkien")));
+        index.putBook(3, List.of(author(3, "Ursula K. Le Guin")));
+        assertArrayEquals(new int[]{1, 2}, index.search("tolk"));
+        assertArrayEquals(new int[]{1}, index.search("j r r tolkien"));
+        assertArrayEquals(new int[]{1}, index.search("Tolkién J"));
+        assertArrayEquals(new int[]{2}, index.search("chris tolkien"));
+        assertArrayEquals(new int[0], index.search("olkien")); // not at the start of a token
+        assertArrayEquals(new int[]{3}, index.search("le gu"));
+        assertArrayEquals(new int[0], index.search(" , "));
+    }
+
+    @Test
+    void queryTokensMustMatchTheSameAuthor() {
+        AuthorIndex index = warmIndex();
+        index.putBook(1, List.of(author(1, "John Smith"), author(2, "Ann Tolkien")));
+        index.putBook(2, List.of(author(3, "John Tolkien")));
+        assertArrayEquals(new int[]{2}, index.search("john tolkien"));
+        assertArrayEquals(new int[]{1, 2}, index.search("tolkien"));
+    }
+
+    @Test
+    void booksOfSeveralMatchingAuthorsAreListedOnce() {
+        AuthorIndex index = warmIndex();
+        index.putBook(5, List.of(author(1, "Terry Pratchett"), author(2, "Terry Jones")));
+        index.putBook(2, List.of(author(2, "Terry Jones")));
+        assertArrayEquals(new int[]{2, 5}, index.search("terry"));
+    }
+
+    @Test
+    void putBookReplacesTheAuthorsAndRenamesThem() {
+        AuthorIndex index = warmIndex();
+        index.putBook(1, List.of(author(1, "Frank Herbert")));
+        index.putBook(1, List.of(author(2, "Brian Herbert")));
+        assertArrayEquals(new int[0], index.search("frank"));
+        assertArrayEquals(new int[]{1}, index.search("brian"));
+        index.putAuthor(2, "Kevin Anderson");
+        assertArrayEquals(new int[0], index.search("brian"));
+        assertArrayEquals(new int[]{1}, index.search("kevin"));
+        index.removeBook(1);
+        assertArrayEquals(new int[0], index.search("kevin"));
+    }
+
+    @Test
+    void changesDuringABuildWinOverTheRowsItReads() {
+        AuthorIndex index = new AuthorIndex();
+        int build = index.beginBuild();
+        index.putBook(1, List.of(author(1, "New Name")));
+        index.addAuthorFromBuild(build, 1, "Old Name");
+        index.addLinkFromBuild(build, 1, 2);
+        index.addAuthorFromBuild(build, 3, "Other Author");
+        index.addLinkFromBuild(build, 2, 3);
+        assertFalse(index.isWarm());
+        index.finishBuild(build);
+        assertTrue(index.isWarm());
+        assertArrayEquals(new int[]{1}, index.search("new"));
+        assertArrayEquals(new int[0], index.search("old"));
+        assertArrayEquals(new int[]{2}, index.search("other"));
+        assertEquals(2, index.authorCount());
+    }
+
+    @Test
+    void abandonedBuildLeavesItCold() {
+        AuthorIndex index = new AuthorIndex();
+        int build = index.beginBuild();
+        index.addAuthorFromBuild(build, 1, "Frank Herbert");
+        index.abandonBuild(build);
+        assertFalse(index.isWarm());
+        assertEquals(0, index.authorCount());
+    }
+}
@@ -0,0 +1,167 @@
+package se.kth.Bahaa.booksdb.model;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * BookBatch on the in-memory backend, which reports the outcome of each
+ * operation the same way as the SQL one.
+ */
+class BookBatchTest {
+
+    private InMemoryBooksDb db;
+
+    @BeforeEach
+    void connect() {
+        db = new InMemoryBooksDb();
+        db.connect(null, null, null, null);
+    }
+
+    private static Book book(String isbn, String title) {
+        Book book = new Book(isbn, title, null);
+        book.setGenre(Genre.FANTASY);
+        book.setRating(3);
+        return book;
+    }
+
+    private Book stored(String isbn, String title) throws BooksDbException {
+        Book book = book(isbn, title);
+        db.addBook(book);
+        return book;
+    }
+
+    @Test
+    void reportsTheOutcomeOfEachOperation() throws BooksDbException {
+        Book existing = stored("111", "Existing");
+        Book other = stored("222", "Other");
+        Book missing = new Book(99, "999", "Missing", null);
+        missing.setGenre(Genre.MYSTERY);
+        Book renamed = new Book(other.getBookId(), "111", "Takes a taken ISBN", null); // the ISBN of existing
+        renamed.setGenre(Genre.MYSTERY);
+        Book added = book("333", "Added");
+        Book duplicate = book("222", "Duplicate");
+        Book invalid = book("444", null);
+
+        BookBatchResult result = db.beginBatch()
+                .updateBook(missing)
+                .updateBook(renamed)
+                .addBook(added)
+                .addBook(duplicate)
+                .addBook(invalid)
+                .deleteBook(new Book(98, "998", "Gone", null))
+                .commit();
+
+        List<BookBatchResult.ItemResult> items = result.getItems();
+        assertEquals(6, items.size());
+        assertItem(items.get(0), BookBatch.Operation.DELETE, BookBatchResult.Outcome.NOT_FOUND);
+        assertItem(items.get(1), BookBatch.Operation.UPDATE, BookBatchResult.Outcome.FAILED); // BookId 2
+        assertItem(items.get(2), BookBatch.Operation.UPDATE, BookBatchResult.Outcome.NOT_FOUND); // BookId 99
+        assertItem(items.get(3), BookBatch.Operation.ADD, BookBatchResult.Outcome.APPLIED);
+        assertItem(items.get(4), BookBatch.Operation.ADD, BookBatchResult.Outcome.FAILED);
+        assertItem(items.get(5), BookBatch.Operation.ADD, BookBatchResult.Outcome.FAILED);
+        assertNull(items.get(3).getMessage());
+        assertNotNull(items.get(1).getMessage());
+        assertNotNull(items.get(4).getMessage());
+        assertNotNull(items.get(5).getMessage());
+        assertEquals(1, result.count(BookBatchResult.Outcome.APPLIED));
+        assertEquals(2, result.count(BookBatchResult.Outcome.NOT_FOUND));
+        assertEquals(3, result.count(BookBatchResult.Outcome.FAILED));
+        assertFalse(result.isComplete());
+
+        // the failed items are left out, the others are committed
+        assertTrue(added.getBookId() > 0);
+        assertEquals("Added", db.searchBookByISBN("333").get(0).getTitle());
+        assertEquals("Other", db.searchBookByISBN("222").get(0).getTitle());
+        assertEquals("Existing", db.searchBookByISBN("111").get(0).getTitle());
+        assertEquals(3, db.size());
+        assertEquals(existing.getBookId(), db.searchBookByISBN("111").get(0).getBookId());
+    }
+
+    @Test
+    void writesDeletesBeforeUpdatesBeforeAdditions() throws BooksDbException {
+        Book first = stored("111", "First");
+        Book second = stored("222", "Second");
+        Book reusesIsbn = book("111", "Reuses the ISBN of First");
+        second.setTitle("Second, updated");
+
+        BookBatchResult result = db.beginBatch()
+                .addBook(reusesIsbn)
+                .updateBook(second)
+                .deleteBook(first)
+                .commit();
+
+        assertTrue(result.isComplete(), result.toString());
+        assertEquals(BookBatch.Operation.DELETE, result.getItems().get(0).getOperation());
+        assertEquals(BookBatch.Operation.UPDATE, result.getItems().get(1).getOperation());
+        assertEquals(BookBatch.Operation.ADD, result.getItems().get(2).getOperation());
+        assertEquals("Reuses the ISBN of First", db.searchBookByISBN("111").get(0).getTitle());
+        assertEquals("Second, updated", db.searchBookByISBN("222").get(0).getTitle());
+    }
+
+    @Test
+    void keepsOneOperationPerBook() throws BooksDbException {
+        Book stored = stored("111", "Stored");
+        Book added = book("222", "Added");
+        Book dropped = book("333", "Dropped");
+
+        BookBatch batch = db.beginBatch()
+                .updateBook(stored)
+                .updateBook(stored)
+                .addBook(added)
+                .addBook(added)
+                .updateBook(added) // still added, as it is when committed
+                .addBook(dropped)
+                .deleteBook(dropped); // nothing to write
+        assertEquals(2, batch.size());
+        added.setTitle("Added, then edited");
+        batch.deleteBook(stored); // replaces the update
+        assertEquals(2, batch.size());
+
+        BookBatchResult result = batch.commit();
+        assertEquals(2, result.getItems().size());
+        assertItem(result.getItems().get(0), BookBatch.Operation.DELETE, BookBatchResult.Outcome.APPLIED);
+        assertItem(result.getItems().get(1), BookBatch.Operation.ADD, BookBatchResult.Outcome.APPLIED);
+        assertEquals("Added, then edited", db.searchBookByISBN("222").get(0).getTitle());
+        assertTrue(db.searchBookByISBN("111").isEmpty());
+        assertTrue(db.searchBookByISBN("333").isEmpty());
+    }
+
+    @Test
+    void isCommittedOnce() throws BooksDbException {
+        BookBatch batch = db.beginBatch().addBook(book("111", "Once"));
+        batch.commit();
+        assertThrows(IllegalStateException.class, batch::commit);
+        assertThrows(IllegalStateException.class, () -> batch.addBook(book("222", "Too late")));
+        assertEquals(1, db.size());
+    }
+
+    @Test
+    void failedTransactionWritesNothing() {
+        db.disconnect();
+        BookBatch batch = db.beginBatch().addBook(book("111", "Never written"));
+        assertThrows(BooksDbException.class, batch::commit);
+        assertEquals(0, db.size());
+    }
+
+    @Test
+    void emptyBatchIsComplete() throws BooksDbException {
+        BookBatchResult result = db.beginBatch().commit();
+        assertTrue(result.getItems().isEmpty());
+        assertTrue(result.isComplete());
+    }
+
+    private static void assertItem(BookBatchResult.ItemResult item, BookBatch.Operation operation,
+                                   BookBatchResult.Outcome outcome) {
+        assertEquals(operation, item.getOperation(), item.toString());
+        assertEquals(outcome, item.getOutcome(), item.toString());
+    }
+}
@@ -0,0 +1,179 @@
+package se.kth.Bahaa.booksdb.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookCacheTest {
+
+    private static Book book(int bookId, String isbn, String title) {
+        Book book = new Book(bookId, isbn, title, Date.valueOf("2001-02-03"));
+        book.setGenre(Genre.FANTASY);
+        book.setRating(4);
+        List<Author> authors = new ArrayList<>();
+        authors.add(new Author(7, "Frank Herbert", "19200108-1234"));
+        book.setAuthors(authors);
+        return book;
+    }
+
+    @Test
+    void editingABookAfterPutDoesNotChangeTheCache() {
+        BookCache cache = new BookCache(10, 0);
+        Book book = book(1, "111", "Dune");
+        cache.put(book);
+        book.setTitle("Edited");
+        book.getPublished().setTime(0);
+        book.getAuthors().get(0).setName("Edited");
+        book.addAuthor(new Author(8, "Added", "19000101-0000"));
+
+        Book cached = cache.getById(1);
+        assertEquals("Dune", cached.getTitle());
+        assertEquals(Date.valueOf("2001-02-03"), cached.getPublished());
+        assertEquals(1, cached.getAuthors().size());
+        assertEquals("Frank Herbert", cached.getAuthors().get(0).getName());
+    }
+
+    @Test
+    void editingABookGotDoesNotChangeTheCache() {
+        BookCache cache = new BookCache(10, 0);
+        cache.put(book(1, "111", "Dune"));
+        Book got = cache.getByIsbn("111");
+        got.setTitle("Edited");
+        got.setRating(1);
+        got.getAuthors().get(0).setName("Edited");
+
+        Book again = cache.getById(1);
+        assertNotSame(got, again);
+        assertEquals("Dune", again.getTitle());
+        assertEquals(4, again.getRating());
+        assertEquals("Frank Herbert", again.getAuthors().get(0).getName());
+        assertEquals(Genre.FANTASY, again.getGenre());
+    }
+
+    @Test
+    void putReindexesAChangedIsbn() {
+        BookCache cache = new BookCache(10, 0);
+        cache.put(book(1, "111", "Dune"));
+        cache.put(book(1, "222", "Dune"));
+        assertNull(cache.getByIsbn("111"));
+        assertEquals(1, cache.getByIsbn("222").getBookId());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedBook() {
+        BookCache cache = new BookCache(2, 0);
+        cache.put(book(1, "111", "One"));
+        cache.put(book(2, "222", "Two"));
+        cache.getById(1);
+        cache.put(book(3, "333", "Three"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.getById(2));
+        assertNull(cache.getByIsbn("222"));
+        assertEquals("One", cache.getById(1).getTitle());
+    }
+
+    @Test
+    void invalidatesByAuthor() {
+        BookCache cache = new BookCache(10, 0);
+        cache.put(book(1, "111", "Dune"));
+        Book other = new Book(2, "222", "Emma", null);
+        cache.put(other);
+        cache.invalidateByAuthor(7);
+        assertNull(cache.getById(1));
+        assertNull(cache.getByIsbn("111"));
+        assertEquals("Emma", cache.getById(2).getTitle());
+    }
+
+    @Test
+    void sizeZeroDisablesIt() {
+        BookCache cache = new BookCache(0, 0);
+        cache.put(book(1, "111", "Dune"));
+        assertEquals(0, cache.size());
+        assertNull(cache.getById(1));
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void booksReadWithoutAWriteSinceAreCached() {
+        BookCache cache = new BookCache(10, 0);
+        long generation = cache.generation();
+        cache.putAll(List.of(book(1, "111", "Dune")), generation);
+        assertEquals("Dune", cache.getById(1).getTitle());
+    }
+
+    @Test
+    void readOverlappingAnInvalidatingUpdateDoesNotCacheTheOldBook() throws Exception {
+        BookCache cache = new BookCache(10, 0);
+        AtomicReference<Book> database = new AtomicReference<>(book(1, "111", "Dune"));
+        runReadDuringUpdate(cache, database, () -> {
+            database.set(book(1, "111", "Dune Messiah"));
+            cache.invalidate(1); // like deleteBook and commitBatch after their commit
+        });
+        assertNull(cache.getById(1), "the book read before the update was cached");
+    }
+
+    @Test
+    void readOverlappingAnUpdateThatPutsTheBookKeepsTheNewBook() throws Exception {
+        BookCache cache = new BookCache(10, 0);
+        AtomicReference<Book> database = new AtomicReference<>(book(1, "111", "Dune"));
+        runReadDuringUpdate(cache, database, () -> {
+            Book updated = book(1, "111", "Dune Messiah");
+            database.set(updated);
+            cache.put(updated); // like updateBook after its commit
+        });
+        assertEquals("Dune Messiah", cache.getById(1).getTitle());
+        assertEquals("Dune Messiah", cache.getByIsbn("111").getTitle());
+    }
+
+    /**
+     * Runs a read of the book and an update of it on two threads, with the
+     * update committed after the read has queried the database and before
+     * it puts what it read in the cache, the way readBooksWithAuthors does.
+     */
+    private static void runReadDuringUpdate(BookCache cache, AtomicReference<Book> database, Runnable update)
+            throws Exception {
+        CountDownLatch queried = new CountDownLatch(1);
+        CountDownLatch updated = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> read = threads.submit(() -> {
+                long generation = cache.generation();
+                Book book = database.get();
+                queried.countDown();
+                await(updated);
+                cache.putAll(List.of(book), generation);
+            });
+            Future<?> write = threads.submit(() -> {
+                await(queried);
+                update.run();
+                updated.countDown();
+            });
+            write.get(5, TimeUnit.SECONDS);
+            read.get(5, TimeUnit.SECONDS);
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package se.kth.Bahaa.booksdb.model;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * InMemoryBooksDb against the contract of BooksDbInterface.
+ */
+class InMemoryBooksDbTest {
+
+    private InMemoryBooksDb db;
+
+    @BeforeEach
+    void connect() {
+        db = new InMemoryBooksDb();
+        assertTrue(db.connect(null, null, null, null));
+    }
+
+    private static Book book(String isbn, String title, Genre genre, int rating, String published, Author... authors) {
+        Book book = new Book(isbn, title, published == null ? null : Date.valueOf(published));
+        book.setGenre(genre);
+        book.setRating(rating);
+        for (Author author : authors) {
+            book.addAuthor(author);
+        }
+        return book;
+    }
+
+    private static Author author(String name, String personNumber) {
+        return new Author(0, name, personNumber);
+    }
+
+    private void addCatalog() throws BooksDbException {
+        Author tolkien = author("J.R.R. Tolkien", "18920103-0001");
+        db.addBook(book("1", "The Hobbit", Genre.FANTASY, 5, "1937-09-21", tolkien));
+        db.addBook(book("2", "The Silmarillion", Genre.FANTASY, 4, "1977-09-15",
+                author("J.R.R. Tolkien", "18920103-0001"), author("Christopher Tolkien", "19241121-0002")));
+        db.addBook(book("3", "Dune", Genre.SCIENCE_FICTION, 5, "1965-08-01", author("Frank Herbert", "19201008-0003")));
+        db.addBook(book("4", "a study in scarlet", Genre.MYSTERY, 3, "1887-11-01"));
+        db.addBook(book("5", "Gone Girl", Genre.THRILLER, 2, "2012-06-05"));
+    }
+
+    private static List<String> titles(List<Book> books) {
+        return books.stream().map(Book::getTitle).collect(Collectors.toList());
+    }
+
+    @Test
+    void refusesCallsWhenNotConnected() {
+        db.disconnect();
+        assertThrows(BooksDbException.class, () -> db.getAllBooks());
+        assertThrows(BooksDbException.class, () -> db.addBook(book("1", "Dune", Genre.FANTASY, 1, null)));
+        assertThrows(BooksDbException.class, () -> db.searchBooksByTitle("dune"));
+    }
+
+    @Test
+    void addBookSetsTheIdsAndKeepsTheBooksOverReconnecting() throws BooksDbException {
+        Book book = book("1", "Dune", Genre.SCIENCE_FICTION, 5, "1965-08-01", author("Frank Herbert", "19201008-0003"));
+        db.addBook(book);
+        assertTrue(book.getBookId() > 0);
+        assertTrue(book.getAuthors().get(0).getAuthorId() > 0);
+
+        db.disconnect();
+        db.connect(null, null, null, null);
+        List<Book> all = db.getAllBooks();
+        assertEquals(1, all.size());
+        Book read = all.get(0);
+        assertEquals(book.getBookId(), read.getBookId());
+        assertEquals("1", read.getIsbn());
+        assertEquals("Dune", read.getTitle());
+        assertEquals(Date.valueOf("1965-08-01"), read.getPublished());
+        assertEquals(Genre.SCIENCE_FICTION, read.getGenre());
+        assertEquals(5, read.getRating());
+        assertEquals("Frank Herbert", read.getAuthorNames());
+    }
+
+    @Test
+    void refusesATakenIsbnAndInvalidBooks() throws BooksDbException {
+        db.addBook(book("1", "Dune", Genre.SCIENCE_FICTION, 5, null));
+        assertThrows(BooksDbException.class, () -> db.addBook(book("1", "Emma", Genre.ROMANCE, 3, null)));
+        assertThrows(BooksDbException.class, () -> db.addBook(book("2", null, Genre.ROMANCE, 3, null)));
+        assertThrows(BooksDbException.class, () -> db.addBook(book("3", "Emma", null, 3, null)));
+        assertThrows(BooksDbException.class, () -> db.addBook(book("4", "Emma", Genre.ROMANCE, 3, null, author(null, "1"))));
+        assertEquals(1, db.getAllBooks().size());
+    }
+
+    @Test
+    void addBooksAddsAllOrNone() throws BooksDbException {
+        db.addBook(book("1", "Dune", Genre.SCIENCE_FICTION, 5, null));
+        List<Book> withTakenIsbn = List.of(book("2", "Emma", Genre.ROMANCE, 3, null), book("1", "Again", Genre.ROMANCE, 3, null));
+        assertThrows(BooksDbException.class, () -> db.addBooks(withTakenIsbn));
+        List<Book> withTwins = List.of(book("3", "Emma", Genre.ROMANCE, 3, null), book("3", "Twin", Genre.ROMANCE, 3, null));
+        assertThrows(BooksDbException.class, () -> db.addBooks(withTwins));
+        assertEquals(1, db.getAllBooks().size());
+
+        db.addBooks(List.of(book("2", "Emma", Genre.ROMANCE, 3, null), book("3", "Persuasion", Genre.ROMANCE, 4, null)));
+        assertEquals(List.of("Dune", "Emma", "Persuasion"), titles(db.getAllBooks()));
+    }
+
+    @Test
+    void authorsAreMatchedOnPersonNumber() throws BooksDbException {
+        db.addBook(book("1", "The Hobbit", Genre.FANTASY, 5, null, author("Tolkien", "18920103-0001")));
+        Book second = book("2", "The Silmarillion", Genre.FANTASY, 4, null, author("J.R.R. Tolkien", "18920103-0001"));
+        db.addBook(second);
+        int authorId = second.getAuthors().get(0).getAuthorId();
+        assertEquals(authorId, db.searchBookByISBN("1").get(0).getAuthors().get(0).getAuthorId());
+
+        int newAuthorId = db.addAuthor(author("Christopher Tolkien", "19241121-0002"));
+        assertNotEquals(authorId, newAuthorId);
+        db.updateAuthor(new Author(authorId, "John Ronald Reuel Tolkien", "18920103-0001"));
+        assertEquals(List.of("The Hobbit", "The Silmarillion"), titles(db.searchBooksByAuthor("ronald")));
+        assertThrows(BooksDbException.class, () -> db.updateAuthor(new Author(999, "Nobody", "0")));
+    }
+
+    @Test
+    void updateBookReplacesTheBookAndItsIndexEntries() throws BooksDbException {
+        addCatalog();
+        Book dune = db.searchBookByISBN("3").get(0);
+        dune.setTitle("Dune Messiah");
+        dune.setGenre(Genre.FANTASY);
+        dune.setRating(1);
+        dune.setIsbn("33");
+        db.updateBook(dune);
+
+        assertTrue(db.searchBookByISBN("3").isEmpty());
+        assertEquals("Dune Messiah", db.searchBookByISBN("33").get(0).getTitle());
+        assertEquals(List.of("Dune Messiah"), titles(db.searchBooksByTitle("messiah")));
+        assertTrue(db.searchBooksByGenre(Genre.SCIENCE_FICTION).isEmpty());
+        assertEquals(List.of("Dune Messiah"), titles(db.searchBooksByRating(1)));
+        assertEquals(5, db.getAllBooks().size());
+
+        Book hobbit = db.searchBookByISBN("1").get(0);
+        hobbit.setIsbn("33");
+        assertThrows(BooksDbException.class, () -> db.updateBook(hobbit));
+        Book missing = book("9", "Missing", Genre.FANTASY, 1, null);
+        missing.setBookId(999);
+        assertThrows(BooksDbException.class, () -> db.updateBook(missing));
+    }
+
+    @Test
+    void deleteBookRemovesItFromEverySearch() throws BooksDbException {
+        addCatalog();
+        Book hobbit = db.searchBookByISBN("1").get(0);
+        db.deleteBook(hobbit);
+        db.deleteBook(hobbit); // already gone, no error
+        assertEquals(4, db.getAllBooks().size());
+        assertTrue(db.searchBookByISBN("1").isEmpty());
+        assertTrue(db.searchBooksByTitle("hobbit").isEmpty());
+        assertEquals(List.of("The Silmarillion"), titles(db.searchBooksByAuthor("tolkien")));
+        assertEquals(List.of("The Silmarillion"), titles(db.searchBooksByGenre(Genre.FANTASY)));
+        assertEquals(List.of("Dune"), titles(db.searchBooksByRating(5)));
+    }
+
+    @Test
+    void returnsCopies() throws BooksDbException {
+        addCatalog();
+        Book dune = db.searchBookByISBN("3").get(0);
+        dune.setTitle("Edited, not written");
+        dune.getAuthors().get(0).setName("Edited");
+        assertEquals("Dune", db.searchBookByISBN("3").get(0).getTitle());
+        assertEquals("Frank Herbert", db.searchBookByISBN("3").get(0).getAuthorNames());
+    }
+
+    @Test
+    void searchesByEachMode() throws BooksDbException {
+        addCatalog();
+        assertEquals(List.of("The Hobbit", "The Silmarillion"), titles(db.searchBooksByTitle("the")));
+        assertEquals(List.of("a study in scarlet"), titles(db.searchBooksByTitle("STUDY")));
+        assertEquals(List.of("The Hobbit", "The Silmarillion"), titles(db.searchBooksByAuthor("J R R")));
+        assertEquals(List.of("The Silmarillion"), titles(db.searchBooksByAuthor("christopher tolk")));
+        assertEquals(List.of("Dune"), titles(db.searchBookByISBN("3")));
+        assertTrue(db.searchBookByISBN("33").isEmpty());
+        assertEquals(List.of("The Hobbit", "The Silmarillion"), titles(db.searchBooksByGenre(Genre.FANTASY)));
+        assertEquals(List.of("The Hobbit", "Dune"), titles(db.searchBooksByRating(5)));
+        assertThrows(BooksDbException.class, () -> db.searchBooksByGenre(null));
+    }
+
+    @Test
+    void searchBooksCombinesTheCriteria() throws BooksDbException {
+        addCatalog();
+        BookSearchSpec fantasyOrMystery = BookSearchSpec.builder()
+                .genres(Genre.FANTASY, Genre.MYSTERY)
+                .minRating(3)
+                .publishedFrom(LocalDate.of(1900, 1, 1))
+                .build();
+        assertEquals(List.of("The Hobbit", "The Silmarillion"), titles(db.searchBooks(fantasyOrMystery)));
+        assertEquals(2, db.countBooks(fantasyOrMystery));
+
+        BookSearchSpec byAuthorAndTitle = BookSearchSpec.builder().authorContains("tolkien").titleContains("silm").build();
+        assertEquals(List.of("The Silmarillion"), titles(db.searchBooks(byAuthorAndTitle)));
+
+        BookFacets facets = db.getFacets(BookSearchSpec.builder().minRating(4).build());
+        assertEquals(3, facets.getTotal());
+        assertEquals(2, facets.getGenreCounts().get(Genre.FANTASY));
+        assertEquals(1, facets.getGenreCounts().get(Genre.SCIENCE_FICTION));
+        assertEquals(2, facets.getRatingCounts().get(5));
+        assertEquals(1, facets.getYearCounts().get(1937));
+    }
+
+    @Test
+    void searchBooksSortsAndPages() throws BooksDbException {
+        addCatalog();
+        BookSearchSpec byTitle = BookSearchSpec.builder().sortOrder(BookSortOrder.TITLE).build();
+        List<String> all = titles(db.searchBooks(byTitle));
+        assertEquals(List.of("a study in scarlet", "Dune", "Gone Girl", "The Hobbit", "The Silmarillion"), all);
+
+        List<Book> firstTwo = db.searchBooks(byTitle.toBuilder().limit(2).build());
+        assertEquals(all.subList(0, 2), titles(firstTwo));
+        assertEquals(all.subList(2, 4), titles(db.searchBooks(byTitle.toBuilder().offset(2).limit(2).build())));
+        Book last = firstTwo.get(1);
+        assertEquals(all.subList(2, 5), titles(db.searchBooks(byTitle.toBuilder()
+                .after(last.getBookId(), last.getTitle()).build())));
+        assertEquals(all.subList(3, 5), titles(db.searchBooks(byTitle.toBuilder()
+                .after(last.getBookId(), last.getTitle()).offset(1).limit(10).build())));
+
+        BookSearchSpec byIdDescending = BookSearchSpec.builder().descending(true).build();
+        List<Book> descending = db.searchBooks(byIdDescending);
+        assertEquals(List.of("Gone Girl", "a study in scarlet", "Dune", "The Silmarillion", "The Hobbit"), titles(descending));
+        Book third = descending.get(2);
+        assertEquals(List.of("The Silmarillion", "The Hobbit"), titles(db.searchBooks(byIdDescending.toBuilder()
+                .after(third.getBookId(), third.getTitle()).build())));
+        assertEquals(5, db.countBooks(byIdDescending.toBuilder().after(third.getBookId(), third.getTitle()).limit(1).build()));
+    }
+
+    @Test
+    void pagesCoverEveryBookOnce() throws BooksDbException {
+        for (int i = 0; i < 23; i++) {
+            db.addBook(book("isbn" + i, "Title " + (char) ('z' - i), Genre.FANTASY, i % 6, null));
+        }
+        for (BookSortOrder sortOrder : BookSortOrder.values()) {
+            List<Book> seen = new ArrayList<>();
+            String afterKey = null;
+            BookPage page;
+            do {
+                page = db.getBooksPage(afterKey, 5, sortOrder);
+                assertTrue(page.getBooks().size() <= 5);
+                seen.addAll(page.getBooks());
+                afterKey = page.getNextPageToken();
+            } while (page.hasNextPage());
+            assertEquals(titles(db.searchBooks(BookSearchSpec.builder().sortOrder(sortOrder).build())), titles(seen),
+                    sortOrder.toString());
+        }
+
+        List<Book> matching = new ArrayList<>();
+        String afterKey = null;
+        BookPage page;
+        do {
+            page = db.searchBooksPage(SearchMode.RATING, "5", afterKey, 2, BookSortOrder.BOOK_ID);
+            matching.addAll(page.getBooks());
+            afterKey = page.getNextPageToken();
+        } while (page.hasNextPage());
+        assertEquals(titles(db.searchBooksByRating(5)), titles(matching));
+    }
+
+    @Test
+    void streamsReadTheBooksLeftWhenConsumed() throws BooksDbException {
+        addCatalog();
+        try (Stream<Book> books = db.streamAllBooks()) {
+            db.deleteBook(db.searchBookByISBN("2").get(0));
+            assertEquals(List.of("The Hobbit", "Dune", "a study in scarlet", "Gone Girl"), titles(books.collect(Collectors.toList())));
+        }
+        try (Stream<Book> books = db.streamBooks(SearchMode.GENRE, "fantasy")) {
+            assertEquals(List.of("The Hobbit"), titles(books.collect(Collectors.toList())));
+        }
+        assertThrows(BooksDbException.class, () -> db.streamBooks(SearchMode.GENRE, "poetry"));
+        assertFalse(db.streamBooks(SearchMode.Title, "dune").findFirst().isEmpty());
+    }
+}
@@ -0,0 +1,93 @@
+package se.kth.Bahaa.booksdb.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogramHasNoPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(0, histogram.percentile(100));
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        for (long micros = 0; micros < 16; micros++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(micros);
+            assertEquals(micros, histogram.percentile(100));
+        }
+    }
+
+    @Test
+    void bucketBoundIsAtLeastTheValueAndWithinASixteenth() {
+        long[] values = {16, 17, 31, 32, 33, 34, 63, 64, 100, 1000, 1023, 1024, 1025,
+                999_999, 1_000_000, 3_600_000_000L, Long.MAX_VALUE / 3, Long.MAX_VALUE - 1};
+        for (long micros : values) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(micros);
+            long bound = histogram.percentile(100);
+            assertTrue(bound >= micros, micros + " reported as " + bound);
+            assertTrue(bound - micros <= micros / 16, micros + " reported as " + bound);
+        }
+    }
+
+    @Test
+    void everyPowerOfTwoEdgeLandsInItsOwnBucket() {
+        for (int exponent = 4; exponent < 63; exponent++) {
+            long power = 1L << exponent;
+            LatencyHistogram below = new LatencyHistogram();
+            below.record(power - 1);
+            LatencyHistogram at = new LatencyHistogram();
+            at.record(power);
+            assertEquals(power - 1, below.percentile(100), "2^" + exponent + " - 1");
+            assertTrue(at.percentile(100) >= power, "2^" + exponent);
+        }
+    }
+
+    @Test
+    void largestValueFits() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.percentile(100));
+    }
+
+    @Test
+    void negativeValuesCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.percentile(100));
+    }
+
+    @Test
+    void percentilesFollowTheRanks() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros);
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(1, histogram.percentile(0));
+        assertBetween(500, 500 + 500 / 16, histogram.percentile(50));
+        assertBetween(990, 990 + 990 / 16, histogram.percentile(99));
+        assertBetween(1000, 1000 + 1000 / 16, histogram.percentile(100));
+    }
+
+    @Test
+    void resetEmptiesIt() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.percentile(99));
+    }
+
+    private static void assertBetween(long low, long high, long actual) {
+        assertTrue(actual >= low && actual <= high, actual + " is not in [" + low + ", " + high + "]");
+    }
+}
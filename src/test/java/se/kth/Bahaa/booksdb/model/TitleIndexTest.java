@@ -0,0 +1,133 @@
+package se.kth.Bahaa.booksdb.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TitleIndexTest {
+
+    private static TitleIndex warmIndex() {
+        TitleIndex index = new TitleIndex();
+        index.finishBuild(index.beginBuild());
+        return index;
+    }
+
+    @Test
+    void findsSubstringsIgnoringCase() {
+        TitleIndex index = warmIndex();
+        index.put(1, "The Hobbit");
+        index.put(2, "Dune");
+        index.put(3, "HOBBITS and Men");
+        assertArrayEquals(new int[]{3, 1}, index.search("hobbit"));
+        assertArrayEquals(new int[]{2}, index.search("UNE"));
+        assertArrayEquals(new int[0], index.search("dragon"));
+    }
+
+    @Test
+    void trigramsInTheWrongOrderAreNoMatch() {
+        TitleIndex index = warmIndex();
+        index.put(1, "abcd bcde"); // has every trigram of "abcde", but not the text
+        assertArrayEquals(new int[0], index.search("abcde"));
+        index.put(2, "xabcdex");
+        assertArrayEquals(new int[]{2}, index.search("abcde"));
+    }
+
+    @Test
+    void ranksExactThenPrefixThenWordStartThenOther() {
+        TitleIndex index = warmIndex();
+        index.put(1, "Metaring");     // inside a word
+        index.put(2, "The Ring");     // start of a word
+        index.put(3, "Ring of Fire"); // prefix
+        index.put(4, "ring");         // exact
+        index.put(5, "Rings");        // shorter prefix, before 3
+        assertArrayEquals(new int[]{4, 5, 3, 2, 1}, index.search("Ring"));
+    }
+
+    @Test
+    void earlierAndShorterMatchesComeFirstWithinARank() {
+        TitleIndex index = warmIndex();
+        index.put(1, "A Long Way To The Star");
+        index.put(2, "The Star");
+        index.put(3, "A Star");
+        index.put(4, "A Star Is Born");
+        assertArrayEquals(new int[]{3, 4, 2, 1}, index.search("star"));
+    }
+
+    @Test
+    void shortQueriesScanEveryTitle() {
+        TitleIndex index = warmIndex();
+        index.put(1, "It");
+        index.put(2, "Kit");
+        index.put(3, "Dune");
+        assertArrayEquals(new int[]{1, 2}, index.search("it"));
+        assertEquals(3, index.search("").length);
+    }
+
+    @Test
+    void putReplacesAndRemoveDropsATitle() {
+        TitleIndex index = warmIndex();
+        index.put(1, "Dune");
+        index.put(1, "Emma");
+        assertArrayEquals(new int[0], index.search("dune"));
+        assertArrayEquals(new int[]{1}, index.search("emma"));
+        index.remove(1);
+        assertArrayEquals(new int[0], index.search("emma"));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void isColdUntilTheBuildFinishes() {
+        TitleIndex index = new TitleIndex();
+        assertFalse(index.isWarm());
+        int build = index.beginBuild();
+        index.addFromBuild(build, 1, "Dune");
+        assertFalse(index.isWarm());
+        index.finishBuild(build);
+        assertTrue(index.isWarm());
+        assertArrayEquals(new int[]{1}, index.search("dune"));
+    }
+
+    @Test
+    void changesDuringABuildWinOverTheRowsItReads() {
+        TitleIndex index = new TitleIndex();
+        int build = index.beginBuild();
+        index.put(1, "New Title");
+        index.remove(2);
+        index.addFromBuild(build, 1, "Old Title");
+        index.addFromBuild(build, 2, "Deleted Title");
+        index.addFromBuild(build, 3, "Other Title");
+        index.finishBuild(build);
+        assertArrayEquals(new int[]{1}, index.search("new"));
+        assertArrayEquals(new int[0], index.search("old"));
+        assertArrayEquals(new int[0], index.search("deleted"));
+        assertArrayEquals(new int[]{3}, index.search("other"));
+    }
+
+    @Test
+    void supersededBuildIsIgnored() {
+        TitleIndex index = new TitleIndex();
+        int first = index.beginBuild();
+        int second = index.beginBuild();
+        index.addFromBuild(first, 1, "Dune");
+        index.finishBuild(first);
+        assertFalse(index.isWarm());
+        index.abandonBuild(first);
+        index.addFromBuild(second, 2, "Emma");
+        index.finishBuild(second);
+        assertTrue(index.isWarm());
+        assertArrayEquals(new int[0], index.search("dune"));
+        assertArrayEquals(new int[]{2}, index.search("emma"));
+    }
+
+    @Test
+    void clearLeavesItColdAndEmpty() {
+        TitleIndex index = warmIndex();
+        index.put(1, "Dune");
+        index.clear();
+        assertFalse(index.isWarm());
+        assertEquals(0, index.size());
+    }
+}
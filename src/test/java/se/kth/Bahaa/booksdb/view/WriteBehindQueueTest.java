@@ -0,0 +1,234 @@
+package se.kth.Bahaa.booksdb.view;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se.kth.Bahaa.booksdb.model.AsyncBooksDb;
+import se.kth.Bahaa.booksdb.model.Book;
+import se.kth.Bahaa.booksdb.model.BookBatch;
+import se.kth.Bahaa.booksdb.model.BookChange;
+import se.kth.Bahaa.booksdb.model.BooksDbException;
+import se.kth.Bahaa.booksdb.model.Genre;
+import se.kth.Bahaa.booksdb.model.InMemoryBooksDb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * WriteBehindQueue without the FX toolkit: the callbacks of AsyncBooksDb are
+ * run on the test thread when it asks for them, like the FX thread would run
+ * them, and the flush delay finishes when the test says so.
+ */
+class WriteBehindQueueTest {
+
+    /**
+     * A flush delay that finishes when the test calls finish.
+     */
+    private static class ManualDelay implements WriteBehindQueue.FlushDelay {
+        Runnable flush;
+        boolean running;
+
+        @Override
+        public void play() {
+            running = true;
+        }
+
+        @Override
+        public void stop() {
+            running = false;
+        }
+
+        @Override
+        public void setOnFinished(Runnable flush) {
+            this.flush = flush;
+        }
+
+        void finish() {
+            assertTrue(running, "the flush delay is not running");
+            running = false;
+            flush.run();
+        }
+    }
+
+    private final BlockingQueue<Runnable> callbacks = new LinkedBlockingQueue<>();
+    private final List<List<String>> commits = new ArrayList<>(); // the changes of each commit, as delivered
+    private final ManualDelay delay = new ManualDelay();
+    private int failedWrites;
+    private String failureMessage;
+    private InMemoryBooksDb db;
+    private AsyncBooksDb asyncDb;
+    private WriteBehindQueue queue;
+
+    @BeforeEach
+    void createQueue() {
+        db = new InMemoryBooksDb();
+        db.connect(null, null, null, null);
+        asyncDb = new AsyncBooksDb(db, new Properties(), callbacks::add);
+        asyncDb.addChangeListener(changes -> commits.add(describe(changes)));
+        queue = new WriteBehindQueue(asyncDb, 3, delay, (count, message) -> {
+            failedWrites = count;
+            failureMessage = message;
+        });
+    }
+
+    @AfterEach
+    void shutdown() {
+        asyncDb.shutdown(1000);
+    }
+
+    private static Book book(String isbn, String title) {
+        Book book = new Book(isbn, title, null);
+        book.setGenre(Genre.FANTASY);
+        return book;
+    }
+
+    private Book stored(String isbn, String title) throws BooksDbException {
+        Book book = book(isbn, title);
+        db.addBook(book);
+        return book;
+    }
+
+    /**
+     * Waits for the commit that was started to be written.
+     *
+     * @return its callback, for the test to run as the FX thread would
+     */
+    private Runnable awaitCommit() throws InterruptedException {
+        Runnable callback = callbacks.poll(5, TimeUnit.SECONDS);
+        assertNotNull(callback, "no commit completed");
+        return callback;
+    }
+
+    private void completeCommit() throws InterruptedException {
+        awaitCommit().run();
+    }
+
+    private static List<String> describe(List<BookChange> changes) {
+        return changes.stream().map(change -> change.getType() + " " + change.getBook().getTitle())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void writesTheEditsOfEachBookOnceAfterTheDelay() throws Exception {
+        Book stored = stored("1", "Stored");
+        Book added = book("2", "Added");
+        queue.addBook(added);
+        added.setTitle("Added, edited");
+        queue.updateBook(added);
+        stored.setTitle("Stored, edited once");
+        queue.updateBook(stored);
+        stored.setTitle("Stored, edited twice");
+        queue.updateBook(stored);
+        assertTrue(delay.running);
+        assertTrue(commits.isEmpty());
+        assertEquals("Stored", db.searchBookByISBN("1").get(0).getTitle());
+
+        delay.finish();
+        completeCommit();
+        assertEquals(1, commits.size());
+        assertEquals(List.of("UPDATED Stored, edited twice", "ADDED Added, edited"), commits.get(0));
+        assertEquals("Stored, edited twice", db.searchBookByISBN("1").get(0).getTitle());
+        assertTrue(added.getBookId() > 0);
+        assertFalse(delay.running);
+    }
+
+    @Test
+    void addingAndDeletingABookWritesNothing() throws Exception {
+        Book book = book("1", "Short-lived");
+        queue.addBook(book);
+        queue.deleteBook(book);
+        delay.finish();
+        completeCommit();
+        assertTrue(commits.isEmpty());
+        assertEquals(0, db.size());
+    }
+
+    @Test
+    void fullBatchIsWrittenWithoutWaiting() throws Exception {
+        queue.addBook(book("1", "One"));
+        queue.addBook(book("2", "Two"));
+        queue.addBook(book("3", "Three")); // maxBatchSize
+        assertFalse(delay.running);
+        completeCommit();
+        assertEquals(3, commits.get(0).size());
+        assertEquals(3, db.size());
+    }
+
+    @Test
+    void editsDuringACommitGoInTheNextBatch() throws Exception {
+        Book added = book("1", "Added");
+        Book other = stored("2", "Other");
+        queue.addBook(added);
+        queue.flush();
+        Runnable committed = awaitCommit(); // the FX thread has not been told yet
+        added.setTitle("Edited while its add was committed"); // waits for the add to be delivered
+        queue.updateBook(added);
+        other.setTitle("Other, edited");
+        queue.updateBook(other);
+        queue.flush(); // waits for the commit running
+        assertFalse(delay.running);
+
+        committed.run();
+        assertEquals(1, commits.get(0).size());
+        assertEquals("Added", db.searchBookByISBN("1").get(0).getTitle());
+        assertTrue(delay.running);
+        delay.finish();
+        completeCommit();
+        assertEquals(List.of("UPDATED Other, edited", "UPDATED Edited while its add was committed"), commits.get(1));
+        assertEquals("Edited while its add was committed", db.searchBookByISBN("1").get(0).getTitle());
+        assertEquals(0, failedWrites);
+    }
+
+    @Test
+    void failedWritesAreKeptUntilRetriedOrDismissed() throws Exception {
+        Book stored = stored("1", "Stored");
+        Book missing = new Book(99, "99", "Missing", null);
+        missing.setGenre(Genre.FANTASY);
+        Book taken = book("1", "Takes a taken ISBN");
+        queue.updateBook(missing);
+        queue.addBook(taken);
+        queue.deleteBook(new Book(98, "98", "Already deleted", null)); // no failure for a delete
+        completeCommit();
+        assertEquals(2, failedWrites);
+        assertNotNull(failureMessage);
+        assertTrue(commits.isEmpty());
+
+        db.deleteBook(stored); // frees the ISBN
+        queue.retryFailed();
+        assertEquals(0, failedWrites);
+        delay.finish();
+        completeCommit();
+        assertEquals(List.of("ADDED Takes a taken ISBN"), commits.get(0));
+        assertEquals(1, failedWrites); // the missing book is still missing
+
+        queue.dismissFailed();
+        assertEquals(0, failedWrites);
+        assertNull(failureMessage);
+    }
+
+    @Test
+    void pendingWritesAreTakenForWritingOnExit() throws Exception {
+        queue.addBook(book("1", "Not flushed yet"));
+        BookBatch pending = queue.takePending();
+        assertFalse(delay.running);
+        assertEquals(1, pending.size());
+        queue.addBook(book("2", "After taking")); // no more commits
+        assertNull(callbacks.poll(100, TimeUnit.MILLISECONDS));
+
+        WriteBehindQueue.commitOnExit(pending);
+        assertEquals("Not flushed yet", db.searchBookByISBN("1").get(0).getTitle());
+        assertTrue(db.searchBookByISBN("2").isEmpty());
+        assertEquals(1, queue.takePending().size());
+    }
+}